@@ -0,0 +1,224 @@
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Asynchronous CalcYield on an executor, with concurrent identical requests
+ * coalesced into one solve. When a popular bond reprices, every thread that
+ * asks for the new price before it is memoized waits on the same solve
+ * instead of running its own.
+ *
+ * Memoized yields complete straight away without going to the executor.
+ * Every caller gets a future of its own, so cancelling one only abandons that
+ * caller's wait. A solve that every caller has abandoned before it starts
+ * is skipped. One that has started runs to the end and memoizes its yield,
+ * as a solve is far too short to be worth interrupting.
+ */
+public class AsyncYieldCalculator {
+  private final BondYieldCalculator calc;
+  private final Executor executor;
+
+  /* Solves queued or running, by key */
+  private final ConcurrentHashMap<Key, Flight> flights = new ConcurrentHashMap<>();
+
+  private final LongAdder solves = new LongAdder();
+  private final LongAdder coalesced = new LongAdder();
+
+  /**
+  * Creates an async calculator running on the common fork/join pool.
+  * @param  calc calculator that is safe to share between threads
+  */
+  public AsyncYieldCalculator(BondYieldCalculator calc) {
+    this(calc, ForkJoinPool.commonPool());
+  }
+
+  /**
+  * Creates an async calculator.
+  * @param  calc     calculator that is safe to share between threads
+  * @param  executor runs the solves
+  */
+  public AsyncYieldCalculator(BondYieldCalculator calc, Executor executor) {
+    if (!calc.isThreadSafe()) {
+      throw new IllegalArgumentException("Calculator memos are not striped, create it with BondYieldCalculator.concurrent()");
+    }
+    this.calc = calc;
+    this.executor = executor;
+  }
+
+  /**
+  * Calculates the yield of a bond on the executor, sharing the solve with
+  * any identical request already queued or running.
+  * @param  coupon coupon rate
+  * @param  years  number of years to maturity
+  * @param  face   face value
+  * @param  price  price of bond
+  * @return        future yield of bond, cancelling it abandons this caller's wait
+  */
+  public CompletableFuture<Double> CalcYield(double coupon, int years, double face, double price) {
+    double yield = calc.memoizedYield(coupon, years, face, price);
+    if (yield != YieldMemo.MISS) {
+      return CompletableFuture.completedFuture(yield);
+    }
+
+    Key key = new Key(coupon, years, face, price);
+    while (true) {
+      Flight flight = flights.get(key);
+      if (flight == null) {
+        Flight created = new Flight(key, coupon, years, face, price);
+        flight = flights.putIfAbsent(key, created);
+        if (flight == null) {
+          CompletableFuture<Double> waiter = created.follow();
+          launch(created);
+          return waiter;
+        }
+      }
+      /* Join unless every caller has abandoned it, then it is on its way out */
+      CompletableFuture<Double> waiter = flight.follow();
+      if (waiter != null) {
+        coalesced.increment();
+        return waiter;
+      }
+      flights.remove(key, flight);
+    }
+  }
+
+  /* Solves run, at most one at a time per key */
+  public long solves() {
+    return solves.sum();
+  }
+
+  /* Requests that joined a solve already in flight */
+  public long coalesced() {
+    return coalesced.sum();
+  }
+
+  /* Solves queued or running right now */
+  public int inFlight() {
+    return flights.size();
+  }
+
+  private void launch(Flight flight) {
+    try {
+      executor.execute(flight);
+    } catch (RejectedExecutionException e) {
+      flights.remove(flight.key, flight);
+      flight.result.completeExceptionally(e);
+    }
+  }
+
+  /* One solve and the callers waiting on it */
+  private final class Flight implements Runnable {
+    final Key key;
+    final double coupon;
+    final int years;
+    final double face;
+    final double price;
+    final CompletableFuture<Double> result = new CompletableFuture<>();
+
+    /* Callers still waiting, and whether the solve has begun, guarded by this */
+    private int waiters;
+    private boolean abandoned;
+    private boolean started;
+
+    Flight(Key key, double coupon, int years, double face, double price) {
+      this.key = key;
+      this.coupon = coupon;
+      this.years = years;
+      this.face = face;
+      this.price = price;
+    }
+
+    public void run() {
+      synchronized (this) {
+        if (abandoned) {
+          return;
+        }
+        started = true;
+      }
+      try {
+        /* A flight for the same key may have finished between the caller's lookup and this one */
+        double yield = calc.memoizedYield(coupon, years, face, price);
+        if (yield == YieldMemo.MISS) {
+          solves.increment();
+          yield = calc.solveYield(coupon, years, face, price);
+        }
+        result.complete(yield);
+      } catch (Throwable t) {
+        result.completeExceptionally(t);
+      } finally {
+        flights.remove(key, this);
+      }
+    }
+
+    /**
+    * Adds a caller, with a future of its own that completes with the solve.
+    * @return the caller's future, or null if every caller has abandoned the solve
+    */
+    CompletableFuture<Double> follow() {
+      synchronized (this) {
+        if (abandoned) {
+          return null;
+        }
+        waiters++;
+      }
+      CompletableFuture<Double> waiter = new CompletableFuture<>();
+      result.whenComplete((yield, error) -> {
+        if (error != null) {
+          waiter.completeExceptionally(error);
+        } else {
+          waiter.complete(yield);
+        }
+      });
+      waiter.whenComplete((yield, error) -> {
+        if (waiter.isCancelled()) {
+          leave();
+        }
+      });
+      return waiter;
+    }
+
+    /*
+     * A caller cancelled, the solve is abandoned if it was the last one and
+     * has not started. A started solve stays in flights until run removes
+     * it, so a later identical request joins it rather than solving again.
+     */
+    private void leave() {
+      synchronized (this) {
+        if (--waiters > 0 || started || result.isDone()) {
+          return;
+        }
+        abandoned = true;
+      }
+      flights.remove(key, this);
+      result.cancel(false);
+    }
+  }
+
+  /* Exact key of a request, comparing the bits of each argument like the memos do */
+  private static final class Key {
+    private final long coupon;
+    private final int years;
+    private final long face;
+    private final long price;
+    private final int hash;
+
+    Key(double coupon, int years, double face, double price) {
+      this.coupon = Double.doubleToLongBits(coupon);
+      this.years = years;
+      this.face = Double.doubleToLongBits(face);
+      this.price = Double.doubleToLongBits(price);
+      this.hash = (int) YieldCache.hash(this.coupon, years, this.face, this.price);
+    }
+
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) other;
+      return coupon == key.coupon && years == key.years && face == key.face && price == key.price;
+    }
+
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
@@ -0,0 +1,440 @@
+/**
+ * Batch versions of CalcPrice and CalcYield over columns of bonds.
+ * Bonds are handled a block at a time as parallel primitive arrays, and
+ * discounting is done for the whole block in one loop: (1 + r)^N is built
+ * by repeated squaring, one pass per bit of the longest maturity, instead
+ * of a Math.pow per bond. The loops are straight passes over the columns
+ * with no calls or memo lookups, which leaves HotSpot free to unroll and
+ * vectorize them.
+ * Batch results do not go through, or fill in, the calculator's memos.
+ */
+public class BatchPricer {
+  private static final double ACCURACY = BondYieldCalculator.ACCURACY;
+  private static final double SMALL_RATE = BondYieldCalculator.SMALL_RATE;
+  private static final double SMALL_ANALYTICS_RATE = BondYieldCalculator.SMALL_ANALYTICS_RATE;
+
+  /* Bonds handled together, keeps the scratch columns in cache */
+  private static final int BLOCK = 1024;
+
+  /* Scratch columns for one block */
+  private final double[] coupons = new double[BLOCK];
+  private final double[] cfs = new double[BLOCK];
+  private final int[] years = new int[BLOCK];
+  private final double[] faces = new double[BLOCK];
+  private final double[] rates = new double[BLOCK];
+  private final double[] targets = new double[BLOCK];
+  private final double[] growth = new double[BLOCK];
+  private final double[] base = new double[BLOCK];
+  private final double[] remaining = new double[BLOCK];
+  private final double[] prices = new double[BLOCK];
+  private final double[] slopes = new double[BLOCK];
+  private final int[] lanes = new int[BLOCK];
+
+  /* Per lane state of the yield solver */
+  private final double[] below = new double[BLOCK];
+  private final double[] above = new double[BLOCK];
+  private final double[] steps = new double[BLOCK];
+  private final double[] lastSteps = new double[BLOCK];
+  private final double[] guessA = new double[BLOCK];
+  private final double[] guessB = new double[BLOCK];
+  private final YieldBracket[] brackets = new YieldBracket[BLOCK];
+  private final double[] priceA = new double[BLOCK];
+  private final double[] priceB = new double[BLOCK];
+
+  /**
+  * Prices every bond of a batch.
+  * @param  coupon coupon rates
+  * @param  year   numbers of years to maturity
+  * @param  face   face values
+  * @param  rate   discount rates
+  * @param  out    receives the price of each bond
+  */
+  public void prices(double[] coupon, int[] year, double[] face, double[] rate, double[] out) {
+    checkLengths(coupon, year, face, rate, out);
+    prices(coupon, year, face, rate, out, out.length);
+  }
+
+  /**
+  * Prices the first count bonds of columns that may be longer.
+  * @param  coupon coupon rates
+  * @param  year   numbers of years to maturity
+  * @param  face   face values
+  * @param  rate   discount rates
+  * @param  out    receives the price of each bond
+  * @param  count  number of bonds to price
+  */
+  void prices(double[] coupon, int[] year, double[] face, double[] rate, double[] out, int count) {
+    for (int start = 0; start < count; start += BLOCK) {
+      int n = Math.min(BLOCK, count - start);
+      for (int i = 0; i < n; i++) {
+        coupons[i] = coupon[start + i];
+        cfs[i] = coupon[start + i] * face[start + i];
+        years[i] = year[start + i];
+        faces[i] = face[start + i];
+        rates[i] = rate[start + i];
+      }
+      priceLanes(n, false);
+      System.arraycopy(prices, 0, out, start, n);
+    }
+  }
+
+  /**
+  * Finds the yield of every bond of a batch with a safeguarded Newton
+  * method run on all bonds together. Bonds drop out of the iteration as
+  * soon as they converge, so the slowest bond of a block does not make the
+  * others do extra work. Uses the same brackets and NaN rules as NewtonSolver.
+  * @param  coupon coupon rates
+  * @param  year   numbers of years to maturity
+  * @param  face   face values
+  * @param  price  prices of the bonds
+  * @param  out    receives the yield of each bond
+  */
+  public void yields(double[] coupon, int[] year, double[] face, double[] price, double[] out) {
+    checkLengths(coupon, year, face, price, out);
+    yields(coupon, year, face, price, out, out.length);
+  }
+
+  /**
+  * Finds the yields of the first count bonds of columns that may be longer.
+  * @param  coupon coupon rates
+  * @param  year   numbers of years to maturity
+  * @param  face   face values
+  * @param  price  prices of the bonds
+  * @param  out    receives the yield of each bond
+  * @param  count  number of bonds to solve
+  */
+  void yields(double[] coupon, int[] year, double[] face, double[] price, double[] out, int count) {
+    for (int start = 0; start < count; start += BLOCK) {
+      int n = Math.min(BLOCK, count - start);
+      int active = 0;
+      for (int i = 0; i < n; i++) {
+        /* Special case year = 0: return 0.0 */
+        if (year[start + i] == 0) {
+          out[start + i] = 0.0;
+          continue;
+        }
+        lanes[active] = start + i;
+        coupons[active] = coupon[start + i];
+        cfs[active] = coupon[start + i] * face[start + i];
+        years[active] = year[start + i];
+        faces[active] = face[start + i];
+        targets[active] = price[start + i];
+        active++;
+      }
+      solveLanes(active, out);
+    }
+  }
+
+  /**
+  * Prices every bond of a batch together with its modified duration,
+  * convexity, and DV01. The discount factors come from the same repeated
+  * squaring as prices, and the sensitivities follow from them in closed
+  * form as in BondYieldCalculator.calcAnalytics. Bonds with rates close
+  * to 0 are summed year by year instead.
+  * @param  coupon      coupon rates
+  * @param  year        numbers of years to maturity
+  * @param  face        face values
+  * @param  rate        discount rates
+  * @param  out         receives the price of each bond
+  * @param  durations   receives the modified duration of each bond
+  * @param  convexities receives the convexity of each bond
+  * @param  dv01s       receives the DV01 of each bond
+  */
+  public void analytics(double[] coupon, int[] year, double[] face, double[] rate,
+                        double[] out, double[] durations, double[] convexities, double[] dv01s) {
+    checkLengths(coupon, year, face, rate, out);
+    if (durations.length != out.length || convexities.length != out.length || dv01s.length != out.length) {
+      throw new IllegalArgumentException("All columns of a batch must have the same length");
+    }
+
+    for (int start = 0; start < out.length; start += BLOCK) {
+      int n = Math.min(BLOCK, out.length - start);
+      for (int i = 0; i < n; i++) {
+        coupons[i] = coupon[start + i];
+        cfs[i] = coupon[start + i] * face[start + i];
+        years[i] = year[start + i];
+        faces[i] = face[start + i];
+        rates[i] = rate[start + i];
+      }
+      priceLanes(n, false);
+
+      for (int k = 0; k < n; k++) {
+        int i = start + k;
+        double r = rates[k];
+        double inverse = 1.0 / (1.0 + r);
+        double discount = 1.0 / growth[k];
+        double annuity = (1.0 - discount) / r;
+        double discountSlope = -years[k] * discount * inverse;
+        double annuitySlope = (-discountSlope - annuity) / r;
+        double discountCurve = years[k] * (years[k] + 1.0) * discount * inverse * inverse;
+        double annuityCurve = (-discountCurve - 2.0 * annuitySlope) / r;
+        double slope = cfs[k] * annuitySlope + faces[k] * discountSlope;
+        out[i] = prices[k];
+        durations[i] = -slope / prices[k];
+        convexities[i] = (cfs[k] * annuityCurve + faces[k] * discountCurve) / prices[k];
+        dv01s[i] = -slope * BondYieldCalculator.BASIS_POINT;
+      }
+
+      /* Same special cases as CalcAnalytics */
+      for (int k = 0; k < n; k++) {
+        int i = start + k;
+        if (years[k] == 0) {
+          durations[i] = 0.0;
+          convexities[i] = 0.0;
+          dv01s[i] = 0.0;
+        } else if (Math.abs(rates[k]) < SMALL_ANALYTICS_RATE) {
+          BondAnalytics summed = BondYieldCalculator.calcSummedAnalytics(cfs[k], years[k], faces[k], rates[k]);
+          out[i] = summed.price;
+          durations[i] = summed.modifiedDuration;
+          convexities[i] = summed.convexity;
+          dv01s[i] = summed.dv01;
+        }
+      }
+    }
+  }
+
+  /**
+  * Runs the Newton iteration for lanes 0 to active - 1 and writes each
+  * lane's yield to out at the lane's original position.
+  * @param  active number of lanes to solve
+  * @param  out    receives the yields
+  */
+  private void solveLanes(int active, double[] out) {
+    /* Same brackets as bisection so both agree on when there is no yield */
+    for (int k = active - 1; k >= 0; k--) {
+      YieldBracket bracket = YieldBracket.classify(coupons[k], years[k], faces[k], targets[k]);
+      if (bracket == YieldBracket.NO_ROOT || bracket == YieldBracket.ZERO) {
+        out[lanes[k]] = bracket == YieldBracket.ZERO ? 0.0 : Double.NaN;
+        active = removeLane(k, active);
+        brackets[k] = brackets[active];
+        guessA[k] = guessA[active];
+        guessB[k] = guessB[active];
+        continue;
+      }
+      brackets[k] = bracket;
+      guessA[k] = bracket.guessA;
+      guessB[k] = bracket.guessB;
+    }
+    if (active == 0) {
+      return;
+    }
+    priceEnds(active);
+
+    /* Unsettled lanes whose bracket does not straddle the price try the other side of the asymptote if even */
+    boolean flipped = false;
+    for (int k = 0; k < active; k++) {
+      if (priceA[k] * priceB[k] > 0 && years[k] % 2 == 0 && brackets[k] == YieldBracket.UNKNOWN) {
+        guessA[k] = -5.0;
+        guessB[k] = -1.0 - ACCURACY;
+        flipped = true;
+      }
+    }
+    if (flipped) {
+      priceEnds(active);
+    }
+
+    for (int k = active - 1; k >= 0; k--) {
+      /* Back away from an asymptote that overflowed, doubling the distance */
+      int direction = guessB[k] < -1.0 ? -1 : 1;
+      double gap = ACCURACY;
+      while (Double.isNaN(priceB[k]) && gap < 1.0) {
+        gap *= 2;
+        guessB[k] = -1.0 + gap * direction;
+        priceB[k] = BondYieldCalculator.calcClosedFormPrice(coupons[k], years[k], faces[k], guessB[k]) - targets[k];
+      }
+
+      double result;
+      if (priceA[k] * priceB[k] > 0 || Double.isNaN(priceB[k])) {
+        result = Double.NaN;
+      } else if (Math.abs(priceA[k]) < ACCURACY) {
+        result = guessA[k];
+      } else if (Math.abs(priceB[k]) < ACCURACY) {
+        result = guessB[k];
+      } else {
+        /* Keep track of which end of the bracket is below and which is above the price */
+        below[k] = priceA[k] < 0 ? guessA[k] : guessB[k];
+        above[k] = priceA[k] < 0 ? guessB[k] : guessA[k];
+        double guess = (cfs[k] + (faces[k] - targets[k]) / years[k]) / ((faces[k] + targets[k]) / 2);
+        if (!isBetween(guess, below[k], above[k])) {
+          guess = (below[k] + above[k]) / 2;
+        }
+        rates[k] = guess;
+        steps[k] = Math.abs(above[k] - below[k]);
+        lastSteps[k] = steps[k];
+        continue;
+      }
+      out[lanes[k]] = result;
+      active = removeLane(k, active);
+    }
+
+    while (active > 0) {
+      priceLanes(active, true);
+      for (int k = active - 1; k >= 0; k--) {
+        double guess = rates[k];
+        double diff = prices[k] - targets[k];
+        if (Math.abs(diff) < ACCURACY || Double.isNaN(diff)) {
+          out[lanes[k]] = Double.isNaN(diff) ? Double.NaN : guess;
+          active = removeLane(k, active);
+          continue;
+        }
+
+        if (diff < 0) {
+          below[k] = guess;
+        } else {
+          above[k] = guess;
+        }
+        double slope = slopes[k];
+        double next = guess - diff / slope;
+        if (!isBetween(next, below[k], above[k]) || Math.abs(2.0 * diff) > Math.abs(lastSteps[k] * slope)) {
+          next = (below[k] + above[k]) / 2;
+        }
+        lastSteps[k] = steps[k];
+        steps[k] = next - guess;
+
+        /* Bracket has collapsed to neighbouring doubles, cannot get any closer */
+        if (next == guess || next == below[k] || next == above[k]) {
+          out[lanes[k]] = guess;
+          active = removeLane(k, active);
+          continue;
+        }
+        rates[k] = next;
+      }
+    }
+  }
+
+  /**
+  * Prices lanes 0 to n - 1 at both ends of their brackets, relative to
+  * their target prices.
+  * @param  n number of lanes
+  */
+  private void priceEnds(int n) {
+    System.arraycopy(guessA, 0, rates, 0, n);
+    priceLanes(n, false);
+    for (int k = 0; k < n; k++) {
+      priceA[k] = prices[k] - targets[k];
+    }
+    System.arraycopy(guessB, 0, rates, 0, n);
+    priceLanes(n, false);
+    for (int k = 0; k < n; k++) {
+      priceB[k] = prices[k] - targets[k];
+    }
+  }
+
+  /**
+  * Prices lanes 0 to n - 1 at their rates, and optionally the derivative
+  * of the price with respect to the rate.
+  * C * (1 - (1 + r)^-N) / r + F / (1 + r)^N
+  * @param  n          number of lanes
+  * @param  withSlopes true to also fill in slopes
+  */
+  private void priceLanes(int n, boolean withSlopes) {
+    int maxYears = 0;
+    for (int k = 0; k < n; k++) {
+      maxYears = Math.max(maxYears, years[k]);
+      remaining[k] = years[k];
+      base[k] = Math.max(-Double.MAX_VALUE, Math.min(1.0 + rates[k], Double.MAX_VALUE));
+      growth[k] = 1.0;
+    }
+
+    /*
+    * (1 + r)^N by squaring, one pass per bit of the longest maturity.
+    * A select on the bit compiles to a branch that mispredicts about half
+    * the time on mixed maturities, so each pass is kept branch-free for
+    * HotSpot to vectorize instead: the low bit comes from halving a double
+    * copy of N, and every lane multiplies by bit * base + (1 - bit), which
+    * is exactly base or 1.0. Bases are held below overflow so that blend
+    * never meets 0 * infinity.
+    */
+    for (int shift = 0; (maxYears >>> shift) != 0; shift++) {
+      for (int k = 0; k < n; k++) {
+        double b = base[k];
+        double half = remaining[k] * 0.5;
+        double rest = Math.floor(half);
+        double bit = 2.0 * (half - rest);
+        remaining[k] = rest;
+        growth[k] *= bit * b + (1.0 - bit);
+        base[k] = Math.min(b * b, Double.MAX_VALUE);
+      }
+    }
+
+    for (int k = 0; k < n; k++) {
+      double discount = 1.0 / growth[k];
+      prices[k] = cfs[k] * (1.0 - discount) / rates[k] + faces[k] * discount;
+    }
+    if (withSlopes) {
+      for (int k = 0; k < n; k++) {
+        double rate = rates[k];
+        double discount = 1.0 / growth[k];
+        double discountSlope = -years[k] * discount / (1.0 + rate);
+        double annuitySlope = (-discountSlope * rate - (1.0 - discount)) / (rate * rate);
+        slopes[k] = cfs[k] * annuitySlope + faces[k] * discountSlope;
+      }
+    }
+
+    /* The closed form cancels close to r = 0, fall back to the scalar forms there */
+    for (int k = 0; k < n; k++) {
+      if (years[k] == 0) {
+        prices[k] = faces[k];
+        slopes[k] = 0.0;
+      } else if (Math.abs(rates[k]) < SMALL_RATE) {
+        prices[k] = BondYieldCalculator.calcClosedFormPrice(coupons[k], years[k], faces[k], rates[k]);
+        if (withSlopes) {
+          slopes[k] = smallRateSlope(cfs[k], years[k], faces[k], rates[k]);
+        }
+      }
+    }
+  }
+
+  /**
+  * Derivative of the price for rates close to 0, summed year by year.
+  * @param  cf    coupon payment
+  * @param  years number of years to maturity
+  * @param  face  face value
+  * @param  rate  discount rate
+  * @return       derivative of bond price at the discount rate
+  */
+  private double smallRateSlope(double cf, int years, double face, double rate) {
+    double discount = 1.0 / (1.0 + rate);
+    double modifier = 1.0;
+    double weighted = 0.0;
+    for (int year = 1; year <= years; year++) {
+      modifier *= discount;
+      weighted += year * cf * modifier;
+    }
+    weighted += years * face * modifier;
+    return -weighted * discount;
+  }
+
+  /**
+  * Drops a finished lane by moving the last active lane into its place.
+  * @param  k      lane to drop
+  * @param  active number of active lanes
+  * @return        new number of active lanes
+  */
+  private int removeLane(int k, int active) {
+    int last = active - 1;
+    lanes[k] = lanes[last];
+    coupons[k] = coupons[last];
+    cfs[k] = cfs[last];
+    years[k] = years[last];
+    faces[k] = faces[last];
+    targets[k] = targets[last];
+    rates[k] = rates[last];
+    below[k] = below[last];
+    above[k] = above[last];
+    steps[k] = steps[last];
+    lastSteps[k] = lastSteps[last];
+    return last;
+  }
+
+  private boolean isBetween(double value, double a, double b) {
+    return value > Math.min(a, b) && value < Math.max(a, b);
+  }
+
+  private void checkLengths(double[] coupon, int[] year, double[] face, double[] last, double[] out) {
+    int n = out.length;
+    if (coupon.length != n || year.length != n || face.length != n || last.length != n) {
+      throw new IllegalArgumentException("All columns of a batch must have the same length");
+    }
+  }
+}
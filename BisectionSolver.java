@@ -0,0 +1,197 @@
+/**
+ * Finds the yield of a bond using the bisection method.
+ * Slow but makes no assumptions about the shape of the price curve
+ * other than it changing sign within the bracket, so it is kept
+ * as the safe fallback for the faster solvers.
+ */
+public class BisectionSolver implements YieldSolver {
+  private static final double ACCURACY = BondYieldCalculator.ACCURACY;
+
+  /**
+  * Use bisection method to find the yield.
+  * @param  calc   calculator used to price the bond at each guess
+  * @param  coupon coupon rate
+  * @param  years  number of years to maturity
+  * @param  face   face value
+  * @param  price  price of bond
+  * @return        yield of bond
+  */
+  public double solve(BondYieldCalculator calc, double coupon, int years, double face, double price) {
+    YieldBudget.Tracker tracker = calc.solveTracker(price);
+    double yield = find(calc, coupon, years, face, price, tracker);
+    calc.recordSolve(tracker, yield);
+    return yield;
+  }
+
+  /**
+  * Use bisection method to find the yield within a budget.
+  * @param  calc   calculator used to price the bond at each guess
+  * @param  coupon coupon rate
+  * @param  years  number of years to maturity
+  * @param  face   face value
+  * @param  price  price of bond
+  * @param  budget limits on iterations, time, and tolerance
+  * @return        yield of bond and how the solve went
+  */
+  public YieldResult solve(BondYieldCalculator calc, double coupon, int years, double face, double price, YieldBudget budget) {
+    YieldBudget.Tracker tracker = budget.start(price);
+    double yield = find(calc, coupon, years, face, price, tracker);
+    calc.recordSolve(tracker, yield);
+    return tracker.finish(calc, coupon, years, face, price, yield);
+  }
+
+  /**
+  * Brackets the yield and halves the bracket until the price is reached.
+  * @param  calc    calculator used to price the bond at each guess
+  * @param  coupon  coupon rate
+  * @param  years   number of years to maturity
+  * @param  face    face value
+  * @param  price   price of bond
+  * @param  tracker budget of the solve, null for no budget and a tolerance of ACCURACY
+  * @return         yield of bond, the latest guess if the budget runs out
+  */
+  private double find(BondYieldCalculator calc, double coupon, int years, double face, double price, YieldBudget.Tracker tracker) {
+    /* Special case year = 0: return 0.0 */
+    if (years == 0) { return 0.0; }
+
+    double tolerance = tracker == null ? ACCURACY : tracker.tolerance;
+
+    /* Settle what can be settled without pricing: no yield, a yield of 0, or a tighter bracket */
+    YieldBracket bracket = YieldBracket.classify(coupon, years, face, price);
+    if (bracket == YieldBracket.NO_ROOT) {
+      return Double.NaN;
+    } else if (bracket == YieldBracket.ZERO) {
+      return 0.0;
+    }
+
+    /* guess for what r might be */
+    double guessA = bracket.guessA; /* r most likely will not be 5 or higher */
+    double guessB = bracket.guessB; /* rate = -1 is asymptotic and would give divide by 0 */
+    double guessC = 0.0;
+
+    double priceA = calc.CalcPrice(coupon, years, face, guessA) - price;
+    double priceB = calc.CalcPrice(coupon, years, face, guessB) - price;
+    double priceC;
+
+    int direction = bracket.direction;
+
+    /*
+    * Bisection requires f(a) and f(b) to have different signs.
+    * If the two have different signs, it will not work.
+    * If same sign, try to check other side of asymptote.
+    * Odd order will not work. Only an unsettled bracket can fail here.
+    */
+    if (priceA * priceB > 0 && bracket == YieldBracket.UNKNOWN) {
+      if (years % 2 == 0) {
+        bracket = YieldBracket.FLIPPED;
+        guessA = -5.0;
+        guessB = -1.0 - ACCURACY;       /* -1.0 will never have a value */
+        direction = -1;
+        priceA = calc.CalcPrice(coupon, years, face, guessA) - price;
+        priceB = calc.CalcPrice(coupon, years, face, guessB) - price;
+      } else {
+        return Double.NaN;
+      }
+    }
+
+    if (bracket == YieldBracket.FLIPPED && tracker != null) {
+      tracker.flipped = true;
+    }
+
+    if(Math.abs(priceA) < tolerance) {
+      return guessA;
+    } else if (Math.abs(priceB) < tolerance) {
+      return guessB;
+    }
+
+    /* Neither side of the asymptote straddles the price, halving would never move either end */
+    if (priceA * priceB > 0) {
+      return Double.NaN;
+    }
+
+    guessC = (guessA + guessB) / 2;                /* get mid point */
+    priceC = calc.CalcPrice(coupon, years, face, guessC) - price;
+
+    while (Math.abs(priceC) >= tolerance) {
+      if (tracker != null && !tracker.spend()) {
+        return guessC;
+      }
+      if (Double.isNaN(priceB)) {
+        guessB += ACCURACY * direction;
+        priceB = calc.CalcPrice(coupon, years, face, guessB) - price;
+      } else {
+        if (priceA * priceC < 0) {
+          guessB = guessC;
+          priceB = priceC;
+        } else if (priceB * priceC < 0) {
+          guessA = guessC;
+          priceA = priceC;
+        }
+      }
+      double next = (guessA + guessB) / 2;           /* get mid point */
+
+      /* Bracket has collapsed to neighbouring doubles, cannot get any closer */
+      if (next == guessA || next == guessB) {
+        return guessC;
+      }
+      guessC = next;
+      priceC = calc.CalcPrice(coupon, years, face, guessC) - price;
+    }
+
+    return guessC;
+  }
+
+  /**
+  * Use bisection method inside a bracket whose end prices are known,
+  * falling back to the full bracket if they are not either side of the price.
+  * @param  calc      calculator used to price the bond at each guess
+  * @param  coupon    coupon rate
+  * @param  years     number of years to maturity
+  * @param  face      face value
+  * @param  price     price of bond
+  * @param  low       one end of the bracket
+  * @param  lowPrice  price of bond at low
+  * @param  high      other end of the bracket
+  * @param  highPrice price of bond at high
+  * @return           yield of bond
+  */
+  public double solveWithin(BondYieldCalculator calc, double coupon, int years, double face, double price,
+                            double low, double lowPrice, double high, double highPrice) {
+    /* Special case year = 0: return 0.0 */
+    if (years == 0) { return 0.0; }
+
+    double guessA = low;
+    double guessB = high;
+    double priceA = lowPrice - price;
+    double priceB = highPrice - price;
+    if (!(priceA * priceB < 0)) {
+      return solve(calc, coupon, years, face, price);
+    }
+
+    YieldBudget.Tracker tracker = calc.solveTracker(price);
+    double guessC = (guessA + guessB) / 2;
+    double priceC = calc.CalcPrice(coupon, years, face, guessC) - price;
+    while (Math.abs(priceC) >= ACCURACY) {
+      if (tracker != null && !tracker.spend()) {
+        break;
+      }
+      if (priceA * priceC < 0) {
+        guessB = guessC;
+      } else {
+        guessA = guessC;
+        priceA = priceC;
+      }
+      double next = (guessA + guessB) / 2;
+
+      /* Bracket has collapsed to neighbouring doubles, cannot get any closer */
+      if (next == guessA || next == guessB) {
+        break;
+      }
+      guessC = next;
+      priceC = calc.CalcPrice(coupon, years, face, guessC) - price;
+    }
+
+    calc.recordSolve(tracker, guessC);
+    return guessC;
+  }
+}
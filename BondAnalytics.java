@@ -0,0 +1,27 @@
+/**
+ * Price of a bond together with its sensitivity to the discount rate,
+ * from one pass over the cash flows. See BondYieldCalculator.CalcAnalytics.
+ * Durations are in years, and DV01 is the price gained when the rate
+ * falls by one basis point, to first order.
+ */
+public class BondAnalytics {
+  public final double price;
+  public final double macaulayDuration;
+  public final double modifiedDuration;
+  public final double convexity;
+  public final double dv01;
+
+  public BondAnalytics(double price, double macaulayDuration, double modifiedDuration, double convexity, double dv01) {
+    this.price = price;
+    this.macaulayDuration = macaulayDuration;
+    this.modifiedDuration = modifiedDuration;
+    this.convexity = convexity;
+    this.dv01 = dv01;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("price=%.7f macaulayDuration=%.7f modifiedDuration=%.7f convexity=%.7f dv01=%.7f",
+                         price, macaulayDuration, modifiedDuration, convexity, dv01);
+  }
+}
@@ -1,40 +1,130 @@
 import java.util.*;
+import java.io.IOException;
 import java.lang.Math;
-import java.math.BigDecimal;
-import java.math.RoundingMode;
+import java.nio.file.Path;
 
 public class BondYieldCalculator {
   private static final int DECIMAL_ACCURACY = 7;
-  private static final double ACCURACY = 0.0000001;
+  static final double ACCURACY = 0.0000001;
 
-  /*
-   * Memo to keep track of the value of coupon payments
-   * made up until a specified year.
-   * Values here can then be added to the value of
-   * principal payments to get the price of a bond.
-   * key: CouponKey(cF, rate)
-   * val: HashMap<year, price>
-   */
-  private HashMap<CouponKey, HashMap<Integer, Double>> couponMemo;
+  /* Below this rate the closed form switches to log1p/expm1 to avoid cancellation */
+  static final double SMALL_RATE = 0.001;
+
+  /* Below this rate the closed form derivatives cancel too much, so analytics sum year by year */
+  static final double SMALL_ANALYTICS_RATE = 0.01;
+
+  /* Rate change DV01 is quoted for */
+  static final double BASIS_POINT = 0.0001;
+
+  /* Budget of solves that only track iterations for the metrics */
+  private static final YieldBudget UNLIMITED = YieldBudget.unlimited();
+
+  /* Memo of discount and annuity factors per rate, see DiscountMemo */
+  private final DiscountMemo discountMemo;
+
+  /* Memo of yields, see YieldMemo */
+  private final YieldMemo yieldMemo;
+
+  /* Root finder used by CalcYield on a memo miss */
+  private final YieldSolver solver;
+
+  /* How CalcPrice values the coupon payments */
+  private final PricingMode pricingMode;
 
   /*
-   * Memo to keep track of yields based on coupon, years
-   * face value, and price.
-   * key: YieldKey(coupon, years, face, price)
-   * val: yield
+   * Prices and yields either side of a missed price, filled in by the
+   * yield memo. Only memos that are not safe to share keep neighbours,
+   * so a calculator that is shared never writes to it.
    */
-  private HashMap<YieldKey, Double> yieldMemo;
+  private final double[] near = new double[4];
+
+  /* Whether the yield memo keeps ladders to seed solves from, see solveFromNeighbours */
+  private final boolean seeds;
+
+  /* Memos saved by an earlier run, consulted after the live memos miss */
+  private volatile MemoSnapshot snapshot;
+
+  /* Latencies, solver iterations and memo stats, see CalcMetrics */
+  private final CalcMetrics metrics = new CalcMetrics(this);
 
   /**
-  * Sole constructor. Takes no params.
+  * Creates a calculator that solves yields with the safeguarded
+  * Newton-Raphson solver and prices with the discount memo.
   */
   public BondYieldCalculator() {
-    couponMemo = new HashMap<CouponKey, HashMap<Integer, Double>>();
-    yieldMemo = new HashMap<YieldKey, Double>();
+    this(new NewtonSolver());
+  }
+
+  /**
+  * Creates a calculator that solves yields with the given solver
+  * and prices with the discount memo.
+  * @param  solver root finder used by CalcYield
+  */
+  public BondYieldCalculator(YieldSolver solver) {
+    this(solver, PricingMode.MEMOIZED);
+  }
+
+  /**
+  * Creates a calculator that solves yields with the given solver
+  * and prices with the given pricing mode.
+  * @param  solver      root finder used by CalcYield
+  * @param  pricingMode how CalcPrice values the coupon payments
+  */
+  public BondYieldCalculator(YieldSolver solver, PricingMode pricingMode) {
+    this(solver, pricingMode, CacheConfig.unbounded(), CacheConfig.unbounded());
+  }
+
+  /**
+  * Creates a calculator with the given solver, pricing mode, and memo sizes.
+  * Long running processes that see mostly new keys should bound both memos,
+  * otherwise they grow with every call. A CacheConfig.offHeap yield memo
+  * keeps the yields off the heap. The calculator is safe to share between
+  * threads only if the discount memo is striped and the yield memo is
+  * striped or off heap.
+  * @param  solver      root finder used by CalcYield
+  * @param  pricingMode how CalcPrice values the coupon payments
+  * @param  yieldCache  sizing of the yield memo, in yields
+  * @param  discountCache sizing of the discount memo, in rates
+  */
+  public BondYieldCalculator(YieldSolver solver, PricingMode pricingMode, CacheConfig yieldCache, CacheConfig discountCache) {
+    this.solver = solver;
+    this.pricingMode = pricingMode;
+    discountMemo = discountCache.isStriped() ? new StripedDiscountCache(discountCache) : new DiscountCache(discountCache);
+    if (yieldCache.policy() == CachePolicy.CLOCK) {
+      yieldMemo = new OffHeapYieldCache(yieldCache);
+    } else {
+      yieldMemo = yieldCache.isStriped() ? new StripedYieldCache(yieldCache) : new YieldCache(yieldCache);
+    }
+    seeds = yieldMemo instanceof YieldCache && yieldCache.keepsNeighbours();
+  }
+
+  /**
+  * Creates a calculator that can be shared between threads, with unbounded
+  * memos striped a few times over per core. Striped memos do not seed
+  * solves from neighbouring prices, so every yield is the same double a
+  * default sequential calculator gives, whichever thread solves it.
+  * @return thread-safe calculator
+  */
+  public static BondYieldCalculator concurrent() {
+    return concurrent(CacheConfig.unbounded(), CacheConfig.unbounded());
   }
 
   /**
-  * Calculates the yield of a bond using the bisection method given
+  * Creates a calculator that can be shared between threads with the given
+  * memo sizes. Memos that are not already striped get a few stripes per core.
+  * @param  yieldCache  sizing of the yield memo, in yields
+  * @param  discountCache sizing of the discount memo, in rates
+  * @return             thread-safe calculator
+  */
+  public static BondYieldCalculator concurrent(CacheConfig yieldCache, CacheConfig discountCache) {
+    int stripes = 4 * Runtime.getRuntime().availableProcessors();
+    return new BondYieldCalculator(new NewtonSolver(), PricingMode.MEMOIZED,
+                                   yieldCache.isStriped() ? yieldCache : yieldCache.striped(stripes),
+                                   discountCache.isStriped() ? discountCache : discountCache.striped(stripes));
+  }
+
+  /**
+  * Calculates the yield of a bond using the calculator's solver given
   * the coupon rate, the years to maturity, the face value, and
   * the price of the bond.
   * @param  coupon coupon rate
@@ -44,85 +134,256 @@ public class BondYieldCalculator {
   * @return        yield of bond
   */
   public double CalcYield(double coupon, int years, double face, double price) {
-    YieldKey key = new YieldKey(coupon, years, face, price);
+    if (!metrics.sample()) {
+      return untimedYield(coupon, years, face, price);
+    }
+    long start = System.nanoTime();
+    double yield = untimedYield(coupon, years, face, price);
+    metrics.recordYield(System.nanoTime() - start);
+    return yield;
+  }
+
+  private double untimedYield(double coupon, int years, double face, double price) {
     /* Check if combination seen before and if not, calculate result */
-    if (!yieldMemo.containsKey(key)) {
-      yieldMemo.put(key, yieldBisection(coupon, years, face, price));
+    double yield = memoizedYield(coupon, years, face, price);
+    if (yield == YieldMemo.MISS) {
+      yield = solveYield(coupon, years, face, price);
     }
 
-    return yieldMemo.get(key);
+    return yield;
   }
 
   /**
-  * Use bisection method to find the yield.
+  * Looks a yield up in the memo, then in the snapshot, without solving.
   * @param  coupon coupon rate
   * @param  years  number of years to maturity
   * @param  face   face value
   * @param  price  price of bond
-  * @return        yield of bond
+  * @return        memoized yield, or YieldMemo.MISS
   */
-  private double yieldBisection(double coupon, int years, double face, double price) {
-    /* Special case year = 0: return 0.0 */
-    if (years == 0) { return 0.0; }
+  double memoizedYield(double coupon, int years, double face, double price) {
+    double yield = yieldMemo.get(coupon, years, face, price);
+    MemoSnapshot saved = snapshot;
+    if (yield == YieldMemo.MISS && saved != null) {
+      yield = saved.yield(coupon, years, face, price);
+    }
+    return yield;
+  }
 
-    /* guess for what r might be */
-    double guessA = 5.0; /* r most likely will not be this high or higher */
-    double guessB = -1.0 + ACCURACY; /* rate = -1 is asymptotic and would give divide by 0 */
-    double guessC = 0.0;
+  /**
+  * Solves a yield that missed the memos and memoizes it.
+  * @param  coupon coupon rate
+  * @param  years  number of years to maturity
+  * @param  face   face value
+  * @param  price  price of bond
+  * @return        yield of bond
+  */
+  double solveYield(double coupon, int years, double face, double price) {
+    boolean timed = metrics.sampleSolve();
+    long start = timed ? System.nanoTime() : 0;
+    double yield = solveFromNeighbours(coupon, years, face, price);
+    yieldMemo.put(coupon, years, face, price, yield);
+    if (timed) {
+      metrics.recordSolveTime(System.nanoTime() - start);
+    }
+    return yield;
+  }
 
-    double priceA = CalcPrice(coupon, years, face, guessA) - price;
-    double priceB = CalcPrice(coupon, years, face, guessB) - price;
-    double priceC;
+  /**
+  * Starts counting a solve's iterations for the metrics.
+  * @param  price price of bond
+  * @return       tracker with no limits, or null while the metrics are off
+  */
+  YieldBudget.Tracker solveTracker(double price) {
+    return metrics.isEnabled() ? UNLIMITED.start(price) : null;
+  }
 
-    int direction = 1;
+  /**
+  * Records a finished solve in the metrics.
+  * @param  tracker tracker of the solve, may be null
+  * @param  yield   yield the solver returned
+  */
+  void recordSolve(YieldBudget.Tracker tracker, double yield) {
+    if (tracker != null) {
+      metrics.recordSolve(tracker, yield);
+    }
+  }
 
-    /*
-    * Bisection requires f(a) and f(b) to have different signs.
-    * If the two have different signs, it will not work.
-    * If same sign, try to check other side of asymptote.
-    * Odd order will not work.
-    */
-    if (priceA * priceB > 0) {
-      if (years % 2 == 0) {
-        guessA = -5.0;
-        guessB = -1.0 - ACCURACY;       /* -1.0 will never have a value */
-        direction = -1;
-        priceA = CalcPrice(coupon, years, face, guessA) - price;
-        priceB = CalcPrice(coupon, years, face, guessB) - price;
-      } else {
-        return Double.NaN;
+  /**
+  * Calculates the yield of a bond like CalcYield, but stops once a budget
+  * of iterations or time runs out, so a price that the solver cannot get
+  * within tolerance of cannot hold up the caller. Memoized yields are
+  * used as usual; a solved yield is only memoized if it converged within
+  * ACCURACY, so CalcYield never sees a looser one.
+  * @param  coupon coupon rate
+  * @param  years  number of years to maturity
+  * @param  face   face value
+  * @param  price  price of bond
+  * @param  budget limits on iterations, time, and tolerance
+  * @return        yield of bond, its residual, iterations taken, and status
+  */
+  public YieldResult CalcYield(double coupon, int years, double face, double price, YieldBudget budget) {
+    double yield = memoizedYield(coupon, years, face, price);
+    if (yield != YieldMemo.MISS) {
+      if (Double.isNaN(yield)) {
+        return new YieldResult(yield, Double.NaN, 0, YieldStatus.NO_ROOT);
       }
+      return new YieldResult(yield, CalcPrice(coupon, years, face, yield) - price, 0, YieldStatus.CONVERGED);
     }
 
-    if(Math.abs(priceA) < ACCURACY) {
-      return guessA;
-    } else if (Math.abs(priceB) < ACCURACY) {
-      return guessB;
+    YieldResult result = solver.solve(this, coupon, years, face, price, budget);
+    if (result.status == YieldStatus.NO_ROOT
+        || (result.status == YieldStatus.CONVERGED && Math.abs(result.residual) < ACCURACY)) {
+      yieldMemo.put(coupon, years, face, price, result.yield);
     }
+    return result;
+  }
 
-    guessC = (guessA + guessB) / 2;                /* get mid point */
-    priceC = CalcPrice(coupon, years, face, guessC) - price;
-
-    int counter = 0;
-    while (Math.abs(priceC) >= ACCURACY ) {
-      if (Double.isNaN(priceB)) {
-        guessB += ACCURACY * direction;
-        priceB = CalcPrice(coupon, years, face, guessB) - price;
-      } else {
-        if (priceA * priceC < 0) {
-          guessB = guessC;
-          priceB = priceC;
-        } else if (priceB * priceC < 0) {
-          guessA = guessC;
-          priceA = priceC;
-        }
-      }
-      guessC = (guessA + guessB) / 2;                /* get mid point */
-      priceC = CalcPrice(coupon, years, face, guessC) - price;
-      counter++;
+  /**
+  * Solves a yield the memo missed, searching only between the stored
+  * yields of the nearest prices either side when the memo has both.
+  * Price falls as yield rises above -1, so the root lies between them.
+  * A stored yield prices within ACCURACY of its stored price, so a
+  * neighbour further than that from the price is on its side for sure.
+  * The result is within ACCURACY either way, but its last bits depend on
+  * which neighbours were memoized first. Only memos made withNeighbours
+  * have neighbours, so by default yields never do.
+  * @param  coupon coupon rate
+  * @param  years  number of years to maturity
+  * @param  face   face value
+  * @param  price  price of bond
+  * @return        yield of bond
+  */
+  private double solveFromNeighbours(double coupon, int years, double face, double price) {
+    if (yieldMemo.neighbours(coupon, years, face, price, near) && near[1] > -1.0 && near[3] > -1.0
+        && price - near[0] >= ACCURACY && near[2] - price >= ACCURACY) {
+      return solver.solveWithin(this, coupon, years, face, price, near[1], near[0], near[3], near[2]);
+    }
+    return solver.solve(this, coupon, years, face, price);
+  }
+
+  /**
+  * Calculates the yield of a bond starting from a nearby yield whose price
+  * is known, such as the yield and price of its previous tick, see
+  * YieldSolver.solveNear. Skips the yield memo, which only helps when the
+  * exact same price comes back. The result prices within ACCURACY of the
+  * price like CalcYield does, but need not be the same double.
+  * @param  coupon     coupon rate
+  * @param  years      number of years to maturity
+  * @param  face       face value
+  * @param  price      price of bond
+  * @param  guess      yield to start from
+  * @param  guessPrice price the guess was solved for, which sets the first step only
+  * @return            yield of bond
+  */
+  public double CalcYieldNear(double coupon, int years, double face, double price, double guess, double guessPrice) {
+    return solver.solveNear(this, coupon, years, face, price, guess, guessPrice);
+  }
+
+  /**
+  * Calculates the yield of a bond from its cash flow schedule. An annual
+  * level-coupon schedule is solved by CalcYield with its memos; any other
+  * is solved over its flows, see CashFlowSchedule.yield.
+  * @param  schedule flows of the bond
+  * @param  price    price of bond
+  * @return          yield of bond
+  */
+  public double CalcYield(CashFlowSchedule schedule, double price) {
+    if (schedule.isLevel()) {
+      return CalcYield(schedule.levelCoupon(), schedule.levelYears(), schedule.levelFace(), price);
     }
+    return schedule.yield(price);
+  }
+
+  /**
+  * Whether the calculator can be shared between threads, i.e. both memos are striped.
+  * @return true if safe to share
+  */
+  boolean isThreadSafe() {
+    return (yieldMemo instanceof StripedYieldCache || yieldMemo instanceof OffHeapYieldCache)
+           && discountMemo instanceof StripedDiscountCache;
+  }
+
+  /**
+  * Whether yield solves may be seeded from neighbouring prices, i.e. the
+  * yield memo was made withNeighbours, so the last bits of a yield depend
+  * on what was memoized before it.
+  * @return true if yields depend on the order they were solved in
+  */
+  boolean seedsFromNeighbours() {
+    return seeds;
+  }
+
+  /* Latencies, solver iterations and memo stats of this calculator */
+  public CalcMetrics metrics() {
+    return metrics;
+  }
+
+  /**
+  * Hits, misses, evictions, and size of the yield memo.
+  * @return stats of the yield memo
+  */
+  public CacheStats yieldCacheStats() {
+    return yieldMemo.stats();
+  }
+
+  /**
+  * Hits, misses, evictions, and size of the discount memo.
+  * @return stats of the discount memo
+  */
+  public CacheStats discountCacheStats() {
+    return discountMemo.stats();
+  }
+
+  /**
+  * Saves both memos, and any snapshot loaded earlier, to a file that a later
+  * run can load with loadSnapshot. Entries past their time to live are left out.
+  * @param  file file to write, replaced if it exists
+  * @throws IOException if the file cannot be written
+  */
+  public void saveSnapshot(Path file) throws IOException {
+    MemoSnapshot.write(file, snapshotFingerprint(), yieldMemo, discountMemo, snapshot);
+  }
+
+  /**
+  * Memory-maps a snapshot saved by saveSnapshot. Lookups that miss the memos
+  * are then answered from the file, without reading it into memory first.
+  * A file that is corrupt, from another version of the format, or written by
+  * a calculator with a different solver or pricing mode is rejected, and the
+  * calculator keeps whatever snapshot it had.
+  * @param  file file to load
+  * @throws IOException if the file cannot be read or is rejected
+  */
+  public void loadSnapshot(Path file) throws IOException {
+    snapshot = MemoSnapshot.load(file, snapshotFingerprint());
+  }
 
-    return guessC;
+  /**
+  * Identifies how this calculator solves yields, so that a snapshot is
+  * only trusted by a calculator that would have found the same yields.
+  * The pricing mode changes the last bits of every price, and so of every
+  * yield solved from them.
+  * @return fingerprint of the solver, pricing mode and accuracy
+  */
+  private long snapshotFingerprint() {
+    long hash = SlotIndex.mix(0, Double.doubleToLongBits(ACCURACY));
+    hash = SlotIndex.mix(hash, pricingMode.ordinal());
+    return SlotIndex.mix(hash, solver.getClass().getName().hashCode());
+  }
+
+  /**
+  * Calculates the yields of a batch of bonds given as parallel columns.
+  * Solves all bonds together with vectorizable kernels and closed form
+  * pricing, see BatchPricer. Results agree with CalcYield to within the
+  * solver accuracy, but bypass the memos.
+  * @param  coupons coupon rates
+  * @param  years   numbers of years to maturity
+  * @param  faces   face values
+  * @param  prices  prices of the bonds
+  * @param  yields  receives the yield of each bond
+  */
+  public void CalcYields(double[] coupons, int[] years, double[] faces, double[] prices, double[] yields) {
+    new BatchPricer().yields(coupons, years, faces, prices, yields);
   }
 
   /**
@@ -152,14 +413,169 @@ public class BondYieldCalculator {
   * @return        price of bond
   */
   public double CalcPrice(double coupon, int years, double face, double rate) {
+    if (!metrics.sample()) {
+      return untimedPrice(coupon, years, face, rate);
+    }
+    long start = System.nanoTime();
+    double price = untimedPrice(coupon, years, face, rate);
+    metrics.recordPrice(System.nanoTime() - start);
+    return price;
+  }
+
+  private double untimedPrice(double coupon, int years, double face, double rate) {
     /* Special case when years = 0: return the face value */
     if (years == 0) { return face; }
 
-    double totalCouponPayment = calcTotalCouponPaymentValue(coupon, years, face, rate);
-    double principalPaymentValue = calcPrincipalPaymentValue(years, face, rate);
+    if (pricingMode == PricingMode.CLOSED_FORM) {
+      return calcClosedFormPrice(coupon, years, face, rate);
+    }
+
+    /*
+     * Get the factors for this rate, shared by every bond discounted
+     * at it. A new rate starts out with only the base case of year 0
+     * and is filled in up to the requested year on first use. The
+     * snapshot is only read when the live row would need filling in,
+     * so a warm row is not held up by a lookup in the mapped file.
+     */
+    DiscountRow factors = discountMemo.row(rate);
+    if (years > factors.filled()) {
+      MemoSnapshot saved = snapshot;
+      if (saved != null) {
+        double price = saved.price(calcCF(coupon, face), face, rate, years);
+        if (price != YieldMemo.MISS) {
+          return price;
+        }
+      }
+      metrics.recordRowFill(years - factors.filled());
+    }
+    double totalCouponPayment = calcTotalCouponPaymentValue(coupon, years, face, factors);
+    double principalPaymentValue = calcPrincipalPaymentValue(years, face, factors);
     return totalCouponPayment + principalPaymentValue;
   }
 
+  /**
+  * Calculates the prices of a batch of bonds given as parallel columns.
+  * Discounts all bonds together with vectorizable kernels and closed form
+  * pricing, see BatchPricer. Results agree with CalcPrice to within
+  * rounding, but bypass the memos.
+  * @param  coupons coupon rates
+  * @param  years   numbers of years to maturity
+  * @param  faces   face values
+  * @param  rates   discount rates
+  * @param  prices  receives the price of each bond
+  */
+  public void CalcPrices(double[] coupons, int[] years, double[] faces, double[] rates, double[] prices) {
+    new BatchPricer().prices(coupons, years, faces, rates, prices);
+  }
+
+  /**
+  * Calculates the price of a bond from its cash flow schedule. An annual
+  * level-coupon schedule is priced by CalcPrice with its memos; any other
+  * is discounted in one pass over its flows, see CashFlowSchedule.price.
+  * @param  schedule flows of the bond
+  * @param  rate     annual discount rate
+  * @return          price of bond
+  */
+  public double CalcPrice(CashFlowSchedule schedule, double rate) {
+    if (schedule.isLevel()) {
+      return CalcPrice(schedule.levelCoupon(), schedule.levelYears(), schedule.levelFace(), rate);
+    }
+    return schedule.price(rate);
+  }
+
+  /**
+  * Calculates the derivative of the price of a bond with respect to the
+  * discount rate given the coupon rate, years to maturity, face value,
+  * and the discount rate. Used by solvers to take Newton steps.
+  * -(1 / (1 + r)) * ((1 * C / (1 + r)) + ... + (N * C / (1 + r)^N) + (N * F / (1 + r)^N))
+  * @param  coupon coupon rate
+  * @param  years  number of years to maturity
+  * @param  face   face value
+  * @param  rate   discount rate
+  * @return        derivative of bond price at the discount rate
+  */
+  public double CalcPriceDerivative(double coupon, int years, double face, double rate) {
+    /* Special case when years = 0: price is the face value regardless of rate */
+    if (years == 0) { return 0.0; }
+
+    double cf = calcCF(coupon, face);
+    double discount = 1.0 / (1.0 + rate);
+    double modifier = 1.0;
+    double weighted = 0.0;
+    for (int year = 1; year <= years; year++) {
+      modifier *= discount;
+      weighted += year * cf * modifier;
+    }
+    weighted += years * face * modifier;
+    return -weighted * discount;
+  }
+
+  /**
+  * Calculates the derivative of the price of a bond from its cash flow
+  * schedule with respect to the discount rate.
+  * @param  schedule flows of the bond
+  * @param  rate     annual discount rate
+  * @return          derivative of bond price at the discount rate
+  */
+  public double CalcPriceDerivative(CashFlowSchedule schedule, double rate) {
+    if (schedule.isLevel()) {
+      return CalcPriceDerivative(schedule.levelCoupon(), schedule.levelYears(), schedule.levelFace(), rate);
+    }
+    return schedule.priceDerivative(rate);
+  }
+
+  /**
+  * Calculates the price of a bond together with its Macaulay and modified
+  * durations, convexity, and DV01. The price is found the same way as
+  * CalcPrice, and the sensitivities come from the same discount and annuity
+  * factors, see calcAnalytics, instead of pricing again at bumped rates.
+  * @param  coupon coupon rate
+  * @param  years  number of years to maturity
+  * @param  face   face value
+  * @param  rate   discount rate
+  * @return        price and sensitivities of bond
+  */
+  public BondAnalytics CalcAnalytics(double coupon, int years, double face, double rate) {
+    /* Special case when years = 0: the face value is paid now, so nothing depends on the rate */
+    if (years == 0) { return new BondAnalytics(face, 0.0, 0.0, 0.0, 0.0); }
+
+    double cf = calcCF(coupon, face);
+    if (Math.abs(rate) < SMALL_ANALYTICS_RATE) {
+      return calcSummedAnalytics(cf, years, face, rate);
+    }
+
+    double discount;
+    double annuity;
+    if (pricingMode == PricingMode.CLOSED_FORM) {
+      discount = 1.0 / calcValueModifier(years, rate);
+      annuity = (1.0 - discount) / rate;
+    } else {
+      DiscountRow factors = discountMemo.row(rate);
+      discount = factors.discount(years);
+      annuity = factors.annuity(years);
+    }
+    return calcAnalytics(cf, years, face, rate, discount, annuity);
+  }
+
+  /**
+  * Calculates the price, modified duration, convexity, and DV01 of a batch
+  * of bonds given as parallel columns. Uses the closed form factors of
+  * CalcPrices, see BatchPricer, so results agree with CalcAnalytics to
+  * within rounding. Macaulay durations are the modified durations times (1 + r).
+  * @param  coupons     coupon rates
+  * @param  years       numbers of years to maturity
+  * @param  faces       face values
+  * @param  rates       discount rates
+  * @param  prices      receives the price of each bond
+  * @param  durations   receives the modified duration of each bond
+  * @param  convexities receives the convexity of each bond
+  * @param  dv01s       receives the DV01 of each bond
+  */
+  public void CalcAnalytics(double[] coupons, int[] years, double[] faces, double[] rates,
+                            double[] prices, double[] durations, double[] convexities, double[] dv01s) {
+    new BatchPricer().analytics(coupons, years, faces, rates, prices, durations, convexities, dv01s);
+  }
+
   /**
   * Calls CalcPrice and returns a formatted string of result.
   * @param  coupon coupon rate
@@ -178,75 +594,132 @@ public class BondYieldCalculator {
   }
 
   /**
-  * Calculates the value of a bond's principal payment given the
-  * years to maturity, the face value, and the discount rate.
-  * F / (1 + r)^N
-  * @param  years number of years to maturity
-  * @param  face  face value
-  * @param  rate  discount rate
-  * @return       value of the bond's principal payment
-  */
-  private double calcPrincipalPaymentValue(int years, double face, double rate) {
-    double discount = calcValueModifier(years, rate);
-    return face / discount;
-  }
-
-  /**
-  * Calculates the value of the total coupon payments made for a bond
-  * given the coupon rate, the number of years to maturity,
-  * the face value, and the discount rate.
-  * (C / (1 + r)) + (C / (1 + r)^2) + ... + (C / (1 + r)^N)
+  * Calculates the price of a bond with the closed form of the coupon series.
+  * Needs a single pow and no memo, so it costs the same for any number of years.
+  * C * (1 - (1 + r)^-N) / r + F / (1 + r)^N
+  * Close to r = 0 the numerator cancels, so there the discount is taken
+  * through log1p/expm1, and r = 0 itself is the undiscounted sum.
+  * Below r = -1 the base is negative and only pow handles it.
   * @param  coupon coupon rate
   * @param  years  number of years to maturity
   * @param  face   face value
   * @param  rate   discount rate
-  * @return        value of coupon payment total
+  * @return        price of bond
   */
-  private double calcTotalCouponPaymentValue(double coupon, int years, double face, double rate) {
+  static double calcClosedFormPrice(double coupon, int years, double face, double rate) {
     double cf = calcCF(coupon, face);
-    CouponKey key = new CouponKey(cf, rate);
+    double discount;
+    double annuity;
 
-    /*
-     * Check if combination of coupon, face value, and rate
-     * have already been seen. If not, create an entry into
-     * the memo with said combination.
-     */
-    if (!couponMemo.containsKey(key)) {
-      HashMap newRecord = new HashMap<Integer, Double>();
-      newRecord.put(0, 0.0);            /* Base case for later calculations */
-      couponMemo.put(key, newRecord);
+    if (rate == 0.0) {
+      discount = 1.0;
+      annuity = years;
+    } else if (Math.abs(rate) < SMALL_RATE) {
+      double growth = years * Math.log1p(rate);
+      discount = Math.exp(-growth);
+      annuity = -Math.expm1(-growth) / rate;
+    } else {
+      discount = 1.0 / calcValueModifier(years, rate);
+      annuity = (1.0 - discount) / rate;
     }
 
-    HashMap record = couponMemo.get(key);
-    return calcCouponPaymentValue(cf, years, rate, record);
+    return cf * annuity + face * discount;
   }
 
   /**
-  * Calculates the value of coupon payments up to a certain year
-  * given the coupon rate, the current year, the face value,
-  * and the discount rate. Does this with recursive calls to get
-  * the values of previous years before updating the memo.
-  * (C / (1 + r)) + (C / (1 + r)^2) + ... + (C / (1 + r)^n)
-  * @param  coupon coupon rate
-  * @param  years  target year
-  * @param  face   face value
-  * @param  rate   discount rate
-  * @return        value coupon payments up until target year
+  * Calculates the price and sensitivities of a bond from the discount and
+  * annuity factors of its maturity, d = 1 / (1 + r)^N and A = (1 - d) / r.
+  * Differentiating A * r = 1 - d once and twice gives
+  * d'  = -N * d / (1 + r)             A'  = (-d' - A) / r
+  * d'' = N * (N + 1) * d / (1 + r)^2  A'' = (-d'' - 2 * A') / r
+  * and with P = C * A + F * d, the modified duration is -P' / P, the
+  * convexity is P'' / P, and DV01 is -P' * 1bp. A' and A'' cancel close to
+  * r = 0, see SMALL_ANALYTICS_RATE.
+  * @param  cf       coupon payment
+  * @param  years    number of years to maturity
+  * @param  face     face value
+  * @param  rate     discount rate
+  * @param  discount discount factor of the maturity
+  * @param  annuity  annuity factor of the maturity
+  * @return          price and sensitivities of bond
   */
-  private double calcCouponPaymentValue(double cf, int years, double rate, HashMap<Integer, Double> memo) {
-    /*
-     * Check if total coupon payment up until years was previously calculated.
-     * If not, calculate it by taking the total for previous year and
-     * then adding to that the coupon payment for current year.
-     * Base case of year = 0, total paid = 0 added into the record on creation.
-     */
-    if (!memo.containsKey(years)) {
-      double previousCouponPayment = calcCouponPaymentValue(cf, years - 1, rate, memo);
-      double currentCouponPayment = previousCouponPayment + cf / calcValueModifier(years, rate);
-      memo.put(years, currentCouponPayment);
+  static BondAnalytics calcAnalytics(double cf, int years, double face, double rate, double discount, double annuity) {
+    double inverse = 1.0 / (1.0 + rate);
+    double discountSlope = -years * discount * inverse;
+    double annuitySlope = (-discountSlope - annuity) / rate;
+    double discountCurve = years * (years + 1.0) * discount * inverse * inverse;
+    double annuityCurve = (-discountCurve - 2.0 * annuitySlope) / rate;
+
+    double price = cf * annuity + face * discount;
+    double slope = cf * annuitySlope + face * discountSlope;
+    double modified = -slope / price;
+    return new BondAnalytics(price, modified * (1.0 + rate), modified,
+                             (cf * annuityCurve + face * discountCurve) / price, -slope * BASIS_POINT);
+  }
+
+  /**
+  * Calculates the price and sensitivities of a bond by summing its
+  * discounted payments year by year, for rates close to 0 where the
+  * closed form derivatives cancel. With v = 1 / (1 + r):
+  * price     = sum(payment * v^n)
+  * macaulay  = sum(n * payment * v^n) / price
+  * convexity = sum(n * (n + 1) * payment * v^n) * v^2 / price
+  * @param  cf    coupon payment
+  * @param  years number of years to maturity
+  * @param  face  face value
+  * @param  rate  discount rate
+  * @return       price and sensitivities of bond
+  */
+  static BondAnalytics calcSummedAnalytics(double cf, int years, double face, double rate) {
+    double discount = 1.0 / (1.0 + rate);
+    double modifier = 1.0;
+    double value = 0.0;
+    double weighted = 0.0;
+    double squared = 0.0;
+    for (int year = 1; year <= years; year++) {
+      modifier *= discount;
+      double payment = cf * modifier;
+      value += payment;
+      weighted += year * payment;
+      squared += year * (year + 1.0) * payment;
     }
 
-    return memo.get(years);
+    double principal = face * modifier;
+    double price = value + principal;
+    weighted += years * principal;
+    squared += years * (years + 1.0) * principal;
+    double macaulay = weighted / price;
+    return new BondAnalytics(price, macaulay, macaulay * discount, squared * discount * discount / price,
+                             weighted * discount * BASIS_POINT);
+  }
+
+  /**
+  * Calculates the value of a bond's principal payment given the
+  * years to maturity, the face value, and the factors of the discount rate.
+  * F / (1 + r)^N
+  * @param  years   number of years to maturity
+  * @param  face    face value
+  * @param  factors factors of the discount rate
+  * @return         value of the bond's principal payment
+  */
+  private double calcPrincipalPaymentValue(int years, double face, DiscountRow factors) {
+    return face * factors.discount(years);
+  }
+
+  /**
+  * Calculates the value of the total coupon payments made for a bond
+  * given the coupon rate, the number of years to maturity,
+  * the face value, and the factors of the discount rate.
+  * (C / (1 + r)) + (C / (1 + r)^2) + ... + (C / (1 + r)^N)
+  * @param  coupon  coupon rate
+  * @param  years   number of years to maturity
+  * @param  face    face value
+  * @param  factors factors of the discount rate
+  * @return         value of coupon payment total
+  */
+  private double calcTotalCouponPaymentValue(double coupon, int years, double face, DiscountRow factors) {
+    double cf = calcCF(coupon, face);
+    return cf * factors.annuity(years);
   }
 
   /**
@@ -256,7 +729,7 @@ public class BondYieldCalculator {
   * @param  rate  discount rate
   * @return       value modifier for a given year
   */
-  private double calcValueModifier(int year, double rate) {
+  private static double calcValueModifier(int year, double rate) {
     return Math.pow((1.0 + rate), year);
   }
 
@@ -267,22 +740,38 @@ public class BondYieldCalculator {
   * @param  face   face value
   * @return        coupon payment
   */
-  private double calcCF(double coupon, double face) {
+  private static double calcCF(double coupon, double face) {
     return coupon * face;
   }
 
+  /**
+  * Rounds a value HALF_UP, see DecimalWriter.round.
+  * @param  value     value to round
+  * @param  precision decimal places
+  * @return           rounded value
+  */
   public double roundValue(double value, int precision) {
-    BigDecimal val = new BigDecimal(value);
-    val = val.setScale(DECIMAL_ACCURACY, RoundingMode.HALF_UP);
-    return val.doubleValue();
+    return DecimalWriter.round(value, precision);
   }
 
+  /**
+  * Formats a value that is already rounded.
+  * @param  value     value to format
+  * @param  precision decimal places
+  * @return           value as text
+  */
   public String prettyValue(double value, int precision) {
-    return String.format("%.7f", value);
+    return String.format(Locale.ROOT, "%." + precision + "f", value);
   }
 
+  /**
+  * Rounds and formats a value, the same as prettyValue(roundValue(value)),
+  * without BigDecimal or String.format, see DecimalWriter.
+  * @param  value     value to format
+  * @param  precision decimal places
+  * @return           value as text
+  */
   public String stringify(double value, int precision) {
-    double val = roundValue(value, precision);
-    return prettyValue(val, precision);
+    return DecimalWriter.toString(value, precision);
   }
 }
@@ -1,8 +1,40 @@
 import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.*;
 
 public class BondYieldCalculatorConsole {
   public static void main(String[] args) {
-    calculatorFace();
+    if (args.length > 0) {
+      bulkFace(args);
+    } else {
+      calculatorFace();
+    }
+  }
+
+  /**
+  * Runs a CSV file through BulkCalculator without any prompts.
+  * java BondYieldCalculatorConsole input.csv [output.csv]
+  * Input "-" reads stdin, and results go to stdout without an output file.
+  * The summary goes to stderr when results go to stdout.
+  * @param  args input file and optional output file
+  */
+  private static void bulkFace(String[] args) {
+    PrintStream summary = args.length > 1 ? System.out : System.err;
+    try (ReadableByteChannel in = args[0].equals("-") ? Channels.newChannel(System.in) : FileChannel.open(Paths.get(args[0]), StandardOpenOption.READ);
+         WritableByteChannel out = args.length > 1
+           ? FileChannel.open(Paths.get(args[1]), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+           : Channels.newChannel(System.out)) {
+      BulkCalculator bulk = new BulkCalculator();
+      long start = System.nanoTime();
+      bulk.run(in, out);
+      double seconds = (System.nanoTime() - start) / 1e9;
+
+      summary.println(String.format("%d rows (%d invalid) in %.3f s, %.0f rows/sec",
+                                    bulk.rows(), bulk.invalidRows(), seconds, bulk.rows() / seconds));
+    } catch (IOException e) {
+      System.err.println(e);
+      System.err.println("Error running bulk calculation");
+    }
   }
 
   private static void calculatorFace() {
@@ -0,0 +1,191 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Runs a CSV file of bonds through the calculator and writes one result
+ * line per input row, in the same order.
+ * Each row is mode, coupon, years, face, and then the rate for mode p or
+ * the price for mode y, e.g.
+ *   p,0.10,5,1000.0,0.15
+ *   y,0.10,5,1000.0,832.3922451
+ * Rows are read into column blocks and handed to BatchPricer, so nothing
+ * is memoized and memory stays flat however many rows the input has.
+ * A first row that does not start with a mode is taken as a header and
+ * answered with "result". Blank rows give blank lines, and rows that
+ * cannot be read give "invalid" so that line numbers still match.
+ */
+public class BulkCalculator {
+  private static final int BLOCK = 4096;
+  private static final int BUFFER_SIZE = 1 << 20;
+  private static final int DECIMAL_ACCURACY = 7;
+
+  /* What each row of a block asked for */
+  private static final byte PRICE = 0;
+  private static final byte YIELD = 1;
+  private static final byte INVALID = 2;
+  private static final byte BLANK = 3;
+  private static final byte HEADER = 4;
+
+  private final BatchPricer pricer = new BatchPricer();
+  private final DecimalWriter decimals = new DecimalWriter(DECIMAL_ACCURACY);
+
+  /* Kind of each row and its position among the rows of the same kind */
+  private final byte[] kinds = new byte[BLOCK];
+  private final int[] positions = new int[BLOCK];
+
+  /* Price rows and yield rows of a block, as columns */
+  private final Columns priceRows = new Columns();
+  private final Columns yieldRows = new Columns();
+
+  private long rows;
+  private long invalidRows;
+
+  /**
+  * Reads every row from in and writes its result to out.
+  * @param  in  channel holding the CSV rows, not closed
+  * @param  out channel to write results to, not closed
+  * @throws IOException if reading or writing fails
+  */
+  public void run(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+    CsvReader reader = new CsvReader(in, BUFFER_SIZE);
+    ByteBuffer output = ByteBuffer.allocate(BUFFER_SIZE);
+    rows = 0;
+    invalidRows = 0;
+
+    boolean more = true;
+    while (more) {
+      int count = 0;
+      priceRows.count = 0;
+      yieldRows.count = 0;
+      while (count < BLOCK && (more = reader.nextRow())) {
+        kinds[count] = readRow(reader, count);
+        count++;
+      }
+
+      pricer.prices(priceRows.coupons, priceRows.years, priceRows.faces, priceRows.values, priceRows.results, priceRows.count);
+      pricer.yields(yieldRows.coupons, yieldRows.years, yieldRows.faces, yieldRows.values, yieldRows.results, yieldRows.count);
+
+      for (int i = 0; i < count; i++) {
+        switch (kinds[i]) {
+          case PRICE:
+            writeValue(output, out, priceRows.results[positions[i]]);
+            break;
+          case YIELD:
+            writeValue(output, out, yieldRows.results[positions[i]]);
+            break;
+          case INVALID:
+            write(output, out, "invalid");
+            break;
+          case HEADER:
+            write(output, out, "result");
+            break;
+          default:
+            write(output, out, "");
+        }
+      }
+    }
+    flush(output, out);
+  }
+
+  /**
+  * Number of rows read by the last run, including header, blank and invalid rows.
+  * @return rows read
+  */
+  public long rows() {
+    return rows;
+  }
+
+  /**
+  * Number of rows of the last run that could not be read.
+  * @return invalid rows
+  */
+  public long invalidRows() {
+    return invalidRows;
+  }
+
+  /**
+  * Sorts the current row into the price or yield columns.
+  * @param  reader reader positioned on the row
+  * @param  index  index of the row in the block
+  * @return        kind of the row
+  */
+  private byte readRow(CsvReader reader, int index) {
+    rows++;
+    if (reader.fieldCount() == 1 && reader.length(0) == 0) {
+      return BLANK;
+    }
+
+    byte mode = reader.length(0) == 1 ? (byte) Character.toLowerCase(reader.byteAt(0, 0)) : 0;
+    if (mode != 'p' && mode != 'y') {
+      if (reader.row() == 1) {
+        return HEADER;
+      }
+      invalidRows++;
+      return INVALID;
+    }
+    if (reader.fieldCount() != 5) {
+      invalidRows++;
+      return INVALID;
+    }
+
+    Columns columns = mode == 'p' ? priceRows : yieldRows;
+    int position = columns.count;
+    try {
+      columns.coupons[position] = reader.parseDouble(1);
+      columns.years[position] = reader.parseInt(2);
+      columns.faces[position] = reader.parseDouble(3);
+      columns.values[position] = reader.parseDouble(4);
+    } catch (NumberFormatException e) {
+      invalidRows++;
+      return INVALID;
+    }
+    if (columns.years[position] < 0) {
+      invalidRows++;
+      return INVALID;
+    }
+
+    columns.count++;
+    positions[index] = position;
+    return mode == 'p' ? PRICE : YIELD;
+  }
+
+  /* Writes a result line straight into the buffer, flushing first if the longest value might not fit */
+  private void writeValue(ByteBuffer output, WritableByteChannel out, double value) throws IOException {
+    if (output.remaining() < decimals.maxLength() + 1) {
+      flush(output, out);
+    }
+    decimals.write(value, output);
+    output.put((byte) '\n');
+  }
+
+  /* Writes a line of ASCII text, flushing first if it does not fit */
+  private void write(ByteBuffer output, WritableByteChannel out, String text) throws IOException {
+    if (output.remaining() < text.length() + 1) {
+      flush(output, out);
+    }
+    for (int i = 0; i < text.length(); i++) {
+      output.put((byte) text.charAt(i));
+    }
+    output.put((byte) '\n');
+  }
+
+  private void flush(ByteBuffer output, WritableByteChannel out) throws IOException {
+    output.flip();
+    while (output.hasRemaining()) {
+      out.write(output);
+    }
+    output.clear();
+  }
+
+  /* One kind of row of a block, as columns */
+  private static class Columns {
+    final double[] coupons = new double[BLOCK];
+    final int[] years = new int[BLOCK];
+    final double[] faces = new double[BLOCK];
+    final double[] values = new double[BLOCK];
+    final double[] results = new double[BLOCK];
+    int count;
+  }
+}
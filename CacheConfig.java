@@ -0,0 +1,155 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sizing of one of the calculator's memos: the eviction policy, how many
+ * entries it may hold, and optionally how long an entry stays valid after
+ * it was written. Immutable, the with-style methods return a new config.
+ */
+public class CacheConfig {
+  private final CachePolicy policy;
+  private final int capacity;
+  private final long timeToLiveNanos;
+  private final int stripes;
+  private final boolean neighbours;
+
+  private CacheConfig(CachePolicy policy, int capacity, long timeToLiveNanos, int stripes, boolean neighbours) {
+    if (policy != CachePolicy.UNBOUNDED && capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be at least 1");
+    }
+    this.policy = policy;
+    this.capacity = capacity;
+    this.timeToLiveNanos = timeToLiveNanos;
+    this.stripes = stripes;
+    this.neighbours = neighbours;
+  }
+
+  /**
+  * Memo that is never trimmed, like the original HashMap memos.
+  * @return config for an unbounded memo
+  */
+  public static CacheConfig unbounded() {
+    return new CacheConfig(CachePolicy.UNBOUNDED, Integer.MAX_VALUE, 0, 1, false);
+  }
+
+  /**
+  * Memo that evicts the least recently used entry when full.
+  * @param  capacity maximum number of entries
+  * @return          config for an LRU memo
+  */
+  public static CacheConfig lru(int capacity) {
+    return new CacheConfig(CachePolicy.LRU, capacity, 0, 1, false);
+  }
+
+  /**
+  * Memo that keeps the most frequently used entries when full.
+  * Better than LRU when most keys are seen once, since those
+  * one-off keys cannot push out the entries that keep getting hits.
+  * @param  capacity maximum number of entries
+  * @return          config for a Window TinyLFU memo
+  */
+  public static CacheConfig tinyLfu(int capacity) {
+    return new CacheConfig(CachePolicy.TINY_LFU, capacity, 0, 1, false);
+  }
+
+  /**
+  * Yield memo held off the Java heap in a fixed table, evicting with the
+  * clock algorithm when a key's bucket is full, see OffHeapYieldCache.
+  * Only the yield memo can be held off heap.
+  * @param  capacity maximum number of entries, rounded up to whole buckets
+  * @return          config for an off-heap yield memo
+  */
+  public static CacheConfig offHeap(int capacity) {
+    return new CacheConfig(CachePolicy.CLOCK, capacity, 0, 1, false);
+  }
+
+  /**
+  * Copy of this config whose entries expire a fixed time after being written.
+  * @param  duration how long an entry stays valid, must be positive
+  * @param  unit     unit of the duration
+  * @return          config with a time to live
+  */
+  public CacheConfig expireAfterWrite(long duration, TimeUnit unit) {
+    if (duration <= 0) {
+      throw new IllegalArgumentException("Time to live must be positive");
+    }
+    return new CacheConfig(policy, capacity, unit.toNanos(duration), stripes, neighbours);
+  }
+
+  /**
+  * Copy of this config for a memo that can be shared between threads.
+  * The memo is split into stripes, each with its own lock and an equal
+  * share of the capacity, so threads only contend when their keys land
+  * in the same stripe.
+  * @param  stripes number of stripes, rounded up to a power of two
+  * @return         config for a thread-safe memo
+  */
+  public CacheConfig striped(int stripes) {
+    if (stripes < 1) {
+      throw new IllegalArgumentException("Stripes must be at least 1");
+    }
+    int rounded = Integer.highestOneBit(stripes - 1) << 1;
+    return new CacheConfig(policy, capacity, timeToLiveNanos, Math.max(1, rounded), neighbours);
+  }
+
+  /**
+  * Copy of this config for a yield memo that also keeps a ladder of
+  * prices per bond, so that a miss is solved only between the stored
+  * yields of the nearest prices either side. That is faster, but a seeded
+  * solve only agrees with an unseeded one to within ACCURACY, so the same
+  * bond and price can give a different double depending on what was
+  * memoized before it. Only single-threaded heap memos keep ladders;
+  * striped and off-heap memos ignore this.
+  * @return config for a yield memo with neighbours
+  */
+  public CacheConfig withNeighbours() {
+    return new CacheConfig(policy, capacity, timeToLiveNanos, stripes, true);
+  }
+
+  /**
+  * Config of one stripe of a striped memo. Stripes keep no ladders, see
+  * StripedYieldCache.
+  * @return config with a share of the capacity and a single stripe
+  */
+  CacheConfig stripe() {
+    int share = policy == CachePolicy.UNBOUNDED ? capacity : Math.max(1, (capacity + stripes - 1) / stripes);
+    return new CacheConfig(policy, share, timeToLiveNanos, 1, false);
+  }
+
+  public CachePolicy policy() {
+    return policy;
+  }
+
+  public int capacity() {
+    return capacity;
+  }
+
+  public boolean expires() {
+    return timeToLiveNanos > 0;
+  }
+
+  public long timeToLiveNanos() {
+    return timeToLiveNanos;
+  }
+
+  /* Whether a yield memo keeps ladders of prices per bond, see withNeighbours */
+  public boolean keepsNeighbours() {
+    return neighbours;
+  }
+
+  public boolean isStriped() {
+    return stripes > 1;
+  }
+
+  public int stripes() {
+    return stripes;
+  }
+
+  @Override
+  public String toString() {
+    String ttl = expires() ? ", ttl=" + TimeUnit.NANOSECONDS.toMillis(timeToLiveNanos) + "ms" : "";
+    String cap = policy == CachePolicy.UNBOUNDED ? "" : ", capacity=" + capacity;
+    String striped = isStriped() ? ", stripes=" + stripes : "";
+    String ladders = neighbours ? ", neighbours" : "";
+    return policy + cap + ttl + striped + ladders;
+  }
+}
@@ -0,0 +1,13 @@
+/**
+ * Which entries a memo gives up once it reaches its capacity.
+ */
+public enum CachePolicy {
+  /* Never evict, the memo grows with every new key */
+  UNBOUNDED,
+  /* Evict the least recently used entry */
+  LRU,
+  /* Window TinyLFU: admit new entries only if they are used more often than the entry they would replace */
+  TINY_LFU,
+  /* Give entries used since the clock hand last passed a second chance, see OffHeapYieldCache */
+  CLOCK
+}
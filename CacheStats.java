@@ -0,0 +1,46 @@
+/**
+ * Snapshot of how well one of the calculator's memos is doing.
+ * Counts are since the memo was created.
+ */
+public class CacheStats {
+  public final long hits;
+  public final long misses;
+  public final long evictions;
+  public final long expirations;
+  public final int size;
+  public final long estimatedBytes;
+
+  public CacheStats(long hits, long misses, long evictions, long expirations, int size, long estimatedBytes) {
+    this.hits = hits;
+    this.misses = misses;
+    this.evictions = evictions;
+    this.expirations = expirations;
+    this.size = size;
+    this.estimatedBytes = estimatedBytes;
+  }
+
+  /**
+  * Adds up the stats of two memos, e.g. two stripes of a striped memo.
+  * @param  other stats to add
+  * @return       combined stats
+  */
+  public CacheStats plus(CacheStats other) {
+    return new CacheStats(hits + other.hits, misses + other.misses, evictions + other.evictions,
+                          expirations + other.expirations, size + other.size, estimatedBytes + other.estimatedBytes);
+  }
+
+  /**
+  * Fraction of lookups that were answered by the memo.
+  * @return hit rate between 0 and 1, 0 if there were no lookups
+  */
+  public double hitRate() {
+    long lookups = hits + misses;
+    return lookups == 0 ? 0.0 : (double) hits / lookups;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("hits=%d misses=%d hitRate=%.4f evictions=%d expirations=%d size=%d estimatedBytes=%d",
+                         hits, misses, hitRate(), evictions, expirations, size, estimatedBytes);
+  }
+}
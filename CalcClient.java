@@ -0,0 +1,144 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * Connection to a CalcServer, see CalcProtocol.
+ * CalcPrice and CalcYield send one request and wait for its answer. To keep
+ * the connection busy instead, queue requests with sendPrice and sendYield
+ * and collect the answers in the same order with receive. Keep the number
+ * of requests in flight to a few thousand, or receive as you go: a client
+ * that only ever sends fills up both ends' buffers and stalls.
+ * Not thread-safe; give each thread its own client.
+ */
+public class CalcClient implements Closeable {
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final Socket socket;
+  private final DataInputStream in;
+  private final DataOutputStream out;
+
+  /* Requests sent that have not been received yet */
+  private int pending;
+
+  /* True when there are requests in the buffer that have not gone out yet */
+  private boolean unflushed;
+
+  /**
+  * Connects to a server on this host.
+  * @param  port port the server listens on
+  */
+  public CalcClient(int port) throws IOException {
+    this(InetAddress.getLoopbackAddress(), port);
+  }
+
+  /**
+  * Connects to a server.
+  * @param  host address of the server
+  * @param  port port the server listens on
+  */
+  public CalcClient(InetAddress host, int port) throws IOException {
+    socket = new Socket(host, port);
+    socket.setTcpNoDelay(true);
+    in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+    out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+    out.writeInt(CalcProtocol.MAGIC);
+    unflushed = true;
+  }
+
+  /**
+  * Calculates the price of a bond on the server.
+  * @param  coupon coupon rate
+  * @param  years  number of years to maturity
+  * @param  face   face value
+  * @param  rate   discount rate
+  * @return        price of bond
+  */
+  public double CalcPrice(double coupon, int years, double face, double rate) throws IOException {
+    sendPrice(coupon, years, face, rate);
+    return receive();
+  }
+
+  /**
+  * Calculates the yield of a bond on the server.
+  * @param  coupon coupon rate
+  * @param  years  number of years to maturity
+  * @param  face   face value
+  * @param  price  price of bond
+  * @return        yield of bond
+  */
+  public double CalcYield(double coupon, int years, double face, double price) throws IOException {
+    sendYield(coupon, years, face, price);
+    return receive();
+  }
+
+  /**
+  * Queues a price request without waiting for the answer.
+  * @param  coupon coupon rate
+  * @param  years  number of years to maturity
+  * @param  face   face value
+  * @param  rate   discount rate
+  */
+  public void sendPrice(double coupon, int years, double face, double rate) throws IOException {
+    send(CalcProtocol.PRICE, coupon, years, face, rate);
+  }
+
+  /**
+  * Queues a yield request without waiting for the answer.
+  * @param  coupon coupon rate
+  * @param  years  number of years to maturity
+  * @param  face   face value
+  * @param  price  price of bond
+  */
+  public void sendYield(double coupon, int years, double face, double price) throws IOException {
+    send(CalcProtocol.YIELD, coupon, years, face, price);
+  }
+
+  /**
+  * Sends any queued requests that are still in the buffer.
+  */
+  public void flush() throws IOException {
+    if (unflushed) {
+      out.flush();
+      unflushed = false;
+    }
+  }
+
+  /**
+  * Waits for the answer to the oldest request not yet received, sending
+  * any queued requests first.
+  * @return price or yield the request asked for
+  */
+  public double receive() throws IOException {
+    if (pending == 0) {
+      throw new IllegalStateException("No requests waiting for an answer");
+    }
+    flush();
+    byte status = in.readByte();
+    double value = in.readDouble();
+    pending--;
+    if (status != CalcProtocol.OK) {
+      throw new IOException("Server rejected the request");
+    }
+    return value;
+  }
+
+  /* Requests sent that have not been received yet */
+  public int pending() {
+    return pending;
+  }
+
+  public void close() throws IOException {
+    socket.close();
+  }
+
+  private void send(byte op, double coupon, int years, double face, double value) throws IOException {
+    out.writeByte(op);
+    out.writeDouble(coupon);
+    out.writeInt(years);
+    out.writeDouble(face);
+    out.writeDouble(value);
+    pending++;
+    unflushed = true;
+  }
+}
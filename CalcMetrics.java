@@ -0,0 +1,376 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Always-on metrics of one BondYieldCalculator, see CalcMetricsMBean.
+ * Price and yield calls can take only tens of nanoseconds, so only every
+ * SAMPLE_RATE-th call is timed, counted per stripe of threads. Solves cost
+ * microseconds and are all counted, with every SOLVE_SAMPLE_RATE-th timed.
+ * Counters are LongAdders and histograms are split into stripes with a lock
+ * each, picked by thread, so threads sharing a calculator do not queue up
+ * to record. Memo hits, misses and sizes come from the memos' own stats.
+ *
+ * register exposes the metrics as an MBean named
+ * ChimeraCalc:type=CalcMetrics,name=..., and dumpEvery prints them on a
+ * schedule.
+ */
+public class CalcMetrics implements CalcMetricsMBean {
+  /* One call in this many is timed, a power of two */
+  public static final int SAMPLE_RATE = 1024;
+  private static final int SAMPLE_MASK = SAMPLE_RATE - 1;
+
+  /* One solve in this many is timed, a power of two */
+  public static final int SOLVE_SAMPLE_RATE = 16;
+  private static final int SOLVE_SAMPLE_MASK = SOLVE_SAMPLE_RATE - 1;
+
+  /* Ints per 64 byte cache line, so each stripe's call count has a line to itself */
+  private static final int PADDING = 16;
+  private static final int CALL_MASK = StripedHistogram.stripeCount() - 1;
+
+  /* Runs every periodic dump, on one daemon thread */
+  private static final ScheduledExecutorService DUMPS = Executors.newSingleThreadScheduledExecutor(task -> {
+    Thread thread = new Thread(task, "calc-metrics-dump");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final BondYieldCalculator calc;
+  private volatile boolean enabled = true;
+  private volatile ObjectName registeredName;
+
+  private final StripedHistogram priceLatency = new StripedHistogram();
+  private final StripedHistogram yieldLatency = new StripedHistogram();
+  private final StripedHistogram solveLatency = new StripedHistogram();
+  private final StripedHistogram iterations = new StripedHistogram();
+  private final LongAdder solves = new LongAdder();
+  private final LongAdder bracketFlips = new LongAdder();
+  private final LongAdder noRoots = new LongAdder();
+  private final LongAdder rowFills = new LongAdder();
+  private final LongAccumulator rowFillMax = new LongAccumulator(Math::max, 0);
+
+  /*
+  * Calls and solves seen by each stripe of threads, one stripe per cache
+  * line, calls first and solves next to them. Threads
+  * that share a stripe may lose each other's counts, which only moves
+  * which call gets timed.
+  */
+  private final int[] calls = new int[(CALL_MASK + 2) * PADDING];
+
+  CalcMetrics(BondYieldCalculator calc) {
+    this.calc = calc;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+  * Registers the metrics with the platform MBean server.
+  * @param  name name of the calculator, e.g. "server"
+  * @return      name the MBean was registered under
+  */
+  public ObjectName register(String name) throws JMException {
+    ObjectName objectName = new ObjectName("ChimeraCalc:type=CalcMetrics,name=" + ObjectName.quote(name));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+    registeredName = objectName;
+    return objectName;
+  }
+
+  /**
+  * Removes the MBean added by register, if any.
+  */
+  public void unregister() throws JMException {
+    ObjectName objectName = registeredName;
+    if (objectName != null) {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+      registeredName = null;
+    }
+  }
+
+  /**
+  * Prints dump to a stream on a schedule until the returned future is cancelled.
+  * @param  period time between dumps
+  * @param  unit   unit of period
+  * @param  out    stream to print to
+  * @return        future that stops the dumps when cancelled
+  */
+  public ScheduledFuture<?> dumpEvery(long period, TimeUnit unit, PrintStream out) {
+    return DUMPS.scheduleAtFixedRate(() -> out.println(dump()), period, period, unit);
+  }
+
+  /**
+  * Whether to time the call about to be made.
+  * Calls are counted even while disabled, so the flag is only read when a
+  * call is due.
+  * @return true for every SAMPLE_RATE-th call of a stripe while enabled
+  */
+  boolean sample() {
+    int index = (((int) Thread.currentThread().getId() & CALL_MASK) + 1) * PADDING;
+    return (++calls[index] & SAMPLE_MASK) == 0 && enabled;
+  }
+
+  /**
+  * Counts a solve about to be made and whether to time it.
+  * @return true for every SOLVE_SAMPLE_RATE-th solve of a stripe while enabled
+  */
+  boolean sampleSolve() {
+    if (!enabled) {
+      return false;
+    }
+    solves.increment();
+    int index = (((int) Thread.currentThread().getId() & CALL_MASK) + 1) * PADDING + 1;
+    return (++calls[index] & SOLVE_SAMPLE_MASK) == 0;
+  }
+
+  void recordPrice(long nanos) {
+    priceLatency.record(nanos);
+  }
+
+  void recordYield(long nanos) {
+    yieldLatency.record(nanos);
+  }
+
+  void recordSolveTime(long nanos) {
+    solveLatency.record(nanos);
+  }
+
+  /**
+  * Records how a solve went.
+  * @param  tracker tracker the solver counted its iterations with
+  * @param  yield   yield the solver returned
+  */
+  void recordSolve(YieldBudget.Tracker tracker, double yield) {
+    if (!enabled) {
+      return;
+    }
+    iterations.record(tracker.iterations);
+    if (tracker.flipped) {
+      bracketFlips.increment();
+    }
+    if (Double.isNaN(yield)) {
+      noRoots.increment();
+    }
+  }
+
+  /**
+  * Records a discount row being filled in further.
+  * @param  years number of years filled in at once
+  */
+  void recordRowFill(int years) {
+    if (enabled) {
+      rowFills.increment();
+      rowFillMax.accumulate(years);
+    }
+  }
+
+  public long getPriceSamples() {
+    return priceLatency.merged().count();
+  }
+
+  public long getPriceLatencyP50() {
+    return priceLatency.merged().valueAtPercentile(50);
+  }
+
+  public long getPriceLatencyP99() {
+    return priceLatency.merged().valueAtPercentile(99);
+  }
+
+  public long getPriceLatencyP999() {
+    return priceLatency.merged().valueAtPercentile(99.9);
+  }
+
+  public long getPriceLatencyMax() {
+    return priceLatency.merged().max();
+  }
+
+  public long getYieldSamples() {
+    return yieldLatency.merged().count();
+  }
+
+  public long getYieldLatencyP50() {
+    return yieldLatency.merged().valueAtPercentile(50);
+  }
+
+  public long getYieldLatencyP99() {
+    return yieldLatency.merged().valueAtPercentile(99);
+  }
+
+  public long getYieldLatencyP999() {
+    return yieldLatency.merged().valueAtPercentile(99.9);
+  }
+
+  public long getYieldLatencyMax() {
+    return yieldLatency.merged().max();
+  }
+
+  public long getSolves() {
+    return solves.sum();
+  }
+
+  public long getSolveSamples() {
+    return solveLatency.merged().count();
+  }
+
+  public long getSolveLatencyP50() {
+    return solveLatency.merged().valueAtPercentile(50);
+  }
+
+  public long getSolveLatencyP99() {
+    return solveLatency.merged().valueAtPercentile(99);
+  }
+
+  public long getSolveLatencyMax() {
+    return solveLatency.merged().max();
+  }
+
+  public double getIterationsMean() {
+    return iterations.merged().mean();
+  }
+
+  public long getIterationsP50() {
+    return iterations.merged().valueAtPercentile(50);
+  }
+
+  public long getIterationsP99() {
+    return iterations.merged().valueAtPercentile(99);
+  }
+
+  public long getIterationsMax() {
+    return iterations.merged().max();
+  }
+
+  public long getBracketFlips() {
+    return bracketFlips.sum();
+  }
+
+  public long getNoRoots() {
+    return noRoots.sum();
+  }
+
+  public long getYieldMemoHits() {
+    return calc.yieldCacheStats().hits;
+  }
+
+  public long getYieldMemoMisses() {
+    return calc.yieldCacheStats().misses;
+  }
+
+  public double getYieldMemoHitRate() {
+    return calc.yieldCacheStats().hitRate();
+  }
+
+  public int getYieldMemoSize() {
+    return calc.yieldCacheStats().size;
+  }
+
+  public long getDiscountMemoHits() {
+    return calc.discountCacheStats().hits;
+  }
+
+  public long getDiscountMemoMisses() {
+    return calc.discountCacheStats().misses;
+  }
+
+  public double getDiscountMemoHitRate() {
+    return calc.discountCacheStats().hitRate();
+  }
+
+  public int getDiscountMemoSize() {
+    return calc.discountCacheStats().size;
+  }
+
+  public long getDiscountRowFills() {
+    return rowFills.sum();
+  }
+
+  public long getDiscountRowFillMax() {
+    return rowFillMax.get();
+  }
+
+  public void reset() {
+    priceLatency.reset();
+    yieldLatency.reset();
+    solveLatency.reset();
+    iterations.reset();
+    solves.reset();
+    bracketFlips.reset();
+    noRoots.reset();
+    rowFills.reset();
+    rowFillMax.reset();
+  }
+
+  public String dump() {
+    LatencyHistogram price = priceLatency.merged();
+    LatencyHistogram yield = yieldLatency.merged();
+    LatencyHistogram solve = solveLatency.merged();
+    LatencyHistogram iteration = iterations.merged();
+    return String.format("price ns:   samples=%d p50=%d p99=%d p99.9=%d max=%d%n"
+                         + "yield ns:   samples=%d p50=%d p99=%d p99.9=%d max=%d%n"
+                         + "solve ns:   solves=%d samples=%d p50=%d p99=%d max=%d%n"
+                         + "iterations: mean=%.2f p50=%d p99=%d max=%d flips=%d noRoots=%d%n"
+                         + "yield memo:    %s%n"
+                         + "discount memo: %s rowFills=%d rowFillMax=%d",
+                         price.count(), price.valueAtPercentile(50), price.valueAtPercentile(99),
+                         price.valueAtPercentile(99.9), price.max(),
+                         yield.count(), yield.valueAtPercentile(50), yield.valueAtPercentile(99),
+                         yield.valueAtPercentile(99.9), yield.max(),
+                         solves.sum(), solve.count(), solve.valueAtPercentile(50), solve.valueAtPercentile(99), solve.max(),
+                         iteration.mean(), iteration.valueAtPercentile(50), iteration.valueAtPercentile(99),
+                         iteration.max(), bracketFlips.sum(), noRoots.sum(),
+                         calc.yieldCacheStats(), calc.discountCacheStats(), rowFills.sum(), rowFillMax.get());
+  }
+
+  /* LatencyHistogram split into stripes by thread, each guarded by its own lock */
+  private static class StripedHistogram {
+    private final LatencyHistogram[] stripes;
+    private final int mask;
+
+    StripedHistogram() {
+      int count = stripeCount();
+      stripes = new LatencyHistogram[count];
+      for (int i = 0; i < count; i++) {
+        stripes[i] = new LatencyHistogram();
+      }
+      mask = count - 1;
+    }
+
+    /* Power of two at least the number of cores */
+    static int stripeCount() {
+      return Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+    }
+
+    void record(long value) {
+      LatencyHistogram stripe = stripes[(int) Thread.currentThread().getId() & mask];
+      synchronized (stripe) {
+        stripe.record(value);
+      }
+    }
+
+    LatencyHistogram merged() {
+      LatencyHistogram total = new LatencyHistogram();
+      for (LatencyHistogram stripe : stripes) {
+        synchronized (stripe) {
+          total.add(stripe);
+        }
+      }
+      return total;
+    }
+
+    void reset() {
+      for (LatencyHistogram stripe : stripes) {
+        synchronized (stripe) {
+          stripe.reset();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/**
+ * Management interface of CalcMetrics, as seen in JConsole or any other
+ * JMX client. Latencies are in nanoseconds.
+ */
+public interface CalcMetricsMBean {
+  boolean isEnabled();
+
+  void setEnabled(boolean enabled);
+
+  /* Price calls timed, every CalcMetrics.SAMPLE_RATE-th per stripe of threads */
+  long getPriceSamples();
+
+  long getPriceLatencyP50();
+
+  long getPriceLatencyP99();
+
+  long getPriceLatencyP999();
+
+  long getPriceLatencyMax();
+
+  /* Yield calls timed, every CalcMetrics.SAMPLE_RATE-th per stripe of threads */
+  long getYieldSamples();
+
+  long getYieldLatencyP50();
+
+  long getYieldLatencyP99();
+
+  long getYieldLatencyP999();
+
+  long getYieldLatencyMax();
+
+  /* Yields solved because the memos missed, latencies of every CalcMetrics.SOLVE_SAMPLE_RATE-th */
+  long getSolves();
+
+  long getSolveSamples();
+
+  long getSolveLatencyP50();
+
+  long getSolveLatencyP99();
+
+  long getSolveLatencyMax();
+
+  /* Iterations per solve, over every solve including CalcYieldNear and budgeted ones */
+  double getIterationsMean();
+
+  long getIterationsP50();
+
+  long getIterationsP99();
+
+  long getIterationsMax();
+
+  /* Solves that had to try the bracket left of -1 */
+  long getBracketFlips();
+
+  /* Solves that found no yield */
+  long getNoRoots();
+
+  long getYieldMemoHits();
+
+  long getYieldMemoMisses();
+
+  double getYieldMemoHitRate();
+
+  int getYieldMemoSize();
+
+  long getDiscountMemoHits();
+
+  long getDiscountMemoMisses();
+
+  double getDiscountMemoHitRate();
+
+  int getDiscountMemoSize();
+
+  /* Times a discount row was filled in further, and the most years filled in at once */
+  long getDiscountRowFills();
+
+  long getDiscountRowFillMax();
+
+  /* Forgets everything recorded so far; memo stats are kept by the memos */
+  void reset();
+
+  /* Everything above as text, the same as the periodic dump */
+  String dump();
+}
@@ -0,0 +1,37 @@
+/**
+ * Wire format shared by CalcServer and CalcClient. Everything is big endian,
+ * as written by DataOutputStream.
+ *
+ * A connection opens with the client sending MAGIC, then any number of
+ * requests. Requests are answered strictly in the order they arrive, so a
+ * client can send many before reading any answers.
+ *
+ *   request:  op (1 byte), coupon (8), years (4), face (8), rate or price (8)
+ *   response: status (1 byte), price or yield (8)
+ *
+ * A yield with no solution comes back as OK with NaN. A request with years
+ * below 0 or above MAX_YEARS, or that the calculator fails on, gets
+ * BAD_REQUEST with a value of NaN, and the connection carries on with the
+ * next request. A request the server cannot read, such as an unknown op,
+ * also gets BAD_REQUEST, and the server closes the connection after it,
+ * as the rest of the stream can no longer be framed.
+ */
+final class CalcProtocol {
+  /* "CHM" and a format version */
+  static final int MAGIC = 0x43484d01;
+
+  static final byte PRICE = 1;
+  static final byte YIELD = 2;
+
+  static final byte OK = 0;
+  static final byte BAD_REQUEST = 1;
+
+  /* Longest maturity served, which bounds the discount row a request can make the server fill in */
+  static final int MAX_YEARS = 1000;
+
+  static final int REQUEST_BYTES = 1 + 8 + 4 + 8 + 8;
+  static final int RESPONSE_BYTES = 1 + 8;
+
+  private CalcProtocol() {
+  }
+}
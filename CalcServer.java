@@ -0,0 +1,244 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMException;
+
+/**
+ * Serves CalcPrice and CalcYield over a local TCP socket, see CalcProtocol.
+ * Every connection shares one thread-safe calculator, so a yield solved for
+ * one client is a memo hit for the next and the whole host keeps a single
+ * warm memo instead of one per process.
+ *
+ * Each connection is served by its own thread from a fixed pool. Answers
+ * are buffered and only flushed once the server has read every request
+ * that has arrived, so a client that pipelines requests gets its answers
+ * back in a few large writes rather than one packet each. Connections
+ * beyond the size of the pool wait until one closes.
+ *
+ * The calculator's metrics are registered as the MBean
+ * ChimeraCalc:type=CalcMetrics,name="server" and dumped to standard output
+ * every dumpSeconds, 0 for never.
+ *
+ * Usage: java CalcServer [port] [connections] [dumpSeconds]
+ */
+public class CalcServer implements Closeable {
+  public static final int DEFAULT_PORT = 7070;
+  private static final int DEFAULT_CONNECTIONS = 64;
+  private static final int DEFAULT_DUMP_SECONDS = 60;
+
+  /* Pending connections the OS queues before refusing new ones */
+  private static final int BACKLOG = 128;
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /* Waits between failed accepts, doubling from the first to the last while accept keeps failing */
+  private static final long MIN_ACCEPT_BACKOFF_MILLIS = 10;
+  private static final long MAX_ACCEPT_BACKOFF_MILLIS = 1000;
+
+  private final BondYieldCalculator calc;
+  private final ExecutorService connections;
+  private final Set<Socket> open = ConcurrentHashMap.newKeySet();
+  private volatile ServerSocket listener;
+  private volatile Thread acceptor;
+
+  public static void main(String[] args) throws IOException, InterruptedException, JMException {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+    int limit = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CONNECTIONS;
+    int dumpSeconds = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_DUMP_SECONDS;
+
+    BondYieldCalculator calc = BondYieldCalculator.concurrent();
+    calc.metrics().register("server");
+    if (dumpSeconds > 0) {
+      calc.metrics().dumpEvery(dumpSeconds, TimeUnit.SECONDS, System.out);
+    }
+    CalcServer server = new CalcServer(calc, limit);
+    Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+    System.out.println("Listening on " + InetAddress.getLoopbackAddress().getHostAddress() + ":" + server.start(port));
+    server.awaitClose();
+  }
+
+  /**
+  * Creates a server that is not yet listening.
+  * @param  calc           calculator shared by every connection, must be safe to share
+  * @param  maxConnections connections served at the same time
+  */
+  public CalcServer(BondYieldCalculator calc, int maxConnections) {
+    if (!calc.isThreadSafe()) {
+      throw new IllegalArgumentException("Calculator memos are not striped, create it with BondYieldCalculator.concurrent()");
+    }
+    this.calc = calc;
+    this.connections = Executors.newFixedThreadPool(maxConnections, daemonThreads("calc-server-"));
+  }
+
+  /**
+  * Starts accepting connections on the loopback address.
+  * @param  port port to listen on, 0 for any free port
+  * @return      port the server is listening on
+  */
+  public int start(int port) throws IOException {
+    if (listener != null) {
+      throw new IllegalStateException("Server already started");
+    }
+    listener = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress());
+    acceptor = daemonThreads("calc-server-accept").newThread(this::acceptLoop);
+    acceptor.start();
+    return listener.getLocalPort();
+  }
+
+  /**
+  * Waits until the server is closed. Its threads are daemons, so a process
+  * that only runs the server has to wait here to keep running.
+  */
+  public void awaitClose() throws InterruptedException {
+    if (acceptor != null) {
+      acceptor.join();
+    }
+  }
+
+  /* Calculator behind the server, e.g. for its memo stats */
+  public BondYieldCalculator calculator() {
+    return calc;
+  }
+
+  /**
+  * Stops accepting connections and closes every open one.
+  */
+  public void close() {
+    try {
+      if (listener != null) {
+        listener.close();
+      }
+    } catch (IOException e) {
+      /* Closing anyway */
+    }
+    for (Socket socket : open) {
+      closeQuietly(socket);
+    }
+    connections.shutdownNow();
+  }
+
+  /**
+  * Accepts connections until the listener is closed. While accept keeps
+  * failing, e.g. when the process is out of file descriptors, waits longer
+  * and longer between attempts instead of spinning.
+  */
+  private void acceptLoop() {
+    ServerSocket server = listener;
+    long backoff = 0;
+    while (!server.isClosed()) {
+      Socket socket;
+      try {
+        socket = server.accept();
+        socket.setTcpNoDelay(true);
+        backoff = 0;
+      } catch (IOException e) {
+        if (server.isClosed()) {
+          return;
+        }
+        if (backoff == 0) {
+          System.err.println(e);
+          System.err.println("Error accepting connection, backing off");
+        }
+        backoff = Math.min(MAX_ACCEPT_BACKOFF_MILLIS, Math.max(MIN_ACCEPT_BACKOFF_MILLIS, backoff * 2));
+        try {
+          Thread.sleep(backoff);
+        } catch (InterruptedException interrupted) {
+          return;
+        }
+        continue;
+      }
+      open.add(socket);
+      try {
+        connections.execute(() -> serve(socket));
+      } catch (RejectedExecutionException e) {
+        open.remove(socket);
+        closeQuietly(socket);
+      }
+    }
+  }
+
+  /**
+  * Answers the requests of one connection until the client closes it.
+  * @param  socket connection to serve
+  */
+  private void serve(Socket socket) {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE))) {
+      if (in.readInt() != CalcProtocol.MAGIC) {
+        reject(out);
+        return;
+      }
+      int op;
+      while ((op = in.read()) >= 0) {
+        double coupon = in.readDouble();
+        int years = in.readInt();
+        double face = in.readDouble();
+        double value = in.readDouble();
+
+        if (op != CalcProtocol.PRICE && op != CalcProtocol.YIELD) {
+          reject(out);
+          return;
+        }
+        if (years < 0 || years > CalcProtocol.MAX_YEARS) {
+          answer(out, CalcProtocol.BAD_REQUEST, Double.NaN);
+        } else {
+          try {
+            double result = op == CalcProtocol.PRICE ? calc.CalcPrice(coupon, years, face, value)
+                                                     : calc.CalcYield(coupon, years, face, value);
+            answer(out, CalcProtocol.OK, result);
+          } catch (RuntimeException e) {
+            /* One bad request must not take down the connection, let alone the server */
+            answer(out, CalcProtocol.BAD_REQUEST, Double.NaN);
+          }
+        }
+
+        /* Flush only once every request that has arrived is answered */
+        if (in.available() == 0) {
+          out.flush();
+        }
+      }
+      out.flush();
+    } catch (EOFException | SocketException e) {
+      /* Client went away mid request, or close() closed the socket */
+    } catch (IOException e) {
+      System.err.println(e);
+      System.err.println("Error serving connection");
+    } finally {
+      open.remove(socket);
+      closeQuietly(socket);
+    }
+  }
+
+  private void answer(DataOutputStream out, byte status, double value) throws IOException {
+    out.writeByte(status);
+    out.writeDouble(value);
+  }
+
+  /* Answers a request that cannot be framed, before the connection is closed */
+  private void reject(DataOutputStream out) throws IOException {
+    answer(out, CalcProtocol.BAD_REQUEST, Double.NaN);
+    out.flush();
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      /* Nothing left to do with it */
+    }
+  }
+
+  private static ThreadFactory daemonThreads(String prefix) {
+    AtomicInteger count = new AtomicInteger();
+    return task -> {
+      Thread thread = new Thread(task, prefix + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+}
@@ -0,0 +1,401 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Benchmarks CalcPrice and CalcYield, and their batch forms CalcPrices and
+ * CalcYields, replacing the hand kept timings in BondYieldCalculator.csv.
+ * Every combination of operation, memo state,
+ * maturity range, and rate regime is run with warmup iterations followed by
+ * timed iterations, reporting the mean time per call, heap allocated per
+ * call, and latency percentiles from a pass that times each call on its own.
+ *
+ * Memo states:
+ *   cold   - a new calculator every CHUNK calls, and every key is new
+ *   warm   - a small set of keys that are all memoized before timing starts
+ *   random - keys drawn at random from a pool, so memo hits and misses mix
+ *   batch  - prices and yields only, which skip the memos: every CHUNK keys
+ *            go through one batch call, made by the first call of the chunk,
+ *            so ns/op is per bond and the percentiles show the batch as one
+ *            slow call in CHUNK
+ *
+ * Rate regimes:
+ *   positive - rates from 0.1% to 20%
+ *   nearzero - rates within 0.1% of zero, where the closed form switches to log1p
+ *   negative - rates from -50% to -0.1%
+ *   flip     - rates below -1 with even years, where the yield bracket flips sides
+ *
+ * Usage: java CalculatorBenchmark [options]
+ *   --quick             fewer and shorter iterations
+ *   --closed-form       price with PricingMode.CLOSED_FORM
+ *   --no-metrics        turn CalcMetrics off, to measure what the metrics cost
+ *   --filter text       only run benchmarks whose name contains text
+ *   --csv file          write results as CSV
+ *   --compare file      compare against an earlier CSV, exit 1 on a regression
+ *   --threshold ratio   slowdown counted as a regression, default 0.10
+ */
+public class CalculatorBenchmark {
+  private static final int CHUNK = 4096;
+  private static final int KEYS = 1 << 16;
+  private static final int WARM_KEYS = 1024;
+  private static final int SEQUENCE = 1 << 18;
+
+  private static final String[] OPERATIONS = {"price", "yield", "prices", "yields"};
+  private static final String[] CACHES = {"cold", "warm", "random"};
+  private static final String[] BATCH_CACHES = {"batch"};
+  private static final int[][] YEAR_RANGES = {{1, 10}, {11, 30}, {31, 100}};
+  private static final String[] REGIMES = {"positive", "nearzero", "negative", "flip"};
+
+  private static final String CSV_HEADER =
+    "benchmark,operation,cache,years,regime,pricing,ops,ns_per_op,ns_error,bytes_per_op,p50,p90,p99,p999,max";
+
+  private int warmupIterations = 3;
+  private int iterations = 5;
+  private long warmupNanos = 100_000_000L;
+  private long iterationNanos = 200_000_000L;
+  private PricingMode pricingMode = PricingMode.MEMOIZED;
+  private boolean metrics = true;
+
+  /* Keeps results alive so the JIT cannot drop the calls */
+  private double sink;
+
+  private final com.sun.management.ThreadMXBean threads =
+    (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  public static void main(String[] args) throws IOException {
+    CalculatorBenchmark bench = new CalculatorBenchmark();
+    String filter = "";
+    String csvFile = null;
+    String compareFile = null;
+    double threshold = 0.10;
+
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--quick":
+          bench.warmupIterations = 2;
+          bench.iterations = 3;
+          bench.warmupNanos = 50_000_000L;
+          bench.iterationNanos = 100_000_000L;
+          break;
+        case "--closed-form":
+          bench.pricingMode = PricingMode.CLOSED_FORM;
+          break;
+        case "--no-metrics":
+          bench.metrics = false;
+          break;
+        case "--filter":
+          filter = args[++i];
+          break;
+        case "--csv":
+          csvFile = args[++i];
+          break;
+        case "--compare":
+          compareFile = args[++i];
+          break;
+        case "--threshold":
+          threshold = Double.parseDouble(args[++i]);
+          break;
+        default:
+          System.err.println("Unknown option " + args[i]);
+          System.exit(2);
+      }
+    }
+
+    System.out.printf("System.nanoTime takes about %.0f ns, which is included in the percentiles%n%n", timerOverhead());
+    System.out.printf("%-36s %10s %8s %8s %8s %8s %8s %8s%n",
+                      "benchmark", "ns/op", "+-", "B/op", "p50", "p90", "p99", "p99.9");
+    List<String> rows = new ArrayList<>();
+    for (String operation : OPERATIONS) {
+      for (String cache : isBatch(operation) ? BATCH_CACHES : CACHES) {
+        for (int[] range : YEAR_RANGES) {
+          for (String regime : REGIMES) {
+            String name = operation + "." + cache + "." + range[0] + "-" + range[1] + "." + regime;
+            if (name.contains(filter)) {
+              rows.add(bench.run(name, operation, cache, range, regime));
+            }
+          }
+        }
+      }
+    }
+
+    if (csvFile != null) {
+      List<String> lines = new ArrayList<>();
+      lines.add(CSV_HEADER);
+      lines.addAll(rows);
+      Files.write(Paths.get(csvFile), lines);
+    }
+    if (compareFile != null && compare(compareFile, rows, threshold)) {
+      System.exit(1);
+    }
+  }
+
+  /**
+  * Runs one benchmark and prints its line of the report.
+  * @return the benchmark's CSV row
+  */
+  private String run(String name, String operation, String cache, int[] range, String regime) {
+    boolean price = operation.startsWith("price");
+    Inputs inputs = new Inputs(price, range, regime, cache);
+    Workload work = new Workload(inputs, price, cache.equals("cold"), isBatch(operation));
+
+    for (int i = 0; i < warmupIterations; i++) {
+      timeIteration(work, warmupNanos);
+    }
+
+    double[] nsPerOp = new double[iterations];
+    long totalOps = 0;
+    long allocatedBefore = allocatedBytes();
+    for (int i = 0; i < iterations; i++) {
+      long start = System.nanoTime();
+      long ops = timeIteration(work, iterationNanos);
+      nsPerOp[i] = (double) (System.nanoTime() - start) / ops;
+      totalOps += ops;
+    }
+    double bytesPerOp = (double) (allocatedBytes() - allocatedBefore) / totalOps;
+
+    LatencyHistogram latencies = new LatencyHistogram();
+    sampleIteration(work, iterationNanos, latencies);
+
+    double mean = 0.0;
+    for (double ns : nsPerOp) {
+      mean += ns / iterations;
+    }
+    double variance = 0.0;
+    for (double ns : nsPerOp) {
+      variance += (ns - mean) * (ns - mean) / Math.max(1, iterations - 1);
+    }
+    double error = Math.sqrt(variance);
+
+    System.out.printf("%-36s %10.1f %8.1f %8.1f %8d %8d %8d %8d%n", name, mean, error, bytesPerOp,
+                      latencies.valueAtPercentile(50), latencies.valueAtPercentile(90),
+                      latencies.valueAtPercentile(99), latencies.valueAtPercentile(99.9));
+    return String.format(Locale.ROOT, "%s,%s,%s,%d-%d,%s,%s,%d,%.2f,%.2f,%.1f,%d,%d,%d,%d,%d",
+                         name, operation, cache, range[0], range[1], regime,
+                         pricingMode.name().toLowerCase(Locale.ROOT), totalOps, mean, error, bytesPerOp,
+                         latencies.valueAtPercentile(50), latencies.valueAtPercentile(90),
+                         latencies.valueAtPercentile(99), latencies.valueAtPercentile(99.9), latencies.max());
+  }
+
+  /**
+  * Calls the workload in chunks until the time is up.
+  * @return number of calls made
+  */
+  private long timeIteration(Workload work, long nanos) {
+    long ops = 0;
+    long deadline = System.nanoTime() + nanos;
+    double total = 0.0;
+    while (System.nanoTime() < deadline) {
+      work.startChunk();
+      for (int i = 0; i < CHUNK; i++) {
+        total += work.call();
+      }
+      ops += CHUNK;
+    }
+    sink += total;
+    return ops;
+  }
+
+  /**
+  * Calls the workload until the time is up, timing every call on its own.
+  * The times include one System.nanoTime call.
+  */
+  private void sampleIteration(Workload work, long nanos, LatencyHistogram latencies) {
+    long deadline = System.nanoTime() + nanos;
+    double total = 0.0;
+    while (System.nanoTime() < deadline) {
+      work.startChunk();
+      for (int i = 0; i < CHUNK; i++) {
+        long start = System.nanoTime();
+        total += work.call();
+        latencies.record(System.nanoTime() - start);
+      }
+    }
+    sink += total;
+  }
+
+  /* Whether an operation is one of the batch forms */
+  private static boolean isBatch(String operation) {
+    return operation.endsWith("s");
+  }
+
+  /* Average cost of a System.nanoTime call */
+  private static double timerOverhead() {
+    long last = 0;
+    int calls = 1_000_000;
+    long start = System.nanoTime();
+    for (int i = 0; i < calls; i++) {
+      last += System.nanoTime();
+    }
+    return (double) (System.nanoTime() - start - (last & 1)) / calls;
+  }
+
+  private long allocatedBytes() {
+    return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /**
+  * Compares results against an earlier CSV of the same benchmarks.
+  * A benchmark only counts as slower if it is past the threshold and the
+  * two results are further apart than their errors, so noise alone does
+  * not fail a comparison.
+  * @return true if any benchmark got slower
+  */
+  private static boolean compare(String file, List<String> rows, double threshold) throws IOException {
+    Map<String, double[]> baseline = new HashMap<>();
+    for (String line : Files.readAllLines(Paths.get(file))) {
+      String[] fields = line.split(",");
+      if (!line.equals(CSV_HEADER) && fields.length > 7) {
+        baseline.put(fields[0] + "," + fields[5], new double[] {Double.parseDouble(fields[7]), Double.parseDouble(fields[8])});
+      }
+    }
+
+    boolean regressed = false;
+    System.out.printf("%n%-36s %10s %10s %8s%n", "benchmark", "baseline", "now", "ratio");
+    for (String row : rows) {
+      String[] fields = row.split(",");
+      double[] earlier = baseline.get(fields[0] + "," + fields[5]);
+      if (earlier == null) {
+        continue;
+      }
+      double before = earlier[0];
+      double now = Double.parseDouble(fields[7]);
+      double ratio = now / before;
+      boolean slower = ratio > 1.0 + threshold && now - Double.parseDouble(fields[8]) > before + earlier[1];
+      regressed |= slower;
+      System.out.printf("%-36s %10.1f %10.1f %8.2f%s%n", fields[0], before, now, ratio, slower ? "  REGRESSION" : "");
+    }
+    return regressed;
+  }
+
+  /**
+  * Keys for one benchmark, generated up front so that timing only covers
+  * the calculator. For yields the prices come from pricing at the drawn rate,
+  * so every yield has a root to find.
+  */
+  private static class Inputs {
+    final double[] coupons = new double[KEYS];
+    final int[] years = new int[KEYS];
+    final double[] faces = new double[KEYS];
+    final double[] values = new double[KEYS];
+    final int[] order = new int[SEQUENCE];
+
+    Inputs(boolean price, int[] range, String regime, String cache) {
+      Random rand = new Random(Objects.hash(price, range[0], regime));
+      for (int i = 0; i < KEYS; i++) {
+        coupons[i] = rand.nextDouble() * 0.15;
+        faces[i] = 100.0 * (1 + rand.nextInt(50));
+        int span = range[1] - range[0] + 1;
+        years[i] = range[0] + rand.nextInt(span);
+
+        double rate;
+        switch (regime) {
+          case "nearzero":
+            rate = (rand.nextDouble() * 2 - 1) * 0.001;
+            break;
+          case "negative":
+            rate = -0.001 - rand.nextDouble() * 0.499;
+            break;
+          case "flip":
+            rate = -1.05 - rand.nextDouble() * 1.95;
+            years[i] += years[i] % 2 == 0 ? 0 : (years[i] < range[1] ? 1 : -1);
+            break;
+          default:
+            rate = 0.001 + rand.nextDouble() * 0.199;
+        }
+        values[i] = price ? rate : BondYieldCalculator.calcClosedFormPrice(coupons[i], years[i], faces[i], rate);
+      }
+
+      /* Cold and batch walk the keys in order, warm cycles a few keys, random draws from all of them */
+      for (int i = 0; i < SEQUENCE; i++) {
+        switch (cache) {
+          case "warm":
+            order[i] = i % WARM_KEYS;
+            break;
+          case "random":
+            order[i] = rand.nextInt(KEYS);
+            break;
+          default:
+            order[i] = i % KEYS;
+        }
+      }
+    }
+  }
+
+  /* Walks the inputs of a benchmark one call at a time */
+  private class Workload {
+    private final Inputs inputs;
+    private final boolean price;
+    private final boolean cold;
+    private final boolean batch;
+    private BondYieldCalculator calc;
+    private int next;
+
+    /* Keys of each chunk as columns, and the results of the chunk's batch */
+    private double[][] coupons;
+    private int[][] years;
+    private double[][] faces;
+    private double[][] values;
+    private final double[] results = new double[CHUNK];
+
+    Workload(Inputs inputs, boolean price, boolean cold, boolean batch) {
+      this.inputs = inputs;
+      this.price = price;
+      this.cold = cold;
+      this.batch = batch;
+      this.calc = newCalculator();
+      if (batch) {
+        /* Batch keys are walked in order, so each chunk is one run of them */
+        int chunks = KEYS / CHUNK;
+        coupons = new double[chunks][];
+        years = new int[chunks][];
+        faces = new double[chunks][];
+        values = new double[chunks][];
+        for (int c = 0; c < chunks; c++) {
+          coupons[c] = Arrays.copyOfRange(inputs.coupons, c * CHUNK, (c + 1) * CHUNK);
+          years[c] = Arrays.copyOfRange(inputs.years, c * CHUNK, (c + 1) * CHUNK);
+          faces[c] = Arrays.copyOfRange(inputs.faces, c * CHUNK, (c + 1) * CHUNK);
+          values[c] = Arrays.copyOfRange(inputs.values, c * CHUNK, (c + 1) * CHUNK);
+        }
+      } else if (!cold) {
+        /* Fill the memos with every key the benchmark will use */
+        for (int i = 0; i < SEQUENCE; i++) {
+          call();
+        }
+      }
+    }
+
+    void startChunk() {
+      if (cold) {
+        calc = newCalculator();
+      }
+    }
+
+    double call() {
+      int key = inputs.order[next];
+      next = (next + 1) & (SEQUENCE - 1);
+      if (batch) {
+        int at = key % CHUNK;
+        if (at == 0) {
+          int c = key / CHUNK;
+          if (price) {
+            calc.CalcPrices(coupons[c], years[c], faces[c], values[c], results);
+          } else {
+            calc.CalcYields(coupons[c], years[c], faces[c], values[c], results);
+          }
+        }
+        return results[at];
+      }
+      if (price) {
+        return calc.CalcPrice(inputs.coupons[key], inputs.years[key], inputs.faces[key], inputs.values[key]);
+      }
+      return calc.CalcYield(inputs.coupons[key], inputs.years[key], inputs.faces[key], inputs.values[key]);
+    }
+
+    private BondYieldCalculator newCalculator() {
+      BondYieldCalculator calc = new BondYieldCalculator(new NewtonSolver(), pricingMode);
+      calc.metrics().setEnabled(metrics);
+      return calc;
+    }
+  }
+}
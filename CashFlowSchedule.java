@@ -0,0 +1,348 @@
+import java.util.Arrays;
+
+/**
+ * Cash flows of a bond on a regular grid of periods. Covers coupons paid
+ * more than once a year, amortizing principal, and odd first coupons,
+ * which CalcPrice's annual level coupons cannot express.
+ * Flow k pays amounts[k] at times[k] = first + k / frequency years from
+ * now, so each flow comes one period after the one before. Only the first
+ * period may be short or long. A flow may be 0 to skip a period.
+ *
+ * Discounting at an annual rate r, with v = 1 / (1 + r) and x = v^(1 / frequency),
+ * P(r) = v^first * (a0 + a1 x + a2 x^2 + ... + an x^n)
+ * so the price is one Horner pass from the last flow back, with two pows
+ * for the whole schedule instead of one per flow. The derivative with
+ * respect to r comes out of the same pass, and the yield search uses both.
+ * Pricing allocates nothing and costs O(flows).
+ *
+ * An annual level-coupon schedule made by level remembers its coupon,
+ * years and face value, so BondYieldCalculator can price it and solve it
+ * on its memoized fast path.
+ */
+public class CashFlowSchedule {
+  private static final double ACCURACY = BondYieldCalculator.ACCURACY;
+
+  /* Yield search gives up past this rate, the price is then within rounding of the flows paid now */
+  private static final double MAX_RATE = 1e6;
+
+  private final int frequency;
+  private final double first;
+  private final double[] times;
+  private final double[] amounts;
+
+  /* Price at a rate of 0, and the flow paid at time 0 that no rate discounts */
+  private final double total;
+  private final double paidNow;
+
+  /* Annual level-coupon bond this schedule was made from, if levelYears >= 0 */
+  private final double levelCoupon;
+  private final int levelYears;
+  private final double levelFace;
+
+  private CashFlowSchedule(int frequency, double first, double[] amounts,
+                           double levelCoupon, int levelYears, double levelFace) {
+    if (frequency < 1) {
+      throw new IllegalArgumentException("Frequency must be at least 1: " + frequency);
+    }
+    if (!(first >= 0) || Double.isInfinite(first)) {
+      throw new IllegalArgumentException("First flow must be now or later: " + first);
+    }
+    if (amounts.length == 0) {
+      throw new IllegalArgumentException("Schedule has no flows");
+    }
+    this.frequency = frequency;
+    this.first = first;
+    this.amounts = amounts;
+    this.times = new double[amounts.length];
+    double sum = 0.0;
+    for (int k = 0; k < amounts.length; k++) {
+      if (!(amounts[k] >= 0) || Double.isInfinite(amounts[k])) {
+        throw new IllegalArgumentException("Flow " + k + " must be finite and not negative: " + amounts[k]);
+      }
+      times[k] = first + (double) k / frequency;
+      sum += amounts[k];
+    }
+    this.total = sum;
+    this.paidNow = first == 0 ? amounts[0] : 0.0;
+    this.levelCoupon = levelCoupon;
+    this.levelYears = levelYears;
+    this.levelFace = levelFace;
+  }
+
+  /**
+  * Schedule of flows one period apart.
+  * @param  frequency periods per year
+  * @param  first     years until the first flow
+  * @param  amounts   amount of each flow, copied
+  * @return           schedule
+  */
+  public static CashFlowSchedule of(int frequency, double first, double[] amounts) {
+    return new CashFlowSchedule(frequency, first, amounts.clone(), 0.0, -1, 0.0);
+  }
+
+  /**
+  * Annual level-coupon bond, the bond CalcPrice prices.
+  * @param  coupon coupon rate
+  * @param  years  number of years to maturity
+  * @param  face   face value
+  * @return        schedule
+  */
+  public static CashFlowSchedule level(double coupon, int years, double face) {
+    if (years == 0) {
+      return new CashFlowSchedule(1, 0.0, new double[] {face}, coupon, years, face);
+    }
+    double[] amounts = new double[years];
+    Arrays.fill(amounts, coupon * face);
+    amounts[years - 1] += face;
+    return new CashFlowSchedule(1, 1.0, amounts, coupon, years, face);
+  }
+
+  /**
+  * Level coupons paid frequency times a year, each coupon * face / frequency.
+  * @param  coupon    annual coupon rate
+  * @param  periods   number of coupons
+  * @param  frequency coupons per year
+  * @param  face      face value, repaid with the last coupon
+  * @return           schedule
+  */
+  public static CashFlowSchedule periodic(double coupon, int periods, int frequency, double face) {
+    return oddFirst(coupon, periods, frequency, face, 1.0);
+  }
+
+  /**
+  * Level coupons paid frequency times a year after a first period of a
+  * different length, such as a bond bought between coupon dates or issued
+  * off cycle. The first coupon accrues for the length of the first period.
+  * @param  coupon      annual coupon rate
+  * @param  periods     number of coupons
+  * @param  frequency   coupons per year
+  * @param  face        face value, repaid with the last coupon
+  * @param  firstPeriod length of the first period in regular periods, e.g. 0.5 for a short one
+  * @return             schedule
+  */
+  public static CashFlowSchedule oddFirst(double coupon, int periods, int frequency, double face, double firstPeriod) {
+    if (periods < 1) {
+      throw new IllegalArgumentException("Schedule has no flows");
+    }
+    if (!(firstPeriod > 0)) {
+      throw new IllegalArgumentException("First period must be longer than 0: " + firstPeriod);
+    }
+    if (frequency == 1 && firstPeriod == 1.0) {
+      return level(coupon, periods, face);
+    }
+    double payment = coupon * face / frequency;
+    double[] amounts = new double[periods];
+    Arrays.fill(amounts, payment);
+    amounts[0] = payment * firstPeriod;
+    amounts[periods - 1] += face;
+    return new CashFlowSchedule(frequency, firstPeriod / frequency, amounts, 0.0, -1, 0.0);
+  }
+
+  /**
+  * Coupons paid frequency times a year on the principal still outstanding,
+  * with part of the principal repaid each period.
+  * @param  coupon    annual coupon rate
+  * @param  frequency coupons per year
+  * @param  face      face value, outstanding until the first repayment
+  * @param  principal principal repaid in each period, adding up to face
+  * @return           schedule
+  */
+  public static CashFlowSchedule amortizing(double coupon, int frequency, double face, double[] principal) {
+    double repaid = 0.0;
+    for (double part : principal) {
+      repaid += part;
+    }
+    if (Math.abs(repaid - face) > ACCURACY * Math.max(1.0, Math.abs(face))) {
+      throw new IllegalArgumentException("Principal repaid " + repaid + " does not add up to face " + face);
+    }
+    double[] amounts = new double[principal.length];
+    double outstanding = face;
+    for (int k = 0; k < principal.length; k++) {
+      amounts[k] = outstanding * coupon / frequency + principal[k];
+      outstanding -= principal[k];
+    }
+    return new CashFlowSchedule(frequency, 1.0 / frequency, amounts, 0.0, -1, 0.0);
+  }
+
+  /* Number of flows */
+  public int flows() {
+    return amounts.length;
+  }
+
+  /* Years until flow k */
+  public double time(int k) {
+    return times[k];
+  }
+
+  /* Amount paid by flow k */
+  public double amount(int k) {
+    return amounts[k];
+  }
+
+  /* Periods per year */
+  public int frequency() {
+    return frequency;
+  }
+
+  /* Whether this is an annual level-coupon bond, see level */
+  public boolean isLevel() {
+    return levelYears >= 0;
+  }
+
+  double levelCoupon() {
+    return levelCoupon;
+  }
+
+  int levelYears() {
+    return levelYears;
+  }
+
+  double levelFace() {
+    return levelFace;
+  }
+
+  /**
+  * Discounts every flow at a rate in one Horner pass.
+  * Rates below -1 only price when every time is a whole number of years.
+  * @param  rate annual discount rate
+  * @return      price of the flows
+  */
+  public double price(double rate) {
+    return evaluate(rate, false);
+  }
+
+  /**
+  * Derivative of price with respect to the rate, in one pass like price.
+  * @param  rate annual discount rate
+  * @return      derivative of the price at the rate
+  */
+  public double priceDerivative(double rate) {
+    return evaluate(rate, true);
+  }
+
+  /**
+  * The one Horner pass behind price and priceDerivative. With S(x) the
+  * polynomial in the flows, S'(x) is built alongside it when asked for, and
+  * dP/dr = -v * v^first * (first * S(x) + x * S'(x) / frequency).
+  * @param  rate       annual discount rate
+  * @param  derivative true for the derivative of the price, false for the price
+  * @return            price or its derivative at the rate
+  */
+  private double evaluate(double rate, boolean derivative) {
+    double x = periodDiscount(rate);
+    double sum = amounts[amounts.length - 1];
+    double slope = 0.0;
+    for (int k = amounts.length - 2; k >= 0; k--) {
+      if (derivative) {
+        slope = slope * x + sum;
+      }
+      sum = sum * x + amounts[k];
+    }
+    double lead = firstDiscount(rate, x);
+    if (!derivative) {
+      return lead * sum;
+    }
+    return -lead / (1.0 + rate) * (first * sum + x * slope / frequency);
+  }
+
+  /**
+  * Finds the annual rate that discounts the flows to a price.
+  * With no negative flows the price falls from infinity towards the flows
+  * paid now as the rate rises above -1, so there is at most one yield.
+  * Brackets it by doubling away from 0, starts from the yield of a zero
+  * coupon bond paying every flow at their weighted mean time, then takes
+  * Newton steps, bisecting whenever a step would leave the bracket.
+  * @param  price price of the flows
+  * @return       yield, NaN if no rate gives the price
+  */
+  public double yield(double price) {
+    if (price == total) {
+      return 0.0;
+    }
+    if (!(price > paidNow) || Double.isInfinite(price) || total == paidNow) {
+      return Double.NaN;
+    }
+
+    /* Keep track of which end of the bracket prices above the price and which below */
+    double above;
+    double below;
+    if (price < total) {
+      above = 0.0;
+      below = 1.0;
+      while (price(below) > price) {
+        above = below;
+        below *= 2;
+        if (below > MAX_RATE) {
+          return Double.NaN;
+        }
+      }
+    } else {
+      below = 0.0;
+      above = -0.5;
+      while (price(above) < price) {
+        below = above;
+        above = -1.0 + (above + 1.0) / 2;
+        if (above == -1.0) {
+          return Double.NaN;
+        }
+      }
+    }
+
+    double weightedTime = 0.0;
+    for (int k = 0; k < amounts.length; k++) {
+      weightedTime += times[k] * amounts[k];
+    }
+    double guess = Math.pow(total / price, total / weightedTime) - 1.0;
+    if (!isBetween(guess, above, below)) {
+      guess = (above + below) / 2;
+    }
+
+    double value = price(guess);
+    while (Math.abs(value - price) >= ACCURACY) {
+      if (value > price) {
+        above = guess;
+      } else {
+        below = guess;
+      }
+      double next = guess - (value - price) / priceDerivative(guess);
+      if (!isBetween(next, above, below)) {
+        next = (above + below) / 2;
+      }
+
+      /* Bracket has collapsed to neighbouring doubles, cannot get any closer */
+      if (next == guess || next == above || next == below) {
+        return guess;
+      }
+      guess = next;
+      value = price(guess);
+    }
+    return guess;
+  }
+
+  /* Discount over one period, the x of the Horner pass */
+  private double periodDiscount(double rate) {
+    double discount = 1.0 / (1.0 + rate);
+    return frequency == 1 ? discount : Math.pow(discount, 1.0 / frequency);
+  }
+
+  /* Discount to the first flow, reusing the period discount when the first period is regular */
+  private double firstDiscount(double rate, double x) {
+    if (first == 0) {
+      return 1.0;
+    } else if (first * frequency == 1.0) {
+      return x;
+    }
+    return Math.pow(1.0 + rate, -first);
+  }
+
+  /**
+  * Checks if a value lies strictly inside a bracket given in either order.
+  * @param  value value to check
+  * @param  a     one end of the bracket
+  * @param  b     other end of the bracket
+  * @return       true if value is strictly between a and b
+  */
+  private static boolean isBetween(double value, double a, double b) {
+    return value > Math.min(a, b) && value < Math.max(a, b);
+  }
+}
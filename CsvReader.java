@@ -0,0 +1,333 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads comma separated rows from a channel through one fixed buffer.
+ * Rows are split in place: each field is only a start and end offset into
+ * the buffer, and numbers are parsed straight from the bytes, so reading a
+ * row allocates nothing. Memory stays the same however large the input is;
+ * the only limit is that a single row has to fit in the buffer.
+ * Spaces and tabs around fields, and a carriage return before the newline,
+ * are ignored.
+ */
+public class CsvReader {
+  /* Fields kept per row, later fields are counted but not kept */
+  private static final int MAX_FIELDS = 16;
+
+  /* Powers of ten that are exact as doubles */
+  private static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+    1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  private final ReadableByteChannel channel;
+  private final ByteBuffer buffer;
+  private final byte[] bytes;
+  private int position;           /* start of the next row */
+  private int limit;              /* end of the bytes read so far */
+  private boolean endOfInput;
+
+  private final int[] starts = new int[MAX_FIELDS];
+  private final int[] ends = new int[MAX_FIELDS];
+  private int fieldCount;
+  private long row;
+
+  /**
+  * Creates a reader over a channel.
+  * @param  channel    channel to read rows from, not closed by the reader
+  * @param  bufferSize bytes to read at a time, also the longest row allowed
+  */
+  public CsvReader(ReadableByteChannel channel, int bufferSize) {
+    this.channel = channel;
+    this.buffer = ByteBuffer.allocate(bufferSize);
+    this.bytes = buffer.array();
+  }
+
+  /**
+  * Moves to the next row.
+  * @return true if there was another row, false at the end of the input
+  * @throws IOException if the channel fails or a row is longer than the buffer
+  */
+  public boolean nextRow() throws IOException {
+    int newline = indexOfNewline(position);
+    while (newline < 0 && !endOfInput) {
+      /* Only the newly read bytes need scanning */
+      int scanned = limit - position;
+      fill();
+      newline = indexOfNewline(position + scanned);
+    }
+    if (newline < 0) {
+      /* Last row without a newline */
+      if (position == limit) {
+        return false;
+      }
+      newline = limit;
+    }
+
+    int end = newline;
+    if (end > position && bytes[end - 1] == '\r') {
+      end--;
+    }
+    split(position, end);
+    position = Math.min(newline + 1, limit);
+    row++;
+    return true;
+  }
+
+  /**
+  * Number of fields in the current row. A blank row has one empty field.
+  * @return number of fields
+  */
+  public int fieldCount() {
+    return fieldCount;
+  }
+
+  /**
+  * Number of rows read so far, which is also the line number of the current row.
+  * @return rows read
+  */
+  public long row() {
+    return row;
+  }
+
+  /**
+  * Length of a field with the surrounding whitespace removed.
+  * @param  field index of the field
+  * @return       length in bytes
+  */
+  public int length(int field) {
+    checkField(field);
+    return ends[field] - starts[field];
+  }
+
+  /**
+  * Byte of a field at an offset, ignoring the surrounding whitespace.
+  * @param  field  index of the field
+  * @param  offset offset into the field
+  * @return        byte at the offset
+  */
+  public byte byteAt(int field, int offset) {
+    checkField(field);
+    return bytes[starts[field] + offset];
+  }
+
+  /**
+  * Parses a field as a double.
+  * @param  field index of the field
+  * @return       value of the field
+  * @throws NumberFormatException if the field is not a number
+  */
+  public double parseDouble(int field) {
+    checkField(field);
+    return parseDouble(bytes, starts[field], ends[field]);
+  }
+
+  /**
+  * Parses a field as an int.
+  * @param  field index of the field
+  * @return       value of the field
+  * @throws NumberFormatException if the field is not a whole number or does not fit an int
+  */
+  public int parseInt(int field) {
+    checkField(field);
+    int i = starts[field];
+    int end = ends[field];
+    boolean negative = i < end && bytes[i] == '-';
+    if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+      i++;
+    }
+    if (i == end) {
+      throw badNumber(bytes, starts[field], end);
+    }
+
+    long value = 0;
+    for (; i < end; i++) {
+      int digit = bytes[i] - '0';
+      if (digit < 0 || digit > 9) {
+        throw badNumber(bytes, starts[field], end);
+      }
+      value = value * 10 + digit;
+      if (value > Integer.MAX_VALUE + 1L) {
+        throw badNumber(bytes, starts[field], end);
+      }
+    }
+    value = negative ? -value : value;
+    if (value > Integer.MAX_VALUE) {
+      throw badNumber(bytes, starts[field], end);
+    }
+    return (int) value;
+  }
+
+  /**
+  * Parses a decimal number from bytes.
+  * Numbers with at most 15 significant digits and a power of ten within 22
+  * are exact as a mantissa and a power of ten, so a single multiply or divide
+  * of two exact doubles gives the correctly rounded result (Clinger's fast
+  * path). Anything else, including NaN and Infinity, goes to Double.parseDouble.
+  * @param  bytes bytes holding the number
+  * @param  start offset of the first byte
+  * @param  end   offset after the last byte
+  * @return       value of the number
+  * @throws NumberFormatException if the bytes are not a number
+  */
+  static double parseDouble(byte[] bytes, int start, int end) {
+    int i = start;
+    boolean negative = false;
+    if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+      negative = bytes[i] == '-';
+      i++;
+    }
+
+    long mantissa = 0;
+    int digits = 0;                 /* significant digits in the mantissa */
+    int exponent = 0;
+    boolean anyDigits = false;
+    for (; i < end && isDigit(bytes[i]); i++) {
+      anyDigits = true;
+      if (mantissa != 0 || bytes[i] != '0') {
+        mantissa = mantissa * 10 + (bytes[i] - '0');
+        digits++;
+        if (digits > 15) {
+          return slowParse(bytes, start, end);
+        }
+      }
+    }
+    if (i < end && bytes[i] == '.') {
+      for (i++; i < end && isDigit(bytes[i]); i++) {
+        anyDigits = true;
+        exponent--;
+        if (mantissa != 0 || bytes[i] != '0') {
+          mantissa = mantissa * 10 + (bytes[i] - '0');
+          digits++;
+          if (digits > 15) {
+            return slowParse(bytes, start, end);
+          }
+        }
+      }
+    }
+    if (!anyDigits) {
+      return slowParse(bytes, start, end);
+    }
+    if (i < end && (bytes[i] == 'e' || bytes[i] == 'E')) {
+      i++;
+      boolean negativeExponent = false;
+      if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+        negativeExponent = bytes[i] == '-';
+        i++;
+      }
+      int written = 0;
+      int digitsStart = i;
+      for (; i < end && isDigit(bytes[i]); i++) {
+        if (written > 1000) {
+          return slowParse(bytes, start, end);
+        }
+        written = written * 10 + (bytes[i] - '0');
+      }
+      if (i == digitsStart) {
+        throw badNumber(bytes, start, end);
+      }
+      exponent += negativeExponent ? -written : written;
+    }
+    if (i != end) {
+      return slowParse(bytes, start, end);
+    }
+
+    double value;
+    if (mantissa == 0) {
+      value = 0.0;
+    } else if (exponent >= -22 && exponent <= 22) {
+      value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+    } else {
+      return slowParse(bytes, start, end);
+    }
+    return negative ? -value : value;
+  }
+
+  /**
+  * Reads more of the channel after the unread bytes, moving them to
+  * the front of the buffer first.
+  */
+  private void fill() throws IOException {
+    int unread = limit - position;
+    if (position > 0) {
+      System.arraycopy(bytes, position, bytes, 0, unread);
+      position = 0;
+      limit = unread;
+    }
+    if (limit == bytes.length) {
+      throw new IOException("Row " + (row + 1) + " is longer than the " + bytes.length + " byte buffer");
+    }
+    buffer.clear().position(limit);
+    int read = 0;
+    while (read == 0) {
+      read = channel.read(buffer);
+    }
+    if (read < 0) {
+      endOfInput = true;
+    } else {
+      limit += read;
+    }
+  }
+
+  /* Offset of the next newline at or after from, or -1 */
+  private int indexOfNewline(int from) {
+    for (int i = from; i < limit; i++) {
+      if (bytes[i] == '\n') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /* Splits the row between start and end into trimmed fields */
+  private void split(int start, int end) {
+    fieldCount = 0;
+    int fieldStart = start;
+    for (int i = start; i <= end; i++) {
+      if (i == end || bytes[i] == ',') {
+        if (fieldCount < MAX_FIELDS) {
+          int s = fieldStart;
+          int e = i;
+          while (s < e && isBlank(bytes[s])) {
+            s++;
+          }
+          while (e > s && isBlank(bytes[e - 1])) {
+            e--;
+          }
+          starts[fieldCount] = s;
+          ends[fieldCount] = e;
+        }
+        fieldCount++;
+        fieldStart = i + 1;
+      }
+    }
+  }
+
+  private void checkField(int field) {
+    if (field < 0 || field >= Math.min(fieldCount, MAX_FIELDS)) {
+      throw new IndexOutOfBoundsException("Row " + row + " has no field " + field);
+    }
+  }
+
+  private static boolean isDigit(byte b) {
+    return b >= '0' && b <= '9';
+  }
+
+  private static boolean isBlank(byte b) {
+    return b == ' ' || b == '\t';
+  }
+
+  private static double slowParse(byte[] bytes, int start, int end) {
+    return Double.parseDouble(text(bytes, start, end));
+  }
+
+  private static NumberFormatException badNumber(byte[] bytes, int start, int end) {
+    return new NumberFormatException("For input string: \"" + text(bytes, start, end) + "\"");
+  }
+
+  private static String text(byte[] bytes, int start, int end) {
+    return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+  }
+}
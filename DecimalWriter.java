@@ -0,0 +1,263 @@
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Writes doubles rounded HALF_UP to a fixed number of decimal places, as
+ * ASCII straight into a byte array, a ByteBuffer, or an Appendable.
+ * The output is byte for byte what rounding through BigDecimal and then
+ * String.format("%.nf") gives, which is how BondYieldCalculator.stringify
+ * used to work, but without either of them.
+ *
+ * HALF_UP has to look at the exact binary value, not at the product
+ * value * 10^n rounded to a double. Dekker's product splits both factors
+ * into halves, so the rounding error of the product comes out exactly and
+ * decides ties. Up to 15 significant digits the rounded decimal also reads
+ * back as the same double, which is what String.format prints. For 7
+ * places that covers every value below 1e8. Larger values and more than
+ * 15 places go through BigDecimal and String.format as before. NaN and
+ * the infinities are written as Double.toString writes them. The decimal
+ * point is always '.', whatever the default locale.
+ *
+ * The static write allocates nothing on the fast path. An instance keeps
+ * a scratch array for ByteBuffer and Appendable output, so it is not
+ * thread-safe.
+ */
+public final class DecimalWriter {
+  /* Most places written without BigDecimal, and the digits a double keeps exactly */
+  private static final int MAX_FAST_PRECISION = 15;
+
+  /* Longest output: a sign, the 309 digits of Double.MAX_VALUE, and the point */
+  private static final int MAX_INTEGER_LENGTH = 311;
+
+  /* Splits a double into halves of 26 bits whose products are exact */
+  private static final double SPLITTER = 134217729.0;
+
+  private static final long[] POWERS = new long[MAX_FAST_PRECISION + 1];
+  private static final double[] POWER_HIGHS = new double[MAX_FAST_PRECISION + 1];
+  private static final double[] POWER_LOWS = new double[MAX_FAST_PRECISION + 1];
+
+  static {
+    long power = 1;
+    for (int places = 0; places <= MAX_FAST_PRECISION; places++) {
+      POWERS[places] = power;
+      double split = SPLITTER * power;
+      POWER_HIGHS[places] = split - (split - power);
+      POWER_LOWS[places] = power - POWER_HIGHS[places];
+      power *= 10;
+    }
+  }
+
+  private final int precision;
+  private final byte[] scratch;
+
+  /**
+  * Creates a writer for a number of decimal places.
+  * @param  precision decimal places, 0 for none
+  */
+  public DecimalWriter(int precision) {
+    if (precision < 0) {
+      throw new IllegalArgumentException("Precision must not be negative: " + precision);
+    }
+    this.precision = precision;
+    this.scratch = new byte[MAX_FAST_PRECISION + 3];
+  }
+
+  /* Decimal places written */
+  public int precision() {
+    return precision;
+  }
+
+  /* Most bytes a single value can take */
+  public int maxLength() {
+    return MAX_INTEGER_LENGTH + precision;
+  }
+
+  /**
+  * Writes a value into a byte array.
+  * @param  value  value to write
+  * @param  bytes  array to write to, with room for maxLength bytes
+  * @param  offset index to write the first byte to
+  * @return        index after the last byte written
+  */
+  public int write(double value, byte[] bytes, int offset) {
+    return write(value, precision, bytes, offset);
+  }
+
+  /**
+  * Writes a value at the position of a buffer, moving the position past it.
+  * @param  value value to write
+  * @param  out   buffer with room for maxLength bytes
+  */
+  public void write(double value, ByteBuffer out) {
+    if (isFast(value, precision)) {
+      out.put(scratch, 0, writeFast(value, precision, scratch, 0));
+    } else {
+      String text = slowString(value, precision);
+      for (int i = 0; i < text.length(); i++) {
+        out.put((byte) text.charAt(i));
+      }
+    }
+  }
+
+  /**
+  * Appends a value to a StringBuilder, Writer, or any other Appendable.
+  * @param  value value to write
+  * @param  out   where to append it
+  * @throws IOException if out fails
+  */
+  public void append(double value, Appendable out) throws IOException {
+    if (isFast(value, precision)) {
+      int length = writeFast(value, precision, scratch, 0);
+      for (int i = 0; i < length; i++) {
+        out.append((char) scratch[i]);
+      }
+    } else {
+      out.append(slowString(value, precision));
+    }
+  }
+
+  /**
+  * Writes a value rounded to a number of places into a byte array.
+  * @param  value     value to write
+  * @param  precision decimal places, 0 for none
+  * @param  bytes     array to write to
+  * @param  offset    index to write the first byte to
+  * @return           index after the last byte written
+  */
+  public static int write(double value, int precision, byte[] bytes, int offset) {
+    if (isFast(value, precision)) {
+      return writeFast(value, precision, bytes, offset);
+    }
+    String text = slowString(value, precision);
+    for (int i = 0; i < text.length(); i++) {
+      bytes[offset++] = (byte) text.charAt(i);
+    }
+    return offset;
+  }
+
+  /**
+  * Formats a value rounded to a number of places.
+  * @param  value     value to format
+  * @param  precision decimal places, 0 for none
+  * @return           value as text
+  */
+  public static String toString(double value, int precision) {
+    if (isFast(value, precision)) {
+      byte[] bytes = new byte[MAX_FAST_PRECISION + 3];
+      return new String(bytes, 0, writeFast(value, precision, bytes, 0), StandardCharsets.ISO_8859_1);
+    }
+    return slowString(value, precision);
+  }
+
+  /**
+  * Rounds a value HALF_UP to a number of places, the same double that
+  * BigDecimal.setScale(precision, HALF_UP).doubleValue() gives.
+  * @param  value     value to round
+  * @param  precision decimal places, 0 for none
+  * @return           rounded value, NaN and infinities as they are
+  */
+  public static double round(double value, int precision) {
+    if (!Double.isFinite(value)) {
+      return value;
+    }
+    if (isFast(value, precision)) {
+      /* Both are whole numbers below 2^53, so the quotient is the correctly rounded double */
+      double rounded = (double) roundedUnits(Math.abs(value), precision) / POWERS[precision];
+      return value < 0 && rounded != 0 ? -rounded : rounded;
+    }
+    return new BigDecimal(value).setScale(precision, RoundingMode.HALF_UP).doubleValue();
+  }
+
+  /* Whether the value rounded to precision places has at most 15 significant digits */
+  private static boolean isFast(double value, int precision) {
+    return precision >= 0 && precision <= MAX_FAST_PRECISION
+           && Math.abs(value) < POWERS[MAX_FAST_PRECISION - precision];
+  }
+
+  /**
+  * Writes a value the fast path can take, see isFast.
+  * @param  value     value to write
+  * @param  precision decimal places, 0 for none
+  * @param  bytes     array to write to
+  * @param  offset    index to write the first byte to
+  * @return           index after the last byte written
+  */
+  private static int writeFast(double value, int precision, byte[] bytes, int offset) {
+    long units = roundedUnits(Math.abs(value), precision);
+
+    /* BigDecimal has no negative zero, so values that round to 0 lose their sign */
+    if (value < 0 && units != 0) {
+      bytes[offset++] = '-';
+    }
+    long scale = POWERS[precision];
+    offset = writeDigits(units / scale, 1, bytes, offset);
+    if (precision > 0) {
+      bytes[offset++] = '.';
+      offset = writeDigits(units % scale, precision, bytes, offset);
+    }
+    return offset;
+  }
+
+  /**
+  * Rounds value * 10^precision HALF_UP to a whole number. The product
+  * rounded to a double is off by at most half an ulp, and Dekker's exact
+  * product gives that error, so ties and near ties go the right way.
+  * @param  value     value to round, not negative and fast, see isFast
+  * @param  precision decimal places
+  * @return           value in units of 10^-precision
+  */
+  private static long roundedUnits(double value, int precision) {
+    double product = value * POWERS[precision];
+    double split = SPLITTER * value;
+    double high = split - (split - value);
+    double low = value - high;
+    double error = ((high * POWER_HIGHS[precision] - product) + high * POWER_LOWS[precision]
+                    + low * POWER_HIGHS[precision]) + low * POWER_LOWS[precision];
+
+    /* value * 10^precision is exactly product + error, round up if it is at least floor + 0.5 */
+    double floor = Math.floor(product);
+    double tie = (product - floor) - 0.5;
+    return (long) floor + (tie + error >= 0 ? 1 : 0);
+  }
+
+  /**
+  * Writes a whole number with leading zeros up to a number of digits.
+  * @param  number    number to write, not negative
+  * @param  minDigits fewest digits to write
+  * @param  bytes     array to write to
+  * @param  offset    index to write the first byte to
+  * @return           index after the last byte written
+  */
+  private static int writeDigits(long number, int minDigits, byte[] bytes, int offset) {
+    int digits = Math.max(minDigits, 1);
+    while (digits <= MAX_FAST_PRECISION && number >= POWERS[digits]) {
+      digits++;
+    }
+
+    /* Right to left, in ints once the number fits, which divide by 10 far faster */
+    int index = offset + digits;
+    while (number > Integer.MAX_VALUE) {
+      bytes[--index] = (byte) ('0' + number % 10);
+      number /= 10;
+    }
+    int rest = (int) number;
+    while (index > offset) {
+      bytes[--index] = (byte) ('0' + rest % 10);
+      rest /= 10;
+    }
+    return offset + digits;
+  }
+
+  /* Formats as stringify always has, for values the fast path cannot take */
+  private static String slowString(double value, int precision) {
+    if (!Double.isFinite(value)) {
+      return Double.toString(value);
+    }
+    double rounded = new BigDecimal(value).setScale(precision, RoundingMode.HALF_UP).doubleValue();
+    return String.format(Locale.ROOT, "%." + precision + "f", rounded);
+  }
+}
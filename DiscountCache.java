@@ -0,0 +1,98 @@
+import java.util.Arrays;
+
+/**
+ * Single-threaded discount memo.
+ * Factors here are scaled by a bond's coupon payment and face value to get
+ * its price, so bonds that share a rate share a row whatever their coupon
+ * or face value.
+ * key: raw bits of the rate, 1 long per slot
+ * val: DiscountRow of factors indexed by year
+ * Capacity and evictions count whole rows, i.e. rates.
+ */
+public class DiscountCache extends MemoCache implements DiscountMemo {
+  /* key long 8 + row ref 4 + DiscountRow 32 + factors array header 16 */
+  private static final int BYTES_PER_ROW = 60;
+
+  private final SlotIndex index = new SlotIndex();
+  private long[] keys = new long[0];
+  private DiscountRow[] rows = new DiscountRow[0];
+
+  public DiscountCache(CacheConfig config) {
+    super(config);
+  }
+
+  /**
+  * Hashes a discount memo key from all the bits of the rate.
+  * @param  rate raw bits of the discount rate
+  * @return      well mixed 64 bit hash
+  */
+  static long hash(long rate) {
+    return SlotIndex.mix(0, rate);
+  }
+
+  public DiscountRow row(double rate) {
+    long rateBits = Double.doubleToLongBits(rate);
+    int hash = (int) hash(rateBits);
+    int slot = find(hash, rateBits);
+    if (slot != SlotIndex.EMPTY) {
+      if (recordHit(slot, hash)) {
+        return rows[slot];
+      }
+    } else {
+      recordMiss();
+    }
+
+    DiscountRow row = new DiscountRow(rate);
+    int newSlot = newSlot();
+    keys[newSlot] = rateBits;
+    rows[newSlot] = row;
+    index.insert(hash, newSlot);
+    admit(newSlot, hash);
+    return row;
+  }
+
+  public void forEach(Visitor visitor) {
+    for (int slot = 0; slot < rows.length; slot++) {
+      if (rows[slot] != null && isLive(slot)) {
+        visitor.visit(Double.longBitsToDouble(keys[slot]), rows[slot]);
+      }
+    }
+  }
+
+  /**
+  * Finds the slot holding a key.
+  * @param  hash hash of the key
+  * @param  rate raw bits of the discount rate
+  * @return      slot of the key, or SlotIndex.EMPTY
+  */
+  private int find(int hash, long rate) {
+    for (int pos = index.start(hash); index.slotAt(pos) != SlotIndex.EMPTY; pos = index.next(pos)) {
+      if (index.hashAt(pos) == hash && keys[index.slotAt(pos)] == rate) {
+        return index.slotAt(pos);
+      }
+    }
+    return SlotIndex.EMPTY;
+  }
+
+  protected void resizeSlots(int slots) {
+    keys = Arrays.copyOf(keys, slots);
+    rows = Arrays.copyOf(rows, slots);
+  }
+
+  protected void removeSlot(int slot) {
+    if (rows[slot] != null) {
+      index.remove((int) hash(keys[slot]), slot);
+      rows[slot] = null;
+    }
+  }
+
+  protected long estimatedBytes() {
+    long bytes = (long) size() * (BYTES_PER_ROW + SlotIndex.bytesPerEntry() + overheadBytesPerEntry());
+    for (DiscountRow row : rows) {
+      if (row != null) {
+        bytes += 16L * row.length();
+      }
+    }
+    return bytes;
+  }
+}
@@ -0,0 +1,31 @@
+/**
+ * Memo to keep track of discount and annuity factors
+ * up until a specified year, per rate.
+ */
+public interface DiscountMemo {
+  /**
+  * Gets the factors for a rate, creating an empty row if the
+  * rate has not been seen.
+  * The row stays usable by the caller even if it is evicted later.
+  * @param  rate discount rate
+  * @return      discount and annuity factors
+  */
+  DiscountRow row(double rate);
+
+  /**
+  * Calls the visitor with every row currently held, in no particular order.
+  * @param  visitor receives each row
+  */
+  void forEach(Visitor visitor);
+
+  int size();
+
+  void clear();
+
+  CacheStats stats();
+
+  /* Receives the rows of a discount memo */
+  interface Visitor {
+    void visit(double rate, DiscountRow row);
+  }
+}
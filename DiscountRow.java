@@ -0,0 +1,95 @@
+import java.util.Arrays;
+
+/**
+ * Discount and annuity factors per year for one rate.
+ * discount(n) = 1 / (1 + r)^n
+ * annuity(n)  = 1 / (1 + r) + 1 / (1 + r)^2 + ... + 1 / (1 + r)^n
+ * The factors only depend on the rate, so every bond discounted at the rate
+ * shares the row: coupon payments are the coupon payment times the annuity
+ * factor and the principal is the face value times the discount factor.
+ * Filled in year by year as longer maturities are asked for. Reading a year
+ * that is already filled takes no lock; extending the row locks only this
+ * row, so a row can be shared between threads.
+ */
+public class DiscountRow {
+  private static final int INITIAL_YEARS = 16;
+
+  private final double rate;
+
+  /*
+  * Annuity and discount factors of each year side by side,
+  * factors[2n] = annuity(n) and factors[2n + 1] = discount(n).
+  * Written before filled, so a reader that sees filled also sees the factors.
+  */
+  private volatile double[] factors = initialFactors();
+  private volatile int filled = 0;
+
+  public DiscountRow(double rate) {
+    this.rate = rate;
+  }
+
+  /**
+  * Annuity factor of a year, filling in any missing years.
+  * @param  year target year
+  * @return      value of a payment of 1 every year up until target year
+  */
+  public double annuity(int year) {
+    if (year <= filled) {
+      return factors[2 * year];
+    }
+    return extend(year)[2 * year];
+  }
+
+  /**
+  * Discount factor of a year, filling in any missing years.
+  * @param  year target year
+  * @return      value of a payment of 1 made in target year
+  */
+  public double discount(int year) {
+    if (year <= filled) {
+      return factors[2 * year + 1];
+    }
+    return extend(year)[2 * year + 1];
+  }
+
+  /* Number of years filled in so far */
+  public int filled() {
+    return filled;
+  }
+
+  /* Number of years the factors array has room for, for memory estimates */
+  int length() {
+    return factors.length / 2;
+  }
+
+  /**
+  * Fills in the factors from the last filled year up to a year, adding
+  * each year's discount factor to the previous year's annuity factor.
+  * @param  year target year
+  * @return      factors array holding the target year
+  */
+  private synchronized double[] extend(int year) {
+    int from = filled;
+    double[] values = factors;
+    if (2 * year + 1 >= values.length) {
+      values = Arrays.copyOf(values, 2 * Math.max(year + 1, values.length));
+    }
+    for (int current = from + 1; current <= year; current++) {
+      double discount = 1.0 / Math.pow((1.0 + rate), current);
+      values[2 * current] = values[2 * (current - 1)] + discount;
+      values[2 * current + 1] = discount;
+    }
+    factors = values;
+    if (year > from) {
+      filled = year;
+    }
+    return values;
+  }
+
+  /* Base case of year 0: no coupon payments yet and no discount */
+  private static double[] initialFactors() {
+    double[] values = new double[2 * INITIAL_YEARS];
+    values[1] = 1.0;
+    return values;
+  }
+}
@@ -1,6 +1,16 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 public class Driver {
   public static void main(String[] args) {
@@ -41,6 +51,54 @@ public class Driver {
 
     System.out.println("======================= Automate =======================");
     randomizedTests(5000, calc);
+
+    System.out.println("===================== Pricing Modes ====================");
+    comparePricingModes(5000);
+
+    System.out.println("====================== Concurrency =====================");
+    concurrentTests(20000);
+
+    System.out.println("==================== Parallel Batch ====================");
+    parallelBatchTests(20000);
+
+    System.out.println("=================== Yield Neighbours ===================");
+    neighbourTests(500, 80);
+
+    System.out.println("======================= Scenarios ======================");
+    scenarioTests(2000, 200);
+
+    System.out.println("======================= Analytics ======================");
+    analyticsTests(20000);
+
+    System.out.println("====================== Price Ticks =====================");
+    streamTests(20000, 10);
+
+    System.out.println("===================== Yield Budgets ====================");
+    budgetTests();
+
+    System.out.println("==================== Yield Brackets ====================");
+    bracketTests(200000);
+
+    System.out.println("===================== Async Yields =====================");
+    asyncTests(2000, 16);
+
+    System.out.println("======================== Metrics =======================");
+    metricsTests(20000);
+
+    System.out.println("=================== Cash Flow Schedules ================");
+    scheduleTests(20000);
+
+    System.out.println("===================== Formatting =======================");
+    formatTests(200000);
+
+    System.out.println("==================== Off-Heap Memo =====================");
+    offHeapTests(2000000);
+
+    System.out.println("======================= Snapshots ======================");
+    snapshotTests(20000);
+
+    System.out.println("===================== Load Replay ======================");
+    replayTests(40000);
     // calc.CalcYield(0.078680, 7, 48912.364471, 978454.949250);
     // System.out.println(calc.CalcPrice(0.10, 5, 1000, -1.15));
 
@@ -120,4 +178,1037 @@ public class Driver {
     endTime = System.currentTimeMillis();
     timeDiff(startTime, endTime);
   }
+
+  public static void comparePricingModes(int num) {
+    long startTime;
+    long endTime;
+    Random rand = new Random();
+    BondYieldCalculator memoized = new BondYieldCalculator(new NewtonSolver(), PricingMode.MEMOIZED);
+    BondYieldCalculator closedForm = new BondYieldCalculator(new NewtonSolver(), PricingMode.CLOSED_FORM);
+
+    double[] coupons = new double[num];
+    int[] years = new int[num];
+    double[] faces = new double[num];
+    double[] rates = new double[num];
+    for (int n = 0; n < num; n++) {
+      coupons[n] = rand.nextDouble();
+      years[n] = rand.nextInt(100);
+      faces[n] = rand.nextDouble() * 1000000;
+      /* Mix of ordinary rates and rates close to 0 and -1 */
+      rates[n] = n % 3 == 0 ? (rand.nextDouble() - 0.5) * 0.002
+               : n % 3 == 1 ? -1.0 + rand.nextDouble() * 0.5
+               : rand.nextDouble() * 5;
+    }
+
+    double[] expected = new double[num];
+    System.out.println("5000 CalcPrice calls memoized");
+    startTime = System.currentTimeMillis();
+    for (int n = 0; n < num; n++) {
+      expected[n] = memoized.CalcPrice(coupons[n], years[n], faces[n], rates[n]);
+    }
+    endTime = System.currentTimeMillis();
+    timeDiff(startTime, endTime);
+
+    double[] actual = new double[num];
+    System.out.println("5000 CalcPrice calls closed form");
+    startTime = System.currentTimeMillis();
+    for (int n = 0; n < num; n++) {
+      actual[n] = closedForm.CalcPrice(coupons[n], years[n], faces[n], rates[n]);
+    }
+    endTime = System.currentTimeMillis();
+    timeDiff(startTime, endTime);
+
+    double maxRelative = 0.0;
+    int worst = 0;
+    for (int n = 0; n < num; n++) {
+      if (Double.isInfinite(expected[n]) || Double.isNaN(expected[n])) {
+        continue;
+      }
+      double relative = Math.abs(actual[n] - expected[n]) / Math.max(1.0, Math.abs(expected[n]));
+      if (relative > maxRelative) {
+        maxRelative = relative;
+        worst = n;
+      }
+    }
+    System.out.printf("Max relative difference: %e at CalcPrice(%f, %d, %f, %f)\n\n",
+                      maxRelative, coupons[worst], years[worst], faces[worst], rates[worst]);
+  }
+
+  public static void concurrentTests(int num) {
+    Random rand = new Random();
+
+    /*
+    * Draw requests from a smaller pool of bonds so threads share memo
+    * entries. Half repeat a bond's price exactly, the rest move it a little,
+    * so a bond also comes back at prices either side of ones already solved.
+    */
+    int distinct = num / 4;
+    double[] coupons = new double[num];
+    int[] years = new int[num];
+    double[] faces = new double[num];
+    double[] prices = new double[num];
+    for (int n = 0; n < num; n++) {
+      int bond = rand.nextInt(distinct);
+      Random bondRand = new Random(bond);
+      coupons[n] = bondRand.nextDouble();
+      years[n] = bondRand.nextInt(100) + 1;
+      faces[n] = bondRand.nextDouble() * 1000000;
+      prices[n] = bondRand.nextDouble() * 1000000;
+      if (rand.nextBoolean()) {
+        prices[n] *= 1 + 0.001 * rand.nextGaussian();
+      }
+    }
+
+    BondYieldCalculator single = new BondYieldCalculator();
+    double[] expected = new double[num];
+    for (int n = 0; n < num; n++) {
+      expected[n] = single.CalcYield(coupons[n], years[n], faces[n], prices[n]);
+    }
+
+    int cores = Runtime.getRuntime().availableProcessors();
+    long baseline = 0;
+    for (int threads = 1; threads <= Math.max(2, cores); threads *= 2) {
+      BondYieldCalculator shared = BondYieldCalculator.concurrent();
+      double[] actual = new double[num];
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+      for (int t = 0; t < threads; t++) {
+        final int offset = t;
+        final int stride = threads;
+        tasks.add(() -> {
+          for (int n = offset; n < num; n += stride) {
+            actual[n] = shared.CalcYield(coupons[n], years[n], faces[n], prices[n]);
+          }
+          return null;
+        });
+      }
+
+      long startTime = System.nanoTime();
+      try {
+        pool.invokeAll(tasks);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } finally {
+        pool.shutdown();
+      }
+      long elapsed = System.nanoTime() - startTime;
+      if (threads == 1) {
+        baseline = elapsed;
+      }
+
+      int mismatches = 0;
+      for (int n = 0; n < num; n++) {
+        if (Double.compare(expected[n], actual[n]) != 0) {
+          mismatches++;
+        }
+      }
+      System.out.printf("%d threads: %dms, %.2fx, %d mismatches, %s\n", threads, elapsed / 1000000,
+                        (double) baseline / elapsed, mismatches, shared.yieldCacheStats());
+    }
+    System.out.println("");
+  }
+
+  public static void parallelBatchTests(int num) {
+    Random rand = new Random();
+    double[] coupons = new double[num];
+    int[] years = new int[num];
+    double[] faces = new double[num];
+    double[] prices = new double[num];
+    for (int n = 0; n < num; n++) {
+      coupons[n] = rand.nextDouble();
+      years[n] = rand.nextInt(100) + 1;
+      faces[n] = rand.nextDouble() * 1000000;
+      prices[n] = rand.nextDouble() * 1000000;
+    }
+
+    /* A quarter of the batch repeats earlier bonds at prices near theirs */
+    for (int n = num - num / 4; n < num; n++) {
+      int earlier = rand.nextInt(num - num / 4);
+      coupons[n] = coupons[earlier];
+      years[n] = years[earlier];
+      faces[n] = faces[earlier];
+      prices[n] = prices[earlier] * (1 + 0.001 * rand.nextGaussian());
+    }
+
+    double[] expected = new double[num];
+    BondYieldCalculator single = new BondYieldCalculator();
+    long startTime = System.nanoTime();
+    for (int n = 0; n < num; n++) {
+      expected[n] = single.CalcYield(coupons[n], years[n], faces[n], prices[n]);
+    }
+    long baseline = System.nanoTime() - startTime;
+    System.out.printf("sequential: %dms\n", baseline / 1000000);
+
+    ParallelYieldBatch[] batches = {
+      ParallelYieldBatch.shared(BondYieldCalculator.concurrent()),
+      ParallelYieldBatch.perWorker(BondYieldCalculator::new)
+    };
+    String[] names = {"shared memo", "per worker memos"};
+    for (int b = 0; b < batches.length; b++) {
+      double[] actual = new double[num];
+      startTime = System.nanoTime();
+      batches[b].yields(coupons, years, faces, prices, actual);
+      long elapsed = System.nanoTime() - startTime;
+
+      int mismatches = 0;
+      for (int n = 0; n < num; n++) {
+        if (Double.doubleToRawLongBits(expected[n]) != Double.doubleToRawLongBits(actual[n])) {
+          mismatches++;
+        }
+      }
+      System.out.printf("%s: %dms, %.2fx, %d mismatches\n", names[b], elapsed / 1000000,
+                        (double) baseline / elapsed, mismatches);
+    }
+
+    /* Per-worker calculators that seed from neighbours would make the last bits depend on scheduling */
+    boolean rejected = false;
+    try {
+      ParallelYieldBatch.perWorker(Driver::seededCalculator);
+    } catch (IllegalArgumentException e) {
+      rejected = true;
+    }
+    System.out.println((rejected ? "O" : "X") + "\tPer-worker calculators with neighbours are rejected");
+    System.out.println("");
+  }
+
+  public static void neighbourTests(int bonds, int prices) {
+    Random rand = new Random(15);
+    int num = bonds * prices;
+    double[] coupons = new double[num];
+    int[] years = new int[num];
+    double[] faces = new double[num];
+    double[] quotes = new double[num];
+    BondYieldCalculator pricer = new BondYieldCalculator();
+    for (int b = 0; b < bonds; b++) {
+      double coupon = rand.nextDouble() * 0.1;
+      int year = rand.nextInt(30) + 1;
+      double face = rand.nextDouble() * 1000000;
+      double price = pricer.CalcPrice(coupon, year, face, rand.nextDouble() * 0.1);
+      for (int p = 0; p < prices; p++) {
+        int n = p * bonds + b;
+        coupons[n] = coupon;
+        years[n] = year;
+        faces[n] = face;
+        quotes[n] = price * (1 + 0.001 * rand.nextGaussian());
+      }
+    }
+
+    /* Every bond repeats at different prices, solved forwards and then backwards */
+    double[][] seeded = bothOrders(Driver::seededCalculator, coupons, years, faces, quotes);
+    double[][] plain = bothOrders(BondYieldCalculator::new, coupons, years, faces, quotes);
+    double[][] shared = bothOrders(BondYieldCalculator::concurrent, coupons, years, faces, quotes);
+    int seededDiffs = 0;
+    int plainDiffs = 0;
+    int sharedDiffs = 0;
+    int failures = 0;
+    for (int n = 0; n < num; n++) {
+      seededDiffs += Double.compare(seeded[0][n], seeded[1][n]) != 0 ? 1 : 0;
+      plainDiffs += Double.compare(plain[0][n], plain[1][n]) != 0 ? 1 : 0;
+      sharedDiffs += Double.compare(shared[0][n], plain[0][n]) != 0 || Double.compare(shared[1][n], plain[0][n]) != 0 ? 1 : 0;
+      for (double yield : new double[] {seeded[0][n], seeded[1][n]}) {
+        if (!(Math.abs(pricer.CalcPrice(coupons[n], years[n], faces[n], yield) - quotes[n]) < BondYieldCalculator.ACCURACY)) {
+          failures++;
+        }
+      }
+    }
+    System.out.printf("%d bonds at %d prices each: %d seeded yields differ between orders, %d failures\n",
+                      bonds, prices, seededDiffs, failures);
+    System.out.println((failures == 0 ? "O" : "X") + "\tSeeded yields are within accuracy in either order");
+    System.out.println((plainDiffs == 0 ? "O" : "X") + "\tDefault yields are the same in either order, " + plainDiffs + " differ");
+    System.out.println((sharedDiffs == 0 ? "O" : "X") + "\tShared calculator matches a default sequential run, " + sharedDiffs + " differ");
+
+    double[] batch = new double[num];
+    ParallelYieldBatch.shared(BondYieldCalculator.concurrent()).yields(coupons, years, faces, quotes, batch);
+    int batchDiffs = 0;
+    for (int n = 0; n < num; n++) {
+      batchDiffs += Double.doubleToRawLongBits(batch[n]) != Double.doubleToRawLongBits(plain[0][n]) ? 1 : 0;
+    }
+    System.out.println((batchDiffs == 0 ? "O" : "X") + "\tParallel batch matches a default sequential run, " + batchDiffs + " differ");
+
+    /* A power of two entries fills the slot arrays exactly, leaving only the index's free space */
+    for (int perBond : new int[] {1, 64}) {
+      int entries = 1 << 20;
+      double[] memoCoupons = new double[entries];
+      int[] memoYears = new int[entries];
+      double[] memoFaces = new double[entries];
+      double[] memoPrices = new double[entries];
+      for (int n = 0; n < entries; n++) {
+        if (n % perBond == 0) {
+          memoCoupons[n] = rand.nextDouble() * 0.1;
+          memoYears[n] = rand.nextInt(30) + 1;
+          memoFaces[n] = rand.nextDouble() * 1000000;
+        } else {
+          memoCoupons[n] = memoCoupons[n - 1];
+          memoYears[n] = memoYears[n - 1];
+          memoFaces[n] = memoFaces[n - 1];
+        }
+        memoPrices[n] = 1000 + rand.nextDouble();
+      }
+      YieldCache memo = new YieldCache(CacheConfig.unbounded().withNeighbours());
+      double measured = (double) heapCost(memo, memoCoupons, memoYears, memoFaces, memoPrices)[0] / entries;
+      double estimated = (double) memo.stats().estimatedBytes / entries;
+      System.out.printf("%s\tYield memo at %d prices per bond: %.1f bytes per entry measured, %.1f estimated\n",
+                        Math.abs(estimated - measured) <= 0.15 * measured ? "O" : "X", perBond, measured, estimated);
+    }
+    System.out.println("");
+  }
+
+  /**
+  * Solves every bond in order on one new calculator, then in reverse on another.
+  * @return yields in input order of the forward run, then of the reverse run
+  */
+  private static double[][] bothOrders(Supplier<BondYieldCalculator> calculators,
+                                       double[] coupons, int[] years, double[] faces, double[] prices) {
+    int num = prices.length;
+    double[][] yields = new double[2][num];
+    BondYieldCalculator forward = calculators.get();
+    for (int n = 0; n < num; n++) {
+      yields[0][n] = forward.CalcYield(coupons[n], years[n], faces[n], prices[n]);
+    }
+    BondYieldCalculator backward = calculators.get();
+    for (int n = num - 1; n >= 0; n--) {
+      yields[1][n] = backward.CalcYield(coupons[n], years[n], faces[n], prices[n]);
+    }
+    return yields;
+  }
+
+  /* Single-threaded calculator that seeds yield solves from neighbouring prices */
+  static BondYieldCalculator seededCalculator() {
+    return new BondYieldCalculator(new NewtonSolver(), PricingMode.MEMOIZED,
+                                   CacheConfig.unbounded().withNeighbours(), CacheConfig.unbounded());
+  }
+
+  public static void scenarioTests(int num, int scenarios) {
+    Random rand = new Random();
+    double[] coupons = new double[num];
+    int[] years = new int[num];
+    double[] faces = new double[num];
+    double[] rates = new double[num];
+    for (int n = 0; n < num; n++) {
+      coupons[n] = rand.nextDouble();
+      years[n] = rand.nextInt(100) + 1;
+      faces[n] = rand.nextDouble() * 1000000;
+      rates[n] = (rand.nextInt(20) + 1) * 0.005;
+    }
+    double[] shocks = new double[scenarios];
+    for (int s = 0; s < scenarios; s++) {
+      shocks[s] = (s - scenarios / 2) * 0.0001;
+    }
+
+    PricingMode[] modes = {PricingMode.MEMOIZED, PricingMode.CLOSED_FORM};
+    for (PricingMode mode : modes) {
+      BondYieldCalculator calc = new BondYieldCalculator(new NewtonSolver(), mode);
+      long startTime = System.nanoTime();
+      double[] expected = new double[num * scenarios];
+      for (int n = 0; n < num; n++) {
+        for (int s = 0; s < scenarios; s++) {
+          expected[n * scenarios + s] = calc.CalcPrice(coupons[n], years[n], faces[n], rates[n] + shocks[s]);
+        }
+      }
+      long baseline = System.nanoTime() - startTime;
+
+      startTime = System.nanoTime();
+      double[] actual = new ScenarioEngine(mode, ForkJoinPool.commonPool()).prices(coupons, years, faces, rates, shocks);
+      long elapsed = System.nanoTime() - startTime;
+
+      int mismatches = 0;
+      for (int i = 0; i < actual.length; i++) {
+        if (Double.doubleToRawLongBits(expected[i]) != Double.doubleToRawLongBits(actual[i])) {
+          mismatches++;
+        }
+      }
+      System.out.printf("%s: CalcPrice %dms, engine %dms, %d mismatches\n", mode, baseline / 1000000,
+                        elapsed / 1000000, mismatches);
+    }
+    System.out.println("");
+  }
+
+  public static void analyticsTests(int num) {
+    Random rand = new Random();
+    double[] coupons = new double[num];
+    int[] years = new int[num];
+    double[] faces = new double[num];
+    double[] rates = new double[num];
+    for (int n = 0; n < num; n++) {
+      coupons[n] = rand.nextDouble() * 0.2;
+      years[n] = rand.nextInt(100) + 1;
+      faces[n] = rand.nextDouble() * 1000000;
+      rates[n] = rand.nextDouble() * 0.2 - 0.05;
+    }
+
+    BondYieldCalculator calc = new BondYieldCalculator(new NewtonSolver(), PricingMode.CLOSED_FORM);
+    double h = 0.00001;
+    double worstDuration = 0.0;
+    double worstConvexity = 0.0;
+    for (int n = 0; n < num; n++) {
+      double down = calc.CalcPrice(coupons[n], years[n], faces[n], rates[n] - h);
+      double price = calc.CalcPrice(coupons[n], years[n], faces[n], rates[n]);
+      double up = calc.CalcPrice(coupons[n], years[n], faces[n], rates[n] + h);
+      BondAnalytics exact = calc.CalcAnalytics(coupons[n], years[n], faces[n], rates[n]);
+      double duration = (down - up) / (2 * h * price);
+      double convexity = (up - 2 * price + down) / (h * h * price);
+      worstDuration = Math.max(worstDuration, Math.abs(duration - exact.modifiedDuration) / exact.modifiedDuration);
+      worstConvexity = Math.max(worstConvexity, Math.abs(convexity - exact.convexity) / exact.convexity);
+    }
+    System.out.printf("bumped vs exact: duration %.2e, convexity %.2e relative difference\n", worstDuration, worstConvexity);
+
+    long startTime = System.nanoTime();
+    double[] scalar = new double[4 * num];
+    for (int n = 0; n < num; n++) {
+      BondAnalytics result = calc.CalcAnalytics(coupons[n], years[n], faces[n], rates[n]);
+      scalar[4 * n] = result.price;
+      scalar[4 * n + 1] = result.modifiedDuration;
+      scalar[4 * n + 2] = result.convexity;
+      scalar[4 * n + 3] = result.dv01;
+    }
+    long single = System.nanoTime() - startTime;
+
+    double[][] columns = new double[4][num];
+    startTime = System.nanoTime();
+    calc.CalcAnalytics(coupons, years, faces, rates, columns[0], columns[1], columns[2], columns[3]);
+    long batch = System.nanoTime() - startTime;
+
+    double worst = 0.0;
+    for (int n = 0; n < num; n++) {
+      for (int c = 0; c < 4; c++) {
+        worst = Math.max(worst, Math.abs(scalar[4 * n + c] - columns[c][n]) / Math.abs(scalar[4 * n + c]));
+      }
+    }
+    System.out.printf("CalcAnalytics: %dms, batch: %dms, %.2e relative difference\n", single / 1000000, batch / 1000000, worst);
+    System.out.println("");
+  }
+
+  public static void streamTests(int num, int ticks) {
+    Random rand = new Random();
+    CountingCalculator calc = new CountingCalculator();
+    YieldStream stream = new YieldStream(calc);
+    double[] coupons = new double[num];
+    int[] years = new int[num];
+    double[] faces = new double[num];
+    double[] prices = new double[num];
+    int[] bonds = new int[num];
+    for (int n = 0; n < num; n++) {
+      coupons[n] = rand.nextDouble() * 0.1;
+      years[n] = rand.nextInt(30) + 1;
+      faces[n] = rand.nextDouble() * 1000000;
+      prices[n] = calc.CalcPrice(coupons[n], years[n], faces[n], rand.nextDouble() * 0.1);
+      bonds[n] = stream.register(coupons[n], years[n], faces[n]);
+      stream.update(bonds[n], prices[n]);
+    }
+
+    long warm = 0;
+    long cold = 0;
+    int failures = 0;
+    long warmPrices = 0;
+    long warmSlopes = 0;
+    CountingCalculator fresh = new CountingCalculator();
+    for (int t = 0; t < ticks; t++) {
+      for (int n = 0; n < num; n++) {
+        prices[n] *= 1 + 0.0001 * rand.nextGaussian();
+      }
+      calc.reset();
+      long startTime = System.nanoTime();
+      for (int n = 0; n < num; n++) {
+        stream.update(bonds[n], prices[n]);
+      }
+      warm += System.nanoTime() - startTime;
+      warmPrices += calc.prices;
+      warmSlopes += calc.slopes;
+
+      startTime = System.nanoTime();
+      for (int n = 0; n < num; n++) {
+        fresh.CalcYield(coupons[n], years[n], faces[n], prices[n]);
+      }
+      cold += System.nanoTime() - startTime;
+
+      for (int n = 0; n < num; n++) {
+        double yield = stream.yield(bonds[n]);
+        if (!(Math.abs(calc.CalcPrice(coupons[n], years[n], faces[n], yield) - prices[n]) < BondYieldCalculator.ACCURACY)) {
+          failures++;
+        }
+      }
+    }
+    double count = (double) num * ticks;
+    System.out.printf("%d ticks: warm start %dms, CalcYield %dms, %d failures\n", num * ticks, warm / 1000000,
+                      cold / 1000000, failures);
+    System.out.printf("Per tick: warm start %.2f prices and %.2f derivatives, CalcYield %.2f prices and %.2f derivatives\n",
+                      warmPrices / count, warmSlopes / count, fresh.prices / count, fresh.slopes / count);
+
+    /* Prices too large to get within ACCURACY: each yield stops where its bracket collapses, short of the price */
+    BondYieldCalculator plain = new BondYieldCalculator();
+    YieldStream large = new YieldStream(new BondYieldCalculator());
+    int bond = large.register(0.05, 30, 1000000000000.0);
+    double quote = 950000000000.0;
+    double worst = 0.0;
+    for (int t = 0; t < 2000; t++) {
+      quote += Math.ulp(quote) * (t % 2 == 0 ? rand.nextInt(1000000) : rand.nextInt(16) - 8);
+      double expected = plain.CalcYield(0.05, 30, 1000000000000.0, quote);
+      worst = Math.max(worst, Math.abs(large.update(bond, quote) - expected));
+    }
+    System.out.println((worst < 1e-12 ? "O" : "X") + "\tYields short of an unreachable accuracy still warm start, worst difference " + worst);
+    System.out.println("");
+  }
+
+  /* Counts the prices and derivatives solvers ask for */
+  static class CountingCalculator extends BondYieldCalculator {
+    long prices = 0;
+    long slopes = 0;
+
+    public double CalcPrice(double coupon, int years, double face, double rate) {
+      prices++;
+      return super.CalcPrice(coupon, years, face, rate);
+    }
+
+    public double CalcPriceDerivative(double coupon, int years, double face, double rate) {
+      slopes++;
+      return super.CalcPriceDerivative(coupon, years, face, rate);
+    }
+
+    void reset() {
+      prices = 0;
+      slopes = 0;
+    }
+  }
+
+  public static void budgetTests() {
+    double[][] cases = {
+      {0.078680, 7, 48912.364471, 978454.949250},
+      {0.948123, 62, 441301.903208, 21122.239053},
+      {0.682333, 61, 989325.664565, 75064.401150},
+      {0.591907, 86, 66494.903672, 920862.257603},
+      {0.190328, 2, 130094.786234, 446515.333954},
+      {0.05, 30, 1000000000000.0, 950000000000.0}
+    };
+    YieldBudget budget = YieldBudget.iterations(100).withTimeLimit(10, TimeUnit.MILLISECONDS).withRelativeTolerance(1e-12);
+    YieldSolver[] solvers = {new NewtonSolver(), new BisectionSolver()};
+    for (YieldSolver solver : solvers) {
+      BondYieldCalculator calc = new BondYieldCalculator(solver);
+      for (double[] bond : cases) {
+        YieldResult result = calc.CalcYield(bond[0], (int) bond[1], bond[2], bond[3], budget);
+        System.out.printf("%-15s %-16s %3d iterations, yield %s, residual %s\n", solver.getClass().getSimpleName(),
+                          result.status, result.iterations, result.yield, result.residual);
+      }
+    }
+    System.out.println("");
+  }
+
+  public static void bracketTests(int num) {
+    Random rand = new Random(17);
+    BondYieldCalculator calc = new BondYieldCalculator(new NewtonSolver(), PricingMode.CLOSED_FORM);
+    double accuracy = BondYieldCalculator.ACCURACY;
+    int[] counts = new int[YieldBracket.values().length];
+    int failures = 0;
+    long classifyTime = 0;
+
+    for (int i = 0; i < num; i++) {
+      double coupon = rand.nextDouble() * 0.2;
+      int years = rand.nextInt(100) + 1;
+      double face = rand.nextDouble() * 1000000;
+      double price = i % 10 == 0 ? coupon * face * years + face : (rand.nextDouble() * 1.5 - 0.2) * face;
+
+      long start = System.nanoTime();
+      YieldBracket bracket = YieldBracket.classify(coupon, years, face, price);
+      classifyTime += System.nanoTime() - start;
+      counts[bracket.ordinal()]++;
+
+      /* Check the settled brackets against trial pricing */
+      double priceHigh = calc.CalcPrice(coupon, years, face, 5.0) - price;
+      double priceLow = calc.CalcPrice(coupon, years, face, -1.0 + accuracy) - price;
+      boolean ok = true;
+      if (bracket == YieldBracket.NO_ROOT || bracket == YieldBracket.FLIPPED) {
+        ok = priceHigh >= accuracy && priceLow >= accuracy;
+      } else if (bracket == YieldBracket.ZERO) {
+        ok = calc.CalcPrice(coupon, years, face, 0.0) == price;
+      } else if (bracket != YieldBracket.UNKNOWN) {
+        double priceA = calc.CalcPrice(coupon, years, face, bracket.guessA) - price;
+        double priceB = calc.CalcPrice(coupon, years, face, bracket.guessB) - price;
+        ok = priceHigh <= -accuracy && priceA * priceB < 0;
+      }
+      if (!ok) {
+        failures++;
+        System.out.printf("%-8s coupon %f, years %d, face %f, price %f\n", bracket, coupon, years, face, price);
+      }
+    }
+
+    for (YieldBracket bracket : YieldBracket.values()) {
+      System.out.printf("%-8s %7d\n", bracket, counts[bracket.ordinal()]);
+    }
+    System.out.printf("%d bonds classified in %.3f ms, %d failures\n", num, classifyTime / 1000000.0, failures);
+    System.out.println("");
+  }
+
+  public static void asyncTests(int num, int callers) {
+    Random rand = new Random(19);
+    double[][] bonds = new double[num][];
+    for (int i = 0; i < num; i++) {
+      bonds[i] = new double[] {rand.nextDouble() * 0.2, rand.nextInt(100) + 1, rand.nextDouble() * 1000000, rand.nextDouble() * 1000000};
+    }
+    BondYieldCalculator expected = new BondYieldCalculator();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      /* Every bond is asked for by several callers at once */
+      AsyncYieldCalculator async = new AsyncYieldCalculator(BondYieldCalculator.concurrent(), executor);
+      List<CompletableFuture<Double>> futures = new ArrayList<>();
+      long startTime = System.nanoTime();
+      for (double[] bond : bonds) {
+        for (int c = 0; c < callers; c++) {
+          futures.add(async.CalcYield(bond[0], (int) bond[1], bond[2], bond[3]));
+        }
+      }
+      int failures = 0;
+      for (int i = 0; i < futures.size(); i++) {
+        double[] bond = bonds[i / callers];
+        double yield = futures.get(i).join();
+        if (Double.compare(yield, expected.CalcYield(bond[0], (int) bond[1], bond[2], bond[3])) != 0) {
+          failures++;
+        }
+      }
+      System.out.printf("%d requests for %d bonds: %d solves, %d coalesced, %d memo hits, %d failures in %.1f ms\n",
+                        futures.size(), num, async.solves(), async.coalesced(),
+                        futures.size() - async.solves() - async.coalesced(), failures, (System.nanoTime() - startTime) / 1e6);
+
+      /* Cancelled while queued behind a busy executor: the other caller still gets its yield, and the last cancel skips the solve */
+      CountDownLatch busy = new CountDownLatch(1);
+      ExecutorService single = Executors.newSingleThreadExecutor();
+      AsyncYieldCalculator blocked = new AsyncYieldCalculator(BondYieldCalculator.concurrent(), single);
+      single.execute(() -> {
+        try {
+          busy.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+      CompletableFuture<Double> first = blocked.CalcYield(0.10, 5, 1000, 832.4);
+      CompletableFuture<Double> second = blocked.CalcYield(0.10, 5, 1000, 832.4);
+      CompletableFuture<Double> lonely = blocked.CalcYield(0.10, 6, 1000, 832.4);
+      first.cancel(false);
+      lonely.cancel(false);
+      busy.countDown();
+      double kept = second.join();
+      single.shutdown();
+      single.awaitTermination(10, TimeUnit.SECONDS);
+      boolean ok = first.isCancelled() && lonely.isCancelled() && Math.abs(kept - 0.1499974) < 0.00001
+                   && blocked.solves() == 1 && blocked.inFlight() == 0;
+      System.out.println((ok ? "O" : "X") + "\tCancelled callers leave the shared solve alone and skip abandoned ones");
+
+      /* Cancelled once the solve is running: it runs to the end, and a later caller joins it */
+      CountDownLatch solving = new CountDownLatch(1);
+      CountDownLatch release = new CountDownLatch(1);
+      BondYieldCalculator held = new BondYieldCalculator(new NewtonSolver(), PricingMode.MEMOIZED,
+                                                         CacheConfig.unbounded().striped(4), CacheConfig.unbounded().striped(4)) {
+        public double CalcPrice(double coupon, int years, double face, double rate) {
+          solving.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          return super.CalcPrice(coupon, years, face, rate);
+        }
+      };
+      ExecutorService runner = Executors.newSingleThreadExecutor();
+      AsyncYieldCalculator running = new AsyncYieldCalculator(held, runner);
+      CompletableFuture<Double> dropped = running.CalcYield(0.10, 5, 1000, 832.4);
+      solving.await();
+      dropped.cancel(false);
+      CompletableFuture<Double> joined = running.CalcYield(0.10, 5, 1000, 832.4);
+      release.countDown();
+      double late = joined.join();
+      runner.shutdown();
+      runner.awaitTermination(10, TimeUnit.SECONDS);
+      ok = dropped.isCancelled() && Math.abs(late - 0.1499974) < 0.00001 && running.solves() == 1
+           && running.coalesced() == 1 && running.inFlight() == 0;
+      System.out.println((ok ? "O" : "X") + "\tCancelling a running solve lets it finish for the next caller, "
+                         + running.solves() + " solves");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      executor.shutdown();
+    }
+    System.out.println("");
+  }
+
+  public static void metricsTests(int num) {
+    Random rand = new Random(23);
+    BondYieldCalculator calc = new BondYieldCalculator();
+    for (int i = 0; i < num; i++) {
+      double coupon = rand.nextDouble() * 0.2;
+      int years = rand.nextInt(100) + 1;
+      double face = rand.nextDouble() * 1000000;
+      double price = rand.nextDouble() * 1000000;
+      calc.CalcYield(coupon, years, face, price);
+      calc.CalcYield(coupon, years, face, price);
+    }
+
+    CalcMetrics metrics = calc.metrics();
+    try {
+      /* Read back through the MBean server the way a JMX client would */
+      ObjectName name = metrics.register("driver");
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      long solves = (Long) server.getAttribute(name, "Solves");
+      long hits = (Long) server.getAttribute(name, "YieldMemoHits");
+      long yieldSamples = (Long) server.getAttribute(name, "YieldSamples");
+      System.out.println(metrics.dump());
+      boolean ok = solves == num && hits >= num && yieldSamples > 0
+                   && metrics.getIterationsMax() > 0 && metrics.getNoRoots() > 0;
+      System.out.println((ok ? "O" : "X") + "\tEvery solve counted and memo hits seen through JMX");
+
+      server.invoke(name, "reset", null, null);
+      metrics.setEnabled(false);
+      calc.CalcYield(0.10, 5, 1000, 900.0);
+      ok = metrics.getSolves() == 0 && metrics.getYieldMemoHits() == hits;
+      System.out.println((ok ? "O" : "X") + "\tNothing recorded while disabled, memo stats kept across reset");
+      metrics.unregister();
+    } catch (JMException e) {
+      System.out.println("X\t" + e);
+    }
+    System.out.println("");
+  }
+
+  public static void scheduleTests(int num) {
+    Random rand = new Random(29);
+    BondYieldCalculator calc = new BondYieldCalculator();
+    int[] frequencies = {1, 2, 4, 12};
+    double maxLevelError = 0.0;
+    double maxFlowError = 0.0;
+    double maxSlopeError = 0.0;
+    int failures = 0;
+
+    for (int i = 0; i < num; i++) {
+      double coupon = rand.nextDouble() * 0.2;
+      int years = rand.nextInt(100) + 1;
+      double face = rand.nextDouble() * 1000000;
+      double rate = rand.nextDouble() * 0.3 - 0.05;
+
+      /* Level schedules in one Horner pass against the memoized CalcPrice */
+      double expected = calc.CalcPrice(coupon, years, face, rate);
+      double level = CashFlowSchedule.level(coupon, years, face).price(rate);
+      maxLevelError = Math.max(maxLevelError, Math.abs(level - expected) / expected);
+
+      int frequency = frequencies[rand.nextInt(frequencies.length)];
+      int periods = Math.min(years * frequency, 400);
+      CashFlowSchedule schedule;
+      if (i % 3 == 0) {
+        schedule = CashFlowSchedule.periodic(coupon, periods, frequency, face);
+      } else if (i % 3 == 1) {
+        schedule = CashFlowSchedule.oddFirst(coupon, periods, frequency, face, 0.1 + rand.nextDouble() * 1.5);
+      } else {
+        double[] principal = new double[periods];
+        Arrays.fill(principal, face / periods);
+        schedule = CashFlowSchedule.amortizing(coupon, frequency, face, principal);
+      }
+
+      /* Against discounting each flow with its own pow */
+      double perFlow = 0.0;
+      for (int k = 0; k < schedule.flows(); k++) {
+        perFlow += schedule.amount(k) * Math.pow(1.0 + rate, -schedule.time(k));
+      }
+      double price = calc.CalcPrice(schedule, rate);
+      maxFlowError = Math.max(maxFlowError, Math.abs(price - perFlow) / perFlow);
+
+      double bump = 0.000001;
+      double slope = (schedule.price(rate + bump) - schedule.price(rate - bump)) / (2 * bump);
+      maxSlopeError = Math.max(maxSlopeError, Math.abs(calc.CalcPriceDerivative(schedule, rate) - slope) / Math.abs(slope));
+
+      /* The yield of the price is the rate again */
+      double yield = calc.CalcYield(schedule, price);
+      if (!(Math.abs(schedule.price(yield) - price) < BondYieldCalculator.ACCURACY || Math.abs(yield - rate) < 1e-9)) {
+        failures++;
+        System.out.printf("frequency %d, flows %d, rate %f: yield %s\n", frequency, schedule.flows(), rate, yield);
+      }
+    }
+    System.out.printf("%d schedules, relative error vs CalcPrice %.2e, vs pow per flow %.2e, derivative vs bumped %.2e, %d failures\n",
+                      num, maxLevelError, maxFlowError, maxSlopeError, failures);
+
+    /* Thirty years of monthly coupons */
+    CashFlowSchedule monthly = CashFlowSchedule.periodic(0.05, 360, 12, 1000);
+    double sink = 0.0;
+    for (int warmup = 0; warmup < 2; warmup++) {
+      long startTime = System.nanoTime();
+      for (int i = 0; i < 20000; i++) {
+        sink += monthly.price(0.04 + i * 1e-7);
+      }
+      long hornerTime = System.nanoTime() - startTime;
+      startTime = System.nanoTime();
+      for (int i = 0; i < 20000; i++) {
+        double rate = 0.04 + i * 1e-7;
+        for (int k = 0; k < monthly.flows(); k++) {
+          sink += monthly.amount(k) * Math.pow(1.0 + rate, -monthly.time(k));
+        }
+      }
+      long powTime = System.nanoTime() - startTime;
+      if (warmup == 1) {
+        System.out.printf("360 monthly flows: %.0f ns per price in one pass, %.0f ns with a pow per flow (%s)\n",
+                          hornerTime / 20000.0, powTime / 20000.0, sink > 0 ? "ok" : "?");
+      }
+    }
+    System.out.println("");
+  }
+
+  public static void formatTests(int num) {
+    Random rand = new Random(31);
+    double[] values = new double[num];
+    for (int i = 0; i < num; i++) {
+      /* Every third value sits on or next to a tie in the 8th decimal place */
+      if (i % 3 == 0) {
+        values[i] = (rand.nextInt(2000000001) - 1000000000) / 10000000.0 + (rand.nextInt(3) - 1) * 0.00000005;
+      } else {
+        values[i] = (rand.nextDouble() - 0.5) * Math.pow(10, rand.nextInt(16) - 8);
+      }
+    }
+
+    /* Against the BigDecimal and String.format that stringify used to go through */
+    int failures = 0;
+    byte[] bytes = new byte[400];
+    DecimalWriter writer = new DecimalWriter(7);
+    for (double value : values) {
+      String expected = String.format("%.7f", new BigDecimal(value).setScale(7, RoundingMode.HALF_UP).doubleValue());
+      String written = new String(bytes, 0, writer.write(value, bytes, 0));
+      if (!expected.equals(written)) {
+        failures++;
+        System.out.println(value + ": " + written + " instead of " + expected);
+      }
+    }
+    BondYieldCalculator calc = new BondYieldCalculator();
+    boolean precise = calc.stringify(2.0 / 3.0, 3).equals("0.667") && calc.stringify(0.00390625, 7).equals("0.0039063")
+                      && calc.stringify(-0.00000004, 7).equals("0.0000000") && calc.roundValue(2.0 / 3.0, 2) == 0.67;
+    System.out.printf("%d values formatted, %d failures\n", num, failures);
+    System.out.println((precise ? "O" : "X") + "\tPrecision is honoured and ties round half up");
+
+    long sink = 0;
+    for (int round = 0; round < 2; round++) {
+      long startTime = System.nanoTime();
+      for (double value : values) {
+        sink += String.format("%.7f", new BigDecimal(value).setScale(7, RoundingMode.HALF_UP).doubleValue()).length();
+      }
+      long oldTime = System.nanoTime() - startTime;
+      startTime = System.nanoTime();
+      for (double value : values) {
+        sink += writer.write(value, bytes, 0);
+      }
+      long newTime = System.nanoTime() - startTime;
+      if (round == 1) {
+        System.out.printf("%.0f ns per value with BigDecimal and String.format, %.0f ns with DecimalWriter (%d)\n",
+                          oldTime / (double) num, newTime / (double) num, sink % 10);
+      }
+    }
+    System.out.println("");
+  }
+
+  public static void offHeapTests(int num) {
+    Random rand = new Random(37);
+    double[] coupons = new double[num];
+    int[] years = new int[num];
+    double[] faces = new double[num];
+    double[] prices = new double[num];
+    for (int i = 0; i < num; i++) {
+      coupons[i] = rand.nextDouble() * 0.2;
+      years[i] = rand.nextInt(100) + 1;
+      faces[i] = rand.nextDouble() * 1000000;
+      prices[i] = rand.nextDouble() * 1000000;
+    }
+
+    /* Every yield stored below capacity reads back, bar the few that overflowed a full bucket */
+    OffHeapYieldCache offHeap = new OffHeapYieldCache(CacheConfig.offHeap(num * 2).striped(16));
+    for (int i = 0; i < num; i++) {
+      offHeap.put(coupons[i], years[i], faces[i], prices[i], i);
+    }
+    int wrong = 0;
+    for (int i = 0; i < num; i++) {
+      double yield = offHeap.get(coupons[i], years[i], faces[i], prices[i]);
+      if (yield != i && yield != YieldMemo.MISS) {
+        wrong++;
+      }
+    }
+    CacheStats stats = offHeap.stats();
+    System.out.printf("%d yields in %d MB off heap: %s\n", num, offHeap.offHeapBytes() >> 20, stats);
+    System.out.println((wrong == 0 && stats.hits + stats.evictions == num ? "O" : "X") + "\tYields read back, misses only for evicted entries");
+
+    /* A hot set used between passes of the clock survives a stream of one-off keys, which FIFO would evict */
+    OffHeapYieldCache small = new OffHeapYieldCache(CacheConfig.offHeap(8192));
+    int hot = 1000;
+    int hotHits = 0;
+    int hotLookups = 0;
+    for (int i = 0; i < 200000; i++) {
+      int key = i % 4 == 0 ? (i / 4) % hot : hot + i;
+      double yield = small.get(coupons[key], years[key], faces[key], prices[key]);
+      if (key < hot && i >= 4 * hot) {
+        hotLookups++;
+        hotHits += yield == key ? 1 : 0;
+      }
+      if (yield == YieldMemo.MISS) {
+        small.put(coupons[key], years[key], faces[key], prices[key], key);
+      }
+    }
+    System.out.printf("Hot keys hit %.1f%% of the time among %d one-off keys in a memo of %d\n",
+                      100.0 * hotHits / hotLookups, 150000, small.capacity());
+    System.out.println((hotHits > 0.9 * hotLookups ? "O" : "X") + "\tClock keeps the hot keys");
+
+    /* The same yields on the heap and off it: heap used and full GC time after filling each */
+    long[] onHeapCost = heapCost(new YieldCache(CacheConfig.unbounded()), coupons, years, faces, prices);
+    long[] offHeapCost = heapCost(new OffHeapYieldCache(CacheConfig.offHeap(num * 2)), coupons, years, faces, prices);
+    System.out.printf("%d yields on heap:  %4d MB of heap, full GC %4d ms\n", num, onHeapCost[0] >> 20, onHeapCost[1]);
+    System.out.printf("%d yields off heap: %4d MB of heap, full GC %4d ms\n", num, offHeapCost[0] >> 20, offHeapCost[1]);
+
+    /* Shared calculator with the yields off heap agrees with a plain one */
+    BondYieldCalculator calc = BondYieldCalculator.concurrent(CacheConfig.offHeap(100000), CacheConfig.unbounded());
+    BondYieldCalculator plain = new BondYieldCalculator();
+    int failures = 0;
+    for (int i = 0; i < 20000; i++) {
+      double yield = calc.CalcYield(coupons[i], years[i], faces[i], prices[i]);
+      double again = calc.CalcYield(coupons[i], years[i], faces[i], prices[i]);
+      double expected = plain.CalcYield(coupons[i], years[i], faces[i], prices[i]);
+      if (Double.compare(yield, again) != 0 || !(Double.isNaN(expected) ? Double.isNaN(yield) : Math.abs(yield - expected) < 0.000001)) {
+        failures++;
+      }
+    }
+    System.out.println((calc.isThreadSafe() && failures == 0 ? "O" : "X") + "\tCalculator with an off-heap memo is shareable and agrees, " + failures + " failures");
+    System.out.println("");
+  }
+
+  public static void snapshotTests(int num) {
+    Random rand = new Random(9);
+    BondYieldCalculator memoized = new BondYieldCalculator(new NewtonSolver(), PricingMode.MEMOIZED);
+    double[][] bonds = new double[num][];
+    for (int i = 0; i < num; i++) {
+      bonds[i] = new double[] {rand.nextDouble() * 0.1, rand.nextInt(30) + 1, rand.nextDouble() * 1000000, rand.nextDouble() * 1000000};
+      memoized.CalcYield(bonds[i][0], (int) bonds[i][1], bonds[i][2], bonds[i][3]);
+    }
+    Path file = null;
+    try {
+      file = Files.createTempFile("chimera", ".snapshot");
+      memoized.saveSnapshot(file);
+
+      /* Same solver and mode: every yield comes back as the double a fresh solve gives */
+      BondYieldCalculator warm = new BondYieldCalculator(new NewtonSolver(), PricingMode.MEMOIZED);
+      warm.loadSnapshot(file);
+      BondYieldCalculator fresh = new BondYieldCalculator(new NewtonSolver(), PricingMode.MEMOIZED);
+      int mismatches = 0;
+      for (double[] bond : bonds) {
+        if (Double.compare(warm.CalcYield(bond[0], (int) bond[1], bond[2], bond[3]),
+                           fresh.CalcYield(bond[0], (int) bond[1], bond[2], bond[3])) != 0) {
+          mismatches++;
+        }
+      }
+      System.out.println((mismatches == 0 && warm.yieldCacheStats().size == 0 ? "O" : "X")
+                         + "\tSnapshot answers a restarted calculator, " + mismatches + " mismatches");
+
+      /* Closed form prices differ in the last bits, so its yields would too */
+      boolean rejected = false;
+      try {
+        new BondYieldCalculator(new NewtonSolver(), PricingMode.CLOSED_FORM).loadSnapshot(file);
+      } catch (IOException e) {
+        rejected = true;
+      }
+      System.out.println((rejected ? "O" : "X") + "\tSnapshot from the other pricing mode is rejected");
+    } catch (IOException e) {
+      System.out.println("X\tSnapshot could not be saved or loaded: " + e.getMessage());
+    } finally {
+      if (file != null) {
+        try {
+          Files.deleteIfExists(file);
+        } catch (IOException e) {
+          /* Mapped files cannot be deleted on some platforms, the temp directory cleans up */
+        }
+      }
+    }
+    System.out.println("");
+  }
+
+  /**
+  * Fills a yield memo and measures what it costs the heap.
+  * @return heap used with the memo alive, and total time of full GCs with it alive
+  */
+  private static long[] heapCost(YieldMemo memo, double[] coupons, int[] years, double[] faces, double[] prices) {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    long before = runtime.totalMemory() - runtime.freeMemory();
+    for (int i = 0; i < coupons.length; i++) {
+      memo.put(coupons[i], years[i], faces[i], prices[i], i);
+    }
+    long gcTime = -totalGcMillis();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    gcTime += totalGcMillis();
+    long used = runtime.totalMemory() - runtime.freeMemory() - before;
+    if (memo.size() == 0) {
+      System.out.println("X\tMemo is empty");
+    }
+    return new long[] {Math.max(0, used), gcTime};
+  }
+
+  private static long totalGcMillis() {
+    long total = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      total += Math.max(0, gc.getCollectionTime());
+    }
+    return total;
+  }
+
+  public static void replayTests(int num) {
+    LoadReplay replay = new LoadReplay();
+    replay.requests = num;
+    replay.rate = 20000;
+    replay.threads = 2;
+    LoadReplay.Requests log = replay.synthetic();
+
+    /* Repeats copy earlier requests, and ticks make some new requests collide with earlier ones too */
+    Set<List<Double>> seen = new HashSet<>();
+    int repeats = 0;
+    for (int i = 0; i < log.count; i++) {
+      if (!seen.add(Arrays.asList((double) log.modes[i], log.coupons[i], (double) log.years[i], log.faces[i], log.values[i]))) {
+        repeats++;
+      }
+    }
+    System.out.printf("%.1f%% of %d synthetic requests repeat an earlier one, %.0f%% asked for\n",
+                      100.0 * repeats / log.count, log.count, 100 * replay.repeat);
+    System.out.println((repeats >= replay.repeat * log.count * 0.95 ? "O" : "X") + "\tSynthetic requests repeat as often as asked");
+
+    int mismatches = 0;
+    try {
+      Path file = Files.createTempFile("replay", ".csv");
+      try {
+        log.write(file);
+        LoadReplay.Requests read = LoadReplay.Requests.read(file);
+        mismatches += read.count == log.count && read.skipped == 0 ? 0 : 1;
+        for (int i = 0; i < Math.min(read.count, log.count); i++) {
+          if (read.modes[i] != log.modes[i] || read.years[i] != log.years[i] || Double.compare(read.coupons[i], log.coupons[i]) != 0
+              || Double.compare(read.faces[i], log.faces[i]) != 0 || Double.compare(read.values[i], log.values[i]) != 0) {
+            mismatches++;
+          }
+        }
+      } finally {
+        Files.delete(file);
+      }
+    } catch (IOException e) {
+      System.out.println("X\tCould not write a request log: " + e.getMessage());
+      mismatches++;
+    }
+    System.out.println((mismatches == 0 ? "O" : "X") + "\tRequest log reads back exactly, " + mismatches + " mismatches");
+
+    /* Response time runs from when a request was due, so it is never below service time */
+    Map<String, String> report;
+    try {
+      report = replay.run(log, replay.describeSynthetic());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    boolean ordered = true;
+    for (String percentile : new String[] {"p50", "p90", "p99", "p99.9", "max"}) {
+      ordered &= Long.parseLong(report.get("response_" + percentile + "_ns")) >= Long.parseLong(report.get("service_" + percentile + "_ns"));
+    }
+    System.out.printf("%s requests at %s/s on %s threads: %s/s, yield memo hit rate %s, response p99 %s ns, service p99 %s ns\n",
+                      report.get("requests"), report.get("rate"), report.get("threads"), report.get("throughput"),
+                      report.get("yield_memo_hit_rate"), report.get("response_p99_ns"), report.get("service_p99_ns"));
+    System.out.println((ordered && Long.parseLong(report.get("requests")) == num - num / 10 ? "O" : "X")
+                       + "\tReplay reports every request, response times at or above service times");
+    System.out.println((Double.parseDouble(report.get("yield_memo_hit_rate")) > 0.8 * replay.repeat ? "O" : "X")
+                       + "\tRepeated requests hit the yield memo");
+    System.out.println("");
+  }
 }
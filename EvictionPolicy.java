@@ -0,0 +1,39 @@
+/**
+ * Decides which memo slot to give up once a memo is full. Slots are the
+ * indexes MemoCache stores entries at; the hash is the entry key's hash
+ * and lets frequency based policies recognise a key they have seen before.
+ */
+interface EvictionPolicy {
+  /**
+  * Records a newly written slot.
+  * @param  slot slot the entry was written to
+  * @param  hash hash of the entry's key
+  * @return      slot to evict, possibly the new one, or -1 if nothing has to go.
+  *              The returned slot is already forgotten by the policy.
+  */
+  int onInsert(int slot, int hash);
+
+  /**
+  * Records a hit on a slot.
+  * @param  slot slot that was read
+  * @param  hash hash of the entry's key
+  */
+  void onAccess(int slot, int hash);
+
+  /**
+  * Forgets a slot that the memo removed by itself, e.g. because it expired.
+  * @param  slot slot that was removed
+  */
+  void onRemove(int slot);
+
+  /**
+  * Makes room to track slots 0 to slots - 1.
+  * @param  slots number of slots the memo now has
+  */
+  void resize(int slots);
+
+  /**
+  * Forgets every slot.
+  */
+  void clear();
+}
@@ -0,0 +1,148 @@
+import java.util.Arrays;
+
+/**
+ * Histogram of latencies in nanoseconds with a fixed relative precision.
+ * Values below 128 each get their own bucket. Above that, every power of two
+ * is split into 64 equal buckets, so a recorded value is known to within
+ * about 1.6% however large it is, and the whole range of a long fits in a
+ * few thousand counters. Recording is a shift and an increment, and never
+ * allocates.
+ * Not thread-safe; give each thread its own histogram and add them up.
+ */
+public class LatencyHistogram {
+  private static final int SUB_BITS = 7;
+  private static final int SUB_COUNT = 1 << SUB_BITS;
+  private static final int HALF_COUNT = SUB_COUNT / 2;
+  private static final int BUCKETS = (64 - SUB_BITS + 1) * HALF_COUNT + HALF_COUNT;
+
+  private final long[] counts = new long[BUCKETS];
+  private long count;
+  private long min = Long.MAX_VALUE;
+  private long max;
+  private double sum;
+
+  /**
+  * Records one value.
+  * @param  value latency in nanoseconds, negative values count as 0
+  */
+  public void record(long value) {
+    record(value, 1);
+  }
+
+  /**
+  * Records the same value several times.
+  * @param  value latency in nanoseconds, negative values count as 0
+  * @param  times number of times to record it
+  */
+  public void record(long value, long times) {
+    value = Math.max(0, value);
+    counts[bucket(value)] += times;
+    count += times;
+    sum += (double) value * times;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+  }
+
+  /**
+  * Adds every value recorded by another histogram to this one.
+  * @param  other histogram to add
+  */
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] += other.counts[i];
+    }
+    count += other.count;
+    sum += other.sum;
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+  }
+
+  /**
+  * Forgets every recorded value.
+  */
+  public void reset() {
+    Arrays.fill(counts, 0L);
+    count = 0;
+    min = Long.MAX_VALUE;
+    max = 0;
+    sum = 0.0;
+  }
+
+  public long count() {
+    return count;
+  }
+
+  /* Smallest value recorded, 0 if empty */
+  public long min() {
+    return count == 0 ? 0 : min;
+  }
+
+  /* Largest value recorded, exact rather than rounded to a bucket */
+  public long max() {
+    return max;
+  }
+
+  /* Mean of the values as recorded, exact rather than rounded to buckets */
+  public double mean() {
+    return count == 0 ? 0.0 : sum / count;
+  }
+
+  /**
+  * Value that the given percentage of recorded values are at or below.
+  * Reported as the middle of the bucket it falls in, but never above max.
+  * @param  percentile percentage between 0 and 100
+  * @return            value at the percentile, 0 if empty
+  */
+  public long valueAtPercentile(double percentile) {
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(Math.min(100.0, percentile) / 100.0 * count));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(max, Math.max(min, middleOf(i)));
+      }
+    }
+    return max;
+  }
+
+  /**
+  * Number of recorded values that fall in the same bucket as or below a value.
+  * @param  value latency in nanoseconds
+  * @return       count of values at or below the value's bucket
+  */
+  public long countAtOrBelow(long value) {
+    int last = bucket(Math.max(0, value));
+    long seen = 0;
+    for (int i = 0; i <= last; i++) {
+      seen += counts[i];
+    }
+    return seen;
+  }
+
+  /**
+  * Bucket of a value. Values below SUB_COUNT map to themselves; larger
+  * values keep their top SUB_BITS bits, offset by how far they were shifted.
+  * @param  value non-negative value
+  * @return       index of the bucket
+  */
+  private static int bucket(long value) {
+    if (value < SUB_COUNT) {
+      return (int) value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+    return shift * HALF_COUNT + (int) (value >>> shift);
+  }
+
+  /* Middle of the range of values that fall in a bucket */
+  private static long middleOf(int bucket) {
+    if (bucket < SUB_COUNT) {
+      return bucket;
+    }
+    int shift = bucket / HALF_COUNT - 1;
+    long lowest = (long) (bucket - shift * HALF_COUNT) << shift;
+    return lowest + ((1L << shift) >>> 1);
+  }
+}
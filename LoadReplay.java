@@ -0,0 +1,566 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load test of BondYieldCalculator on a realistic request mix.
+ * Replays a recorded request log, or a synthetic one where bonds come from
+ * a few tenors, rates sit on a tick grid so prices cluster, and a share of
+ * the requests repeat recent ones. Requests arrive at a fixed rate however
+ * fast the calculator answers them, and threads sharing one calculator
+ * take them in turn, like a server's workers taking requests off a queue.
+ *
+ * A closed loop only sends a request once the last one is answered, so
+ * while the calculator stalls it stops sending, and a pause shows up as
+ * one slow call instead of every request that would have queued behind
+ * it. This is coordinated omission. Here request i is due at
+ * start + i / rate, and its response time runs from then, so time spent
+ * queued behind a slow call counts. The service time, from when a thread
+ * picked the request up, is reported next to it. Both are recorded in
+ * LatencyHistograms and include one System.nanoTime call.
+ *
+ * The report lists the settings, throughput, memo hit rates and the
+ * percentiles as one key=value per line in a fixed order, so the reports
+ * of two versions can be compared with diff, or with --compare.
+ *
+ * A request log is a CSV in the format BulkCalculator reads, one
+ * mode,coupon,years,face,value row per request, e.g.
+ *   p,0.10,5,1000.0,0.15
+ *   y,0.10,5,1000.0,832.3922451
+ *
+ * Usage: java LoadReplay [options]
+ *   --log file        replay a request log instead of synthetic requests
+ *   --save-log file   write the synthetic requests as a request log
+ *   --requests n      synthetic requests, default 1000000
+ *   --repeat ratio    share of synthetic requests repeating one of the last 10000, default 0.5
+ *   --yields ratio    share of synthetic requests that are yields, default 0.5
+ *   --years dist      tenors:2,5,10,30 or uniform:1-30, default tenors:1,2,3,5,7,10,20,30
+ *   --rates dist      normal:mean,sd or uniform:low,high, default normal:0.04,0.01
+ *   --tick size       round rates to multiples of size, 0 for none, default 0.0001
+ *   --seed n          seed of the synthetic requests, default 1
+ *   --rate n          requests per second, default 100000
+ *   --threads n       threads sharing the calculator, default 1
+ *   --warmup ratio    share of requests run first and left out of the report, default 0.1
+ *   --memo config     yield memo: unbounded, lru:n, tinylfu:n or offheap:n, default unbounded
+ *   --report file     write the report to a file as well
+ *   --compare file    show every figure next to the one in an earlier report
+ */
+public class LoadReplay {
+  /* Repeats pick one of this many requests before them */
+  private static final int RECENT = 10000;
+
+  /* Coupons are whole eighths of a percent up to 10% */
+  private static final double COUPON_STEP = 0.00125;
+  private static final int COUPON_STEPS = 80;
+  private static final double[] FACES = {100.0, 1000.0, 5000.0, 10000.0, 100000.0, 1000000.0};
+
+  /* Threads park until a request is due if it is further off than this, and spin otherwise */
+  private static final long SPIN_NANOS = 50_000L;
+
+  /* Time for the threads to start before the first request is due */
+  private static final long START_DELAY_NANOS = 10_000_000L;
+
+  private static final byte PRICE = 'p';
+  private static final byte YIELD = 'y';
+
+  int requests = 1_000_000;
+  double repeat = 0.5;
+  double yields = 0.5;
+  String yearDistribution = "tenors:1,2,3,5,7,10,20,30";
+  String rateDistribution = "normal:0.04,0.01";
+  double tick = 0.0001;
+  long seed = 1;
+  double rate = 100_000;
+  int threads = 1;
+  double warmup = 0.1;
+  String memo = "unbounded";
+
+  /* Keeps results alive so the JIT cannot drop the calls */
+  private volatile double sink;
+
+  public static void main(String[] args) throws Exception {
+    LoadReplay replay = new LoadReplay();
+    String logFile = null;
+    String saveFile = null;
+    String reportFile = null;
+    String compareFile = null;
+
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--log":
+          logFile = args[++i];
+          break;
+        case "--save-log":
+          saveFile = args[++i];
+          break;
+        case "--requests":
+          replay.requests = Integer.parseInt(args[++i]);
+          break;
+        case "--repeat":
+          replay.repeat = Double.parseDouble(args[++i]);
+          break;
+        case "--yields":
+          replay.yields = Double.parseDouble(args[++i]);
+          break;
+        case "--years":
+          replay.yearDistribution = args[++i];
+          break;
+        case "--rates":
+          replay.rateDistribution = args[++i];
+          break;
+        case "--tick":
+          replay.tick = Double.parseDouble(args[++i]);
+          break;
+        case "--seed":
+          replay.seed = Long.parseLong(args[++i]);
+          break;
+        case "--rate":
+          replay.rate = Double.parseDouble(args[++i]);
+          break;
+        case "--threads":
+          replay.threads = Integer.parseInt(args[++i]);
+          break;
+        case "--warmup":
+          replay.warmup = Double.parseDouble(args[++i]);
+          break;
+        case "--memo":
+          replay.memo = args[++i];
+          break;
+        case "--report":
+          reportFile = args[++i];
+          break;
+        case "--compare":
+          compareFile = args[++i];
+          break;
+        default:
+          System.err.println("Unknown option " + args[i]);
+          System.exit(2);
+      }
+    }
+
+    Requests log;
+    String source;
+    if (logFile != null) {
+      log = Requests.read(Paths.get(logFile));
+      source = "log " + Paths.get(logFile).getFileName() + ", " + log.skipped + " rows skipped";
+    } else {
+      log = replay.synthetic();
+      source = replay.describeSynthetic();
+      if (saveFile != null) {
+        log.write(Paths.get(saveFile));
+      }
+    }
+
+    Map<String, String> report = replay.run(log, source);
+    List<String> lines = new ArrayList<>();
+    for (Map.Entry<String, String> figure : report.entrySet()) {
+      lines.add(figure.getKey() + "=" + figure.getValue());
+    }
+    for (String line : lines) {
+      System.out.println(line);
+    }
+    if (reportFile != null) {
+      Files.write(Paths.get(reportFile), lines);
+    }
+    if (compareFile != null) {
+      compare(readReport(Paths.get(compareFile)), report);
+    }
+  }
+
+  /**
+  * Generates requests from the synthetic settings. A new request draws a
+  * coupon, a tenor, a face value and a rate on the tick grid, and asks
+  * either for the price at that rate or for the yield at that price.
+  * A repeat copies one of the RECENT requests before it, so requests that
+  * have been repeated are likely to be repeated again.
+  * @return requests in arrival order
+  */
+  Requests synthetic() {
+    if (requests < 1 || !(repeat >= 0 && repeat <= 1) || !(yields >= 0 && yields <= 1) || !(tick >= 0)) {
+      throw new IllegalArgumentException("Need at least 1 request, ratios between 0 and 1 and a tick of 0 or more");
+    }
+    int[] tenors = parseYears(yearDistribution);
+    double[] rates = parseRates(rateDistribution);
+    boolean normal = rateDistribution.startsWith("normal:");
+
+    Random rand = new Random(seed);
+    Requests log = new Requests(requests);
+    for (int i = 0; i < requests; i++) {
+      if (i > 0 && rand.nextDouble() < repeat) {
+        log.add(log, i - 1 - rand.nextInt(Math.min(i, RECENT)));
+        continue;
+      }
+      double coupon = COUPON_STEP * rand.nextInt(COUPON_STEPS + 1);
+      int years = tenors[rand.nextInt(tenors.length)];
+      double face = FACES[rand.nextInt(FACES.length)];
+      double r = normal ? rates[0] + rand.nextGaussian() * rates[1] : rates[0] + rand.nextDouble() * (rates[1] - rates[0]);
+      if (tick > 0) {
+        r = Math.round(r / tick) * tick;
+      }
+      if (rand.nextDouble() < yields) {
+        log.add(YIELD, coupon, years, face, BondYieldCalculator.calcClosedFormPrice(coupon, years, face, r));
+      } else {
+        log.add(PRICE, coupon, years, face, r);
+      }
+    }
+    return log;
+  }
+
+  /* Synthetic settings as one line of the report */
+  String describeSynthetic() {
+    return String.format(Locale.ROOT, "synthetic requests=%d repeat=%s yields=%s years=%s rates=%s tick=%s seed=%d",
+                         requests, repeat, yields, yearDistribution, rateDistribution, tick, seed);
+  }
+
+  /**
+  * Replays requests against a new calculator, first the warmup share and
+  * then the rest, each on its own schedule at the arrival rate.
+  * @param  log    requests in arrival order
+  * @param  source where the requests came from, for the report
+  * @return        report, figures in a fixed order
+  * @throws InterruptedException if interrupted while waiting for the threads
+  */
+  Map<String, String> run(Requests log, String source) throws InterruptedException {
+    if (threads < 1 || !(rate > 0) || !(warmup >= 0 && warmup < 1)) {
+      throw new IllegalArgumentException("Need at least 1 thread, a positive rate and a warmup ratio below 1");
+    }
+    BondYieldCalculator calc = threads > 1
+      ? BondYieldCalculator.concurrent(parseMemo(memo), CacheConfig.unbounded())
+      : new BondYieldCalculator(new NewtonSolver(), PricingMode.MEMOIZED, parseMemo(memo), CacheConfig.unbounded());
+
+    int warm = (int) (log.count * warmup);
+    replay(calc, log, 0, warm);
+    CacheStats yieldBefore = calc.yieldCacheStats();
+    CacheStats discountBefore = calc.discountCacheStats();
+    Run run = replay(calc, log, warm, log.count);
+    CacheStats yieldAfter = calc.yieldCacheStats();
+    CacheStats discountAfter = calc.discountCacheStats();
+
+    double throughput = run.response.count() / (run.nanos / 1e9);
+    Map<String, String> report = new LinkedHashMap<>();
+    report.put("source", source);
+    report.put("memo", memo);
+    report.put("threads", Integer.toString(threads));
+    report.put("rate", format(rate, 0));
+    report.put("warmup_requests", Integer.toString(warm));
+    report.put("requests", Long.toString(run.response.count()));
+    report.put("price_requests", Long.toString(run.prices));
+    report.put("no_yield", Long.toString(run.noYield));
+    report.put("throughput", format(throughput, 0));
+    report.put("kept_up", throughput >= 0.99 * rate ? "yes" : "no");
+    report.put("yield_memo_hit_rate", format(hitRate(yieldBefore, yieldAfter), 4));
+    report.put("discount_memo_hit_rate", format(hitRate(discountBefore, discountAfter), 4));
+    report.put("yield_memo_size", Integer.toString(yieldAfter.size));
+    percentiles(report, "response", run.response);
+    percentiles(report, "service", run.service);
+    return report;
+  }
+
+  /**
+  * Replays a range of requests on threads sharing the calculator. The
+  * threads take requests in arrival order and wait for each to be due,
+  * so a request is only late if every thread was busy when it arrived.
+  * @param  calc calculator to call
+  * @param  log  requests
+  * @param  from first request to replay
+  * @param  to   index after the last request to replay
+  * @return      latencies of the replayed requests
+  * @throws InterruptedException if interrupted while waiting for the threads
+  */
+  private Run replay(BondYieldCalculator calc, Requests log, int from, int to) throws InterruptedException {
+    double interval = 1e9 / rate;
+    long start = System.nanoTime() + START_DELAY_NANOS;
+    AtomicInteger next = new AtomicInteger(from);
+    Run[] runs = new Run[threads];
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      Run run = new Run();
+      runs[t] = run;
+      workers[t] = new Thread(() -> {
+        double total = 0.0;
+        int i;
+        while ((i = next.getAndIncrement()) < to) {
+          long due = start + (long) ((i - from) * interval);
+          long now = System.nanoTime();
+          while (now < due) {
+            if (due - now > SPIN_NANOS) {
+              LockSupport.parkNanos(due - now - SPIN_NANOS);
+            } else {
+              Thread.onSpinWait();
+            }
+            now = System.nanoTime();
+          }
+          double result;
+          if (log.modes[i] == PRICE) {
+            result = calc.CalcPrice(log.coupons[i], log.years[i], log.faces[i], log.values[i]);
+            run.prices++;
+          } else {
+            result = calc.CalcYield(log.coupons[i], log.years[i], log.faces[i], log.values[i]);
+            run.noYield += Double.isNaN(result) ? 1 : 0;
+          }
+          long end = System.nanoTime();
+          run.response.record(end - due);
+          run.service.record(end - now);
+          run.nanos = Math.max(run.nanos, end - start);
+          total += result;
+        }
+        sink += total;
+      }, "replay-" + t);
+      workers[t].start();
+    }
+
+    Run total = new Run();
+    for (int t = 0; t < threads; t++) {
+      workers[t].join();
+      total.response.add(runs[t].response);
+      total.service.add(runs[t].service);
+      total.prices += runs[t].prices;
+      total.noYield += runs[t].noYield;
+      total.nanos = Math.max(total.nanos, runs[t].nanos);
+    }
+    return total;
+  }
+
+  /* Adds the usual percentiles of a histogram to the report, in nanoseconds */
+  private static void percentiles(Map<String, String> report, String name, LatencyHistogram latencies) {
+    report.put(name + "_mean_ns", format(latencies.mean(), 0));
+    report.put(name + "_p50_ns", Long.toString(latencies.valueAtPercentile(50)));
+    report.put(name + "_p90_ns", Long.toString(latencies.valueAtPercentile(90)));
+    report.put(name + "_p99_ns", Long.toString(latencies.valueAtPercentile(99)));
+    report.put(name + "_p99.9_ns", Long.toString(latencies.valueAtPercentile(99.9)));
+    report.put(name + "_p99.99_ns", Long.toString(latencies.valueAtPercentile(99.99)));
+    report.put(name + "_max_ns", Long.toString(latencies.max()));
+  }
+
+  /* Hit rate of the lookups made between two stats of the same memo */
+  private static double hitRate(CacheStats before, CacheStats after) {
+    return new CacheStats(after.hits - before.hits, after.misses - before.misses, 0, 0, 0, 0).hitRate();
+  }
+
+  private static String format(double value, int places) {
+    return String.format(Locale.ROOT, "%." + places + "f", value);
+  }
+
+  /**
+  * Years to maturity to draw from.
+  * @param  spec tenors:a,b,c for those tenors, or uniform:a-b for every year from a to b
+  * @return      years, each equally likely
+  */
+  static int[] parseYears(String spec) {
+    try {
+      if (spec.startsWith("tenors:")) {
+        String[] parts = spec.substring(7).split(",");
+        int[] tenors = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+          tenors[i] = Integer.parseInt(parts[i].trim());
+        }
+        return tenors;
+      } else if (spec.startsWith("uniform:")) {
+        String[] bounds = spec.substring(8).split("-");
+        int low = Integer.parseInt(bounds[0].trim());
+        int high = Integer.parseInt(bounds[1].trim());
+        if (low <= high) {
+          int[] tenors = new int[high - low + 1];
+          for (int i = 0; i < tenors.length; i++) {
+            tenors[i] = low + i;
+          }
+          return tenors;
+        }
+      }
+    } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+      /* Falls through to the error below */
+    }
+    throw new IllegalArgumentException("Years must be tenors:a,b,c or uniform:a-b: " + spec);
+  }
+
+  /**
+  * Parameters of the rate distribution.
+  * @param  spec normal:mean,sd or uniform:low,high
+  * @return      the two numbers
+  */
+  static double[] parseRates(String spec) {
+    int colon = spec.indexOf(':');
+    String kind = colon < 0 ? "" : spec.substring(0, colon);
+    String[] parts = spec.substring(colon + 1).split(",");
+    if ((kind.equals("normal") || kind.equals("uniform")) && parts.length == 2) {
+      try {
+        return new double[] {Double.parseDouble(parts[0].trim()), Double.parseDouble(parts[1].trim())};
+      } catch (NumberFormatException e) {
+        /* Falls through to the error below */
+      }
+    }
+    throw new IllegalArgumentException("Rates must be normal:mean,sd or uniform:low,high: " + spec);
+  }
+
+  /**
+  * Yield memo sizing.
+  * @param  spec unbounded, lru:n, tinylfu:n or offheap:n
+  * @return      config of the yield memo
+  */
+  static CacheConfig parseMemo(String spec) {
+    if (spec.equals("unbounded")) {
+      return CacheConfig.unbounded();
+    }
+    int colon = spec.indexOf(':');
+    if (colon > 0) {
+      try {
+        int capacity = Integer.parseInt(spec.substring(colon + 1));
+        switch (spec.substring(0, colon)) {
+          case "lru":
+            return CacheConfig.lru(capacity);
+          case "tinylfu":
+            return CacheConfig.tinyLfu(capacity);
+          case "offheap":
+            return CacheConfig.offHeap(capacity);
+          default:
+            break;
+        }
+      } catch (NumberFormatException e) {
+        /* Falls through to the error below */
+      }
+    }
+    throw new IllegalArgumentException("Memo must be unbounded, lru:n, tinylfu:n or offheap:n: " + spec);
+  }
+
+  /**
+  * Reads a report written with --report.
+  * @param  path report file
+  * @return      figures in the order of the file
+  */
+  static Map<String, String> readReport(Path path) throws IOException {
+    Map<String, String> report = new LinkedHashMap<>();
+    for (String line : Files.readAllLines(path)) {
+      int equals = line.indexOf('=');
+      if (equals > 0) {
+        report.put(line.substring(0, equals), line.substring(equals + 1));
+      }
+    }
+    return report;
+  }
+
+  /**
+  * Prints every figure of a report next to the same figure of an earlier
+  * one, with the ratio for numbers.
+  * @param  baseline earlier report
+  * @param  report   report of this run
+  */
+  static void compare(Map<String, String> baseline, Map<String, String> report) {
+    System.out.printf("%n%-24s %14s %14s %8s%n", "figure", "baseline", "now", "ratio");
+    for (Map.Entry<String, String> figure : report.entrySet()) {
+      String before = baseline.getOrDefault(figure.getKey(), "");
+      String now = figure.getValue();
+      String ratio = "";
+      try {
+        double earlier = Double.parseDouble(before);
+        if (earlier != 0) {
+          ratio = format(Double.parseDouble(now) / earlier, 2);
+        }
+      } catch (NumberFormatException e) {
+        ratio = before.equals(now) ? "" : "changed";
+      }
+      if (before.length() > 14 || now.length() > 14) {
+        System.out.printf("%-24s %s%n%-24s %s%n", figure.getKey(), before, "", now);
+      } else {
+        System.out.printf("%-24s %14s %14s %8s%n", figure.getKey(), before, now, ratio);
+      }
+    }
+  }
+
+  /* Latencies and counts of one replay, one per thread and then added up */
+  private static class Run {
+    final LatencyHistogram response = new LatencyHistogram();
+    final LatencyHistogram service = new LatencyHistogram();
+    long prices;
+    long noYield;
+    long nanos;
+  }
+
+  /**
+  * Requests in arrival order, as columns of mode, coupon, years, face,
+  * and the rate of a price request or the price of a yield request.
+  */
+  static class Requests {
+    byte[] modes;
+    double[] coupons;
+    int[] years;
+    double[] faces;
+    double[] values;
+    int count;
+
+    /* Rows of a log that were not requests */
+    long skipped;
+
+    Requests(int capacity) {
+      capacity = Math.max(capacity, 16);
+      modes = new byte[capacity];
+      coupons = new double[capacity];
+      years = new int[capacity];
+      faces = new double[capacity];
+      values = new double[capacity];
+    }
+
+    void add(byte mode, double coupon, int year, double face, double value) {
+      if (count == modes.length) {
+        int capacity = count * 2;
+        modes = Arrays.copyOf(modes, capacity);
+        coupons = Arrays.copyOf(coupons, capacity);
+        years = Arrays.copyOf(years, capacity);
+        faces = Arrays.copyOf(faces, capacity);
+        values = Arrays.copyOf(values, capacity);
+      }
+      modes[count] = mode;
+      coupons[count] = coupon;
+      years[count] = year;
+      faces[count] = face;
+      values[count] = value;
+      count++;
+    }
+
+    /* Adds a copy of another request */
+    void add(Requests from, int index) {
+      add(from.modes[index], from.coupons[index], from.years[index], from.faces[index], from.values[index]);
+    }
+
+    /**
+    * Reads a request log, skipping the header and rows that are blank or cannot be read.
+    * @param  path log file
+    * @return      requests of the log
+    */
+    static Requests read(Path path) throws IOException {
+      Requests log = new Requests(1 << 16);
+      try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+        CsvReader reader = new CsvReader(in, 1 << 20);
+        while (reader.nextRow()) {
+          byte mode = reader.length(0) == 1 ? (byte) Character.toLowerCase(reader.byteAt(0, 0)) : 0;
+          if ((mode != PRICE && mode != YIELD) || reader.fieldCount() != 5) {
+            log.skipped += reader.row() == 1 && mode == 0 ? 0 : 1;
+            continue;
+          }
+          try {
+            log.add(mode, reader.parseDouble(1), reader.parseInt(2), reader.parseDouble(3), reader.parseDouble(4));
+          } catch (NumberFormatException e) {
+            log.skipped++;
+          }
+        }
+      }
+      return log;
+    }
+
+    /**
+    * Writes the requests as a log that read gives back exactly.
+    * @param  path log file, replaced if it exists
+    */
+    void write(Path path) throws IOException {
+      try (BufferedWriter out = Files.newBufferedWriter(path)) {
+        out.write("mode,coupon,years,face,value\n");
+        for (int i = 0; i < count; i++) {
+          out.write((char) modes[i]);
+          out.write("," + coupons[i] + "," + years[i] + "," + faces[i] + "," + values[i] + "\n");
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,39 @@
+/**
+ * Evicts the least recently used slot once more than capacity slots are in use.
+ */
+class LruPolicy implements EvictionPolicy {
+  private static final int ENTRIES = 0;
+
+  private final int capacity;
+  private final SlotLists lists = new SlotLists(1);
+
+  LruPolicy(int capacity) {
+    this.capacity = capacity;
+  }
+
+  public int onInsert(int slot, int hash) {
+    lists.addFirst(ENTRIES, slot);
+    if (lists.size(ENTRIES) <= capacity) {
+      return -1;
+    }
+    int victim = lists.last(ENTRIES);
+    lists.remove(victim);
+    return victim;
+  }
+
+  public void onAccess(int slot, int hash) {
+    lists.moveToFirst(ENTRIES, slot);
+  }
+
+  public void onRemove(int slot) {
+    lists.remove(slot);
+  }
+
+  public void resize(int slots) {
+    lists.resize(slots);
+  }
+
+  public void clear() {
+    lists.clear();
+  }
+}
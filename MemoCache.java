@@ -0,0 +1,212 @@
+import java.util.Arrays;
+
+/**
+ * Bookkeeping shared by the calculator's memos.
+ * Every entry lives in a numbered slot. Subclasses keep keys and values in
+ * arrays indexed by slot; this class hands out and recycles slots, lets the
+ * configured eviction policy pick which slot to give up when the memo is
+ * full, expires slots past their time to live, and counts hits and misses.
+ */
+public abstract class MemoCache {
+  private static final int INITIAL_SLOTS = 16;
+
+  protected final CacheConfig config;
+  private final EvictionPolicy policy;    /* null when unbounded */
+  private final int maxSlots;
+
+  private long[] writtenAt;               /* null unless entries expire */
+  private int[] freeSlots = new int[0];
+  private int freeCount;
+  private int slotCount;                  /* slots handed out so far */
+  private int slotCapacity;
+  private int size;
+
+  private long hits;
+  private long misses;
+  private long evictions;
+  private long expirations;
+
+  protected MemoCache(CacheConfig config) {
+    this.config = config;
+    switch (config.policy()) {
+      case LRU:
+        policy = new LruPolicy(config.capacity());
+        break;
+      case TINY_LFU:
+        policy = new TinyLfuPolicy(config.capacity());
+        break;
+      case CLOCK:
+        throw new IllegalArgumentException("Clock eviction is only for the off-heap yield memo, see OffHeapYieldCache");
+      default:
+        policy = null;
+    }
+    /* A bounded memo briefly holds one entry over capacity until the policy picks a victim */
+    maxSlots = policy == null ? Integer.MAX_VALUE - 8 : config.capacity() + 1;
+    writtenAt = config.expires() ? new long[0] : null;
+  }
+
+  /**
+  * Stores arrays for slots 0 to slots - 1, keeping existing entries.
+  * @param  slots new number of slots
+  */
+  protected abstract void resizeSlots(int slots);
+
+  /**
+  * Drops the entry in a slot from the subclass's key index and arrays.
+  * @param  slot slot to clear
+  */
+  protected abstract void removeSlot(int slot);
+
+  /**
+  * Approximate heap used by the entries currently held.
+  * @return estimated bytes
+  */
+  protected abstract long estimatedBytes();
+
+  /**
+  * Approximate heap the memo's own bookkeeping uses per entry:
+  * the eviction policy's links and the write time when entries expire.
+  * @return bytes per entry
+  */
+  protected final int overheadBytesPerEntry() {
+    int bytes = 0;
+    if (policy != null) {
+      bytes += 13;    /* prev + next + list, plus the key hash for TinyLFU */
+    }
+    if (writtenAt != null) {
+      bytes += 8;
+    }
+    return bytes;
+  }
+
+  /**
+  * Reserves a slot for a new entry. The caller writes the entry into the
+  * slot and then calls admit.
+  * @return free slot
+  */
+  protected final int newSlot() {
+    if (freeCount > 0) {
+      return freeSlots[--freeCount];
+    }
+    if (slotCount == slotCapacity) {
+      growSlots();
+    }
+    return slotCount++;
+  }
+
+  /**
+  * Hands a freshly written slot to the eviction policy. If the memo is
+  * over capacity, the policy's victim (possibly this very slot) is removed.
+  * @param  slot slot the entry was written to
+  * @param  hash hash of the entry's key
+  */
+  protected final void admit(int slot, int hash) {
+    size++;
+    if (writtenAt != null) {
+      writtenAt[slot] = System.nanoTime();
+    }
+    if (policy != null) {
+      int victim = policy.onInsert(slot, hash);
+      if (victim >= 0) {
+        evictions++;
+        release(victim);
+      }
+    }
+  }
+
+  /**
+  * Records a lookup that found its key. An entry past its time to live
+  * is removed and counted as a miss instead.
+  * @param  slot slot the key was found in
+  * @param  hash hash of the key
+  * @return      true if the entry may be used
+  */
+  protected final boolean recordHit(int slot, int hash) {
+    if (writtenAt != null && System.nanoTime() - writtenAt[slot] > config.timeToLiveNanos()) {
+      expirations++;
+      misses++;
+      if (policy != null) {
+        policy.onRemove(slot);
+      }
+      release(slot);
+      return false;
+    }
+    hits++;
+    if (policy != null) {
+      policy.onAccess(slot, hash);
+    }
+    return true;
+  }
+
+  /**
+  * Records a lookup that did not find its key.
+  */
+  protected final void recordMiss() {
+    misses++;
+  }
+
+  /**
+  * Checks that a slot holding an entry has not passed its time to live,
+  * without counting a lookup.
+  * @param  slot slot of the entry
+  * @return      true if the entry may be used
+  */
+  protected final boolean isLive(int slot) {
+    return writtenAt == null || System.nanoTime() - writtenAt[slot] <= config.timeToLiveNanos();
+  }
+
+  /**
+  * Number of entries currently held.
+  * @return size of the memo
+  */
+  public int size() {
+    return size;
+  }
+
+  /**
+  * Removes every entry. Hit and miss counts are kept.
+  */
+  public void clear() {
+    for (int slot = 0; slot < slotCount; slot++) {
+      removeSlot(slot);
+    }
+    if (policy != null) {
+      policy.clear();
+    }
+    freeCount = 0;
+    slotCount = 0;
+    size = 0;
+  }
+
+  /**
+  * Snapshot of the memo's counters.
+  * @return stats of the memo
+  */
+  public CacheStats stats() {
+    return new CacheStats(hits, misses, evictions, expirations, size, estimatedBytes());
+  }
+
+  private void release(int slot) {
+    removeSlot(slot);
+    size--;
+    if (freeCount == freeSlots.length) {
+      freeSlots = Arrays.copyOf(freeSlots, Math.max(INITIAL_SLOTS, freeCount * 2));
+    }
+    freeSlots[freeCount++] = slot;
+  }
+
+  private void growSlots() {
+    if (slotCapacity == maxSlots) {
+      throw new IllegalStateException("Memo cannot hold more than " + maxSlots + " entries");
+    }
+    int slots = (int) Math.min(maxSlots, Math.max(INITIAL_SLOTS, slotCapacity * 2L));
+    resizeSlots(slots);
+    if (policy != null) {
+      policy.resize(slots);
+    }
+    if (writtenAt != null) {
+      writtenAt = Arrays.copyOf(writtenAt, slots);
+    }
+    slotCapacity = slots;
+  }
+}
@@ -0,0 +1,428 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Read-only copy of a calculator's memos kept in a memory-mapped file.
+ * The file holds two open addressing tables laid out the same way as the
+ * in-memory memos: one of yields keyed by (coupon, years, face, price) and
+ * one of discount rows keyed by rate, followed by the factors of every row. Lookups probe the mapped bytes directly, so loading a snapshot
+ * only maps and checks the file; nothing is copied onto the heap.
+ *
+ * Layout, little endian:
+ *   header       64 bytes, see the offsets below
+ *   yield table  40 bytes per slot: coupon, years, face, price, yield (years = -1 if empty)
+ *   rate table   24 bytes per slot: rate, offset of factors, filled (filled = -1 if empty)
+ *   factors      annuity and discount factor pairs, filled + 1 pairs per row
+ *
+ * The header records the format version and a fingerprint of how the yields
+ * were calculated, and a CRC32 of the whole file. A file that is truncated,
+ * corrupt, from another version, or from a calculator that solves yields
+ * differently is rejected when loaded.
+ * A file that is mapped cannot be replaced on Windows, so save to a new file
+ * rather than over the snapshot that is loaded.
+ */
+public class MemoSnapshot {
+  /* "CHIMEMO" followed by a zero byte */
+  private static final long MAGIC = 0x004f4d454d494843L;
+  static final int VERSION = 2;
+
+  private static final int HEADER_BYTES = 64;
+  private static final int MAGIC_AT = 0;
+  private static final int VERSION_AT = 8;
+  private static final int HEADER_BYTES_AT = 12;
+  private static final int FINGERPRINT_AT = 16;
+  private static final int YIELD_SLOTS_AT = 24;
+  private static final int YIELD_COUNT_AT = 28;
+  private static final int RATE_SLOTS_AT = 32;
+  private static final int RATE_COUNT_AT = 36;
+  private static final int LENGTH_AT = 40;
+  private static final int CRC_AT = 48;
+
+  private static final int YIELD_ENTRY = 40;
+  private static final int RATE_ENTRY = 24;
+
+  private static final long EMPTY = -1;
+  private static final int MAX_SLOTS = 1 << 30;
+
+  private final ByteBuffer file;
+  private final int yieldMask;
+  private final int yieldCount;
+  private final int rateMask;
+  private final int rateCount;
+  private final int rateTable;
+
+  private MemoSnapshot(ByteBuffer file) {
+    this.file = file;
+    this.yieldMask = file.getInt(YIELD_SLOTS_AT) - 1;
+    this.yieldCount = file.getInt(YIELD_COUNT_AT);
+    this.rateMask = file.getInt(RATE_SLOTS_AT) - 1;
+    this.rateCount = file.getInt(RATE_COUNT_AT);
+    this.rateTable = HEADER_BYTES + (yieldMask + 1) * YIELD_ENTRY;
+  }
+
+  /**
+  * Maps a snapshot file and checks that it can be trusted.
+  * @param  file        snapshot file
+  * @param  fingerprint fingerprint the file has to have been written with
+  * @return             snapshot backed by the mapped file
+  * @throws IOException if the file cannot be read or is rejected
+  */
+  public static MemoSnapshot load(Path file, long fingerprint) throws IOException {
+    ByteBuffer mapped;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+        throw new IOException("Snapshot " + file + " has an impossible size of " + size + " bytes");
+      }
+      mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    if (mapped.getLong(MAGIC_AT) != MAGIC) {
+      throw new IOException(file + " is not a memo snapshot");
+    }
+    if (mapped.getInt(VERSION_AT) != VERSION || mapped.getInt(HEADER_BYTES_AT) != HEADER_BYTES) {
+      throw new IOException("Snapshot " + file + " is version " + mapped.getInt(VERSION_AT) + ", expected " + VERSION);
+    }
+    if (mapped.getLong(FINGERPRINT_AT) != fingerprint) {
+      throw new IOException("Snapshot " + file + " was written by a calculator that solves yields differently");
+    }
+    if (mapped.getLong(LENGTH_AT) != mapped.capacity()) {
+      throw new IOException("Snapshot " + file + " is " + mapped.capacity() + " bytes, expected " + mapped.getLong(LENGTH_AT));
+    }
+    if (mapped.getInt(CRC_AT) != checksum(mapped)) {
+      throw new IOException("Snapshot " + file + " is corrupt, checksum does not match");
+    }
+
+    int yieldSlots = mapped.getInt(YIELD_SLOTS_AT);
+    int rateSlots = mapped.getInt(RATE_SLOTS_AT);
+    long tables = HEADER_BYTES + (long) yieldSlots * YIELD_ENTRY + (long) rateSlots * RATE_ENTRY;
+    if (Integer.bitCount(yieldSlots) != 1 || Integer.bitCount(rateSlots) != 1 || tables > mapped.capacity()) {
+      throw new IOException("Snapshot " + file + " has an invalid table size");
+    }
+    return new MemoSnapshot(mapped);
+  }
+
+  /**
+  * Writes memos to a snapshot file. Entries of an earlier snapshot are
+  * carried over unless the memos hold the same key. The file is written
+  * under a temporary name and then moved over the target, so a reader never
+  * sees half a file.
+  * @param  file         snapshot file to write
+  * @param  fingerprint  fingerprint of how the yields were calculated
+  * @param  yieldMemo    yields to write
+  * @param  discountMemo discount rows to write
+  * @param  previous     earlier snapshot to carry over, may be null
+  * @throws IOException if the file cannot be written or would be too large
+  */
+  public static void write(Path file, long fingerprint, YieldMemo yieldMemo, DiscountMemo discountMemo,
+                           MemoSnapshot previous) throws IOException {
+    /* Copy the entries out first, the memos may keep changing while the file is written */
+    Entries entries = new Entries();
+    yieldMemo.forEach(entries::addYield);
+    discountMemo.forEach(entries::addRow);
+    int carriedYields = previous == null ? 0 : previous.yieldCount;
+    int carriedRows = previous == null ? 0 : previous.rateCount;
+    long carriedYears = previous == null ? 0 : previous.yearsCount();
+
+    int yieldSlots = slotsFor(entries.yieldCount + carriedYields);
+    int rateSlots = slotsFor(entries.rowCount + carriedRows);
+    long factorsAt = HEADER_BYTES + (long) yieldSlots * YIELD_ENTRY + (long) rateSlots * RATE_ENTRY;
+    long length = factorsAt + 16L * (entries.yearsCount + carriedYears);
+    if (length > Integer.MAX_VALUE) {
+      throw new IOException("Snapshot would be " + length + " bytes, more than a single mapping can hold");
+    }
+
+    Path target = file.toAbsolutePath();
+    Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+    try {
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        ByteBuffer out = mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        out.putLong(MAGIC_AT, MAGIC);
+        out.putInt(VERSION_AT, VERSION);
+        out.putInt(HEADER_BYTES_AT, HEADER_BYTES);
+        out.putLong(FINGERPRINT_AT, fingerprint);
+        out.putInt(YIELD_SLOTS_AT, yieldSlots);
+        out.putInt(RATE_SLOTS_AT, rateSlots);
+        out.putLong(LENGTH_AT, length);
+        for (int slot = 0; slot < yieldSlots; slot++) {
+          out.putLong(HEADER_BYTES + slot * YIELD_ENTRY + 8, EMPTY);
+        }
+        for (int slot = 0; slot < rateSlots; slot++) {
+          out.putLong(HEADER_BYTES + yieldSlots * YIELD_ENTRY + slot * RATE_ENTRY + 16, EMPTY);
+        }
+
+        MemoSnapshot snapshot = new MemoSnapshot(out);
+        long factorsEnd = factorsAt;
+        for (int i = 0; i < entries.yieldCount; i++) {
+          int base = i * 5;
+          snapshot.putYield(entries.yields[base], entries.yields[base + 1], entries.yields[base + 2],
+                            entries.yields[base + 3], entries.yields[base + 4]);
+        }
+        for (int i = 0; i < entries.rowCount; i++) {
+          factorsEnd = snapshot.putRow(entries.rowKeys[i], entries.rows[i], entries.rowFilled[i], factorsEnd);
+        }
+        if (previous != null) {
+          factorsEnd = snapshot.carryOver(previous, factorsEnd);
+        }
+
+        /* Rows carried over from the earlier snapshot that the memos also hold leave unused space at the end */
+        out.putInt(YIELD_COUNT_AT, snapshot.countYields());
+        out.putInt(RATE_COUNT_AT, snapshot.countRows());
+        out.putInt(CRC_AT, checksum(out));
+        mapped.force();
+      }
+      try {
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+  * Looks up a yield.
+  * @param  coupon coupon rate
+  * @param  years  number of years to maturity
+  * @param  face   face value
+  * @param  price  price of bond
+  * @return        stored yield, or YieldMemo.MISS if there is none
+  */
+  public double yield(double coupon, int years, double face, double price) {
+    long couponBits = Double.doubleToLongBits(coupon);
+    long faceBits = Double.doubleToLongBits(face);
+    long priceBits = Double.doubleToLongBits(price);
+    int at = findYield(couponBits, years, faceBits, priceBits);
+    if (file.getLong(at + 8) == EMPTY) {
+      return YieldMemo.MISS;
+    }
+    return file.getDouble(at + 32);
+  }
+
+  /**
+  * Prices a bond from the factors of its rate.
+  * @param  cf    coupon payment
+  * @param  face  face value
+  * @param  rate  discount rate
+  * @param  years number of years to maturity
+  * @return       price of bond, or YieldMemo.MISS if the rate is missing or not filled that far
+  */
+  public double price(double cf, double face, double rate, int years) {
+    int at = findRow(Double.doubleToLongBits(rate));
+    long filled = file.getLong(at + 16);
+    if (filled == EMPTY || years > filled || years < 0) {
+      return YieldMemo.MISS;
+    }
+    int factors = (int) file.getLong(at + 8) + 16 * years;
+    return cf * file.getDouble(factors) + face * file.getDouble(factors + 8);
+  }
+
+  /* Number of yields in the snapshot */
+  public int yieldCount() {
+    return yieldCount;
+  }
+
+  /* Number of rates in the snapshot */
+  public int rateCount() {
+    return rateCount;
+  }
+
+  /* Size of the mapped file */
+  public long bytes() {
+    return file.capacity();
+  }
+
+  /**
+  * Position of a yield key's slot, or of the empty slot it would go in.
+  * @return byte offset of the slot
+  */
+  private int findYield(long coupon, long years, long face, long price) {
+    int slot = (int) YieldCache.hash(coupon, years, face, price) & yieldMask;
+    while (true) {
+      int at = HEADER_BYTES + slot * YIELD_ENTRY;
+      long storedYears = file.getLong(at + 8);
+      if (storedYears == EMPTY || (storedYears == years && file.getLong(at) == coupon
+                                   && file.getLong(at + 16) == face && file.getLong(at + 24) == price)) {
+        return at;
+      }
+      slot = (slot + 1) & yieldMask;
+    }
+  }
+
+  /**
+  * Position of a rate's slot, or of the empty slot it would go in.
+  * @return byte offset of the slot
+  */
+  private int findRow(long rate) {
+    int slot = (int) DiscountCache.hash(rate) & rateMask;
+    while (true) {
+      int at = rateTable + slot * RATE_ENTRY;
+      if (file.getLong(at + 16) == EMPTY || file.getLong(at) == rate) {
+        return at;
+      }
+      slot = (slot + 1) & rateMask;
+    }
+  }
+
+  /* Adds a yield unless its key is already there */
+  private void putYield(long coupon, long years, long face, long price, long yield) {
+    int at = findYield(coupon, years, face, price);
+    if (file.getLong(at + 8) == EMPTY) {
+      file.putLong(at, coupon);
+      file.putLong(at + 8, years);
+      file.putLong(at + 16, face);
+      file.putLong(at + 24, price);
+      file.putLong(at + 32, yield);
+    }
+  }
+
+  /**
+  * Adds a discount row unless its rate is already there.
+  * @return end of the factors written so far
+  */
+  private long putRow(long rate, DiscountRow row, int filled, long factorsEnd) {
+    int at = findRow(rate);
+    if (file.getLong(at + 16) != EMPTY) {
+      return factorsEnd;
+    }
+    file.putLong(at, rate);
+    file.putLong(at + 8, factorsEnd);
+    file.putLong(at + 16, filled);
+    for (int year = 0; year <= filled; year++) {
+      file.putDouble((int) factorsEnd + 16 * year, row.annuity(year));
+      file.putDouble((int) factorsEnd + 16 * year + 8, row.discount(year));
+    }
+    return factorsEnd + 16L * (filled + 1);
+  }
+
+  /**
+  * Copies every entry of another snapshot whose key is not already here.
+  * @return end of the factors written so far
+  */
+  private long carryOver(MemoSnapshot previous, long factorsEnd) {
+    ByteBuffer from = previous.file;
+    for (int slot = 0; slot <= previous.yieldMask; slot++) {
+      int at = HEADER_BYTES + slot * YIELD_ENTRY;
+      if (from.getLong(at + 8) != EMPTY) {
+        putYield(from.getLong(at), from.getLong(at + 8), from.getLong(at + 16), from.getLong(at + 24), from.getLong(at + 32));
+      }
+    }
+    for (int slot = 0; slot <= previous.rateMask; slot++) {
+      int at = previous.rateTable + slot * RATE_ENTRY;
+      long filled = from.getLong(at + 16);
+      if (filled == EMPTY) {
+        continue;
+      }
+      int into = findRow(from.getLong(at));
+      if (file.getLong(into + 16) == EMPTY) {
+        file.putLong(into, from.getLong(at));
+        file.putLong(into + 8, factorsEnd);
+        file.putLong(into + 16, filled);
+        int source = (int) from.getLong(at + 8);
+        for (int i = 0; i < 2 * (filled + 1); i++) {
+          file.putLong((int) factorsEnd + 8 * i, from.getLong(source + 8 * i));
+        }
+        factorsEnd += 16L * (filled + 1);
+      }
+    }
+    return factorsEnd;
+  }
+
+  /* Number of years of factors stored over all rows */
+  private long yearsCount() {
+    long count = 0;
+    for (int slot = 0; slot <= rateMask; slot++) {
+      long filled = file.getLong(rateTable + slot * RATE_ENTRY + 16);
+      if (filled != EMPTY) {
+        count += filled + 1;
+      }
+    }
+    return count;
+  }
+
+  private int countYields() {
+    int count = 0;
+    for (int slot = 0; slot <= yieldMask; slot++) {
+      if (file.getLong(HEADER_BYTES + slot * YIELD_ENTRY + 8) != EMPTY) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private int countRows() {
+    int count = 0;
+    for (int slot = 0; slot <= rateMask; slot++) {
+      if (file.getLong(rateTable + slot * RATE_ENTRY + 16) != EMPTY) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /* Table size that keeps the load at or below one half */
+  private static int slotsFor(long entries) throws IOException {
+    if (entries > MAX_SLOTS / 2) {
+      throw new IOException("Too many entries for a snapshot: " + entries);
+    }
+    return Math.max(16, Integer.highestOneBit((int) Math.max(1, entries * 2) - 1) << 1);
+  }
+
+  /* CRC32 of the whole file except the CRC field itself */
+  private static int checksum(ByteBuffer file) {
+    CRC32 crc = new CRC32();
+    ByteBuffer view = file.duplicate();
+    view.position(0).limit(CRC_AT);
+    crc.update(view);
+    view.limit(file.capacity()).position(CRC_AT + 4);
+    crc.update(view);
+    return (int) crc.getValue();
+  }
+
+  /* Entries copied out of the memos before writing */
+  private static class Entries {
+    long[] yields = new long[0];
+    int yieldCount;
+    long[] rowKeys = new long[0];
+    DiscountRow[] rows = new DiscountRow[0];
+    int[] rowFilled = new int[0];
+    int rowCount;
+    long yearsCount;
+
+    void addYield(double coupon, int years, double face, double price, double yield) {
+      if (5 * (yieldCount + 1) > yields.length) {
+        yields = Arrays.copyOf(yields, Math.max(80, yields.length * 2));
+      }
+      int base = 5 * yieldCount++;
+      yields[base] = Double.doubleToLongBits(coupon);
+      yields[base + 1] = years;
+      yields[base + 2] = Double.doubleToLongBits(face);
+      yields[base + 3] = Double.doubleToLongBits(price);
+      yields[base + 4] = Double.doubleToLongBits(yield);
+    }
+
+    void addRow(double rate, DiscountRow row) {
+      if (rowCount == rows.length) {
+        int capacity = Math.max(16, rows.length * 2);
+        rowKeys = Arrays.copyOf(rowKeys, capacity);
+        rows = Arrays.copyOf(rows, capacity);
+        rowFilled = Arrays.copyOf(rowFilled, capacity);
+      }
+      /* Factors up to filled never change once written, read filled once so the row can keep growing */
+      int filled = row.filled();
+      rowKeys[rowCount] = Double.doubleToLongBits(rate);
+      rows[rowCount] = row;
+      rowFilled[rowCount] = filled;
+      rowCount++;
+      yearsCount += filled + 1;
+    }
+  }
+}
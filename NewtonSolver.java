@@ -0,0 +1,316 @@
+/**
+ * Finds the yield of a bond using a safeguarded Newton-Raphson method.
+ * Uses the same brackets as BisectionSolver, but steps along the analytic
+ * price derivative instead of halving the bracket. Whenever a Newton step
+ * would leave the bracket or is not shrinking fast enough, a bisection step
+ * is taken instead, so it can never do worse than bisection.
+ */
+public class NewtonSolver implements YieldSolver {
+  private static final double ACCURACY = BondYieldCalculator.ACCURACY;
+
+  /* Newton steps solveNear takes from the same side of the root before starting over */
+  private static final int MAX_NEAR_STEPS = 4;
+
+  /**
+  * Use safeguarded Newton-Raphson method to find the yield.
+  * @param  calc   calculator used to price the bond at each guess
+  * @param  coupon coupon rate
+  * @param  years  number of years to maturity
+  * @param  face   face value
+  * @param  price  price of bond
+  * @return        yield of bond
+  */
+  public double solve(BondYieldCalculator calc, double coupon, int years, double face, double price) {
+    YieldBudget.Tracker tracker = calc.solveTracker(price);
+    return recorded(calc, tracker, find(calc, coupon, years, face, price, tracker));
+  }
+
+  /**
+  * Use safeguarded Newton-Raphson method to find the yield within a budget.
+  * @param  calc   calculator used to price the bond at each guess
+  * @param  coupon coupon rate
+  * @param  years  number of years to maturity
+  * @param  face   face value
+  * @param  price  price of bond
+  * @param  budget limits on iterations, time, and tolerance
+  * @return        yield of bond and how the solve went
+  */
+  public YieldResult solve(BondYieldCalculator calc, double coupon, int years, double face, double price, YieldBudget budget) {
+    YieldBudget.Tracker tracker = budget.start(price);
+    double yield = recorded(calc, tracker, find(calc, coupon, years, face, price, tracker));
+    return tracker.finish(calc, coupon, years, face, price, yield);
+  }
+
+  /**
+  * Brackets the yield and runs the iteration inside the bracket.
+  * @param  calc    calculator used to price the bond at each guess
+  * @param  coupon  coupon rate
+  * @param  years   number of years to maturity
+  * @param  face    face value
+  * @param  price   price of bond
+  * @param  tracker budget of the solve, null for no budget and a tolerance of ACCURACY
+  * @return         yield of bond
+  */
+  private double find(BondYieldCalculator calc, double coupon, int years, double face, double price, YieldBudget.Tracker tracker) {
+    /* Special case year = 0: return 0.0 */
+    if (years == 0) { return 0.0; }
+
+    double tolerance = tracker == null ? ACCURACY : tracker.tolerance;
+
+    /* Same brackets as bisection so both agree on when there is no yield */
+    YieldBracket bracket = YieldBracket.classify(coupon, years, face, price);
+    if (bracket == YieldBracket.NO_ROOT) {
+      return Double.NaN;
+    } else if (bracket == YieldBracket.ZERO) {
+      return 0.0;
+    }
+
+    double guessA = bracket.guessA;
+    double guessB = bracket.guessB;
+    double priceA = calc.CalcPrice(coupon, years, face, guessA) - price;
+    double priceB = calc.CalcPrice(coupon, years, face, guessB) - price;
+
+    int direction = bracket.direction;
+
+    if (priceA * priceB > 0 && bracket == YieldBracket.UNKNOWN) {
+      if (years % 2 == 0) {
+        bracket = YieldBracket.FLIPPED;
+        guessA = -5.0;
+        guessB = -1.0 - ACCURACY;
+        direction = -1;
+        priceA = calc.CalcPrice(coupon, years, face, guessA) - price;
+        priceB = calc.CalcPrice(coupon, years, face, guessB) - price;
+      } else {
+        return Double.NaN;
+      }
+    }
+
+    if (bracket == YieldBracket.FLIPPED && tracker != null) {
+      tracker.flipped = true;
+    }
+
+    /*
+    * Coupon terms overflow with alternating signs next to the asymptote
+    * and give NaN. Back away from it doubling the distance each time
+    * rather than creeping in steps of ACCURACY like bisection does.
+    */
+    double gap = ACCURACY;
+    while (Double.isNaN(priceB) && gap < 1.0) {
+      gap *= 2;
+      guessB = -1.0 + gap * direction;
+      priceB = calc.CalcPrice(coupon, years, face, guessB) - price;
+    }
+
+    if (priceA * priceB > 0 || Double.isNaN(priceB)) {
+      return Double.NaN;
+    }
+
+    if (Math.abs(priceA) < tolerance) {
+      return guessA;
+    } else if (Math.abs(priceB) < tolerance) {
+      return guessB;
+    }
+
+    /* Keep track of which end of the bracket is below and which is above the price */
+    double below = priceA < 0 ? guessA : guessB;
+    double above = priceA < 0 ? guessB : guessA;
+
+    double guess = approximateYield(coupon, years, face, price);
+    if (!isBetween(guess, below, above)) {
+      guess = (below + above) / 2;
+    }
+    return iterate(calc, coupon, years, face, price, guess, calc.CalcPrice(coupon, years, face, guess) - price,
+                   below, above, tracker);
+  }
+
+  /**
+  * Starts from a nearby guess whose price is already known, such as the
+  * yield and price of the bond's previous tick, so the first Newton step
+  * costs a derivative and no price. The step is confirmed with one price.
+  * The known price only sets the length of that step: if the guess did
+  * not converge, it may not be within ACCURACY of the real price there,
+  * so it is never trusted to tell which side of the target the guess is.
+  * The price is convex in the yield, so after one step further Newton
+  * steps close in from the side above the target. Once two priced steps
+  * fall either side, they bracket the root and the safeguarded iteration
+  * runs inside them. A move too large for that, or one that would cross
+  * -1, carries on as solve does, with the iterations already spent.
+  * @param  calc       calculator used to price the bond at each guess
+  * @param  coupon     coupon rate
+  * @param  years      number of years to maturity
+  * @param  face       face value
+  * @param  price      price of bond
+  * @param  guess      yield to start from
+  * @param  guessPrice price of bond at guess, usually to within ACCURACY
+  * @return            yield of bond
+  */
+  public double solveNear(BondYieldCalculator calc, double coupon, int years, double face, double price,
+                          double guess, double guessPrice) {
+    /* Special case year = 0: return 0.0 */
+    if (years == 0) { return 0.0; }
+
+    YieldBudget.Tracker tracker = calc.solveTracker(price);
+    double from = guess;
+    double priceF = guessPrice - price;
+    for (int steps = 0; steps < MAX_NEAR_STEPS; steps++) {
+      if (tracker != null && !tracker.spend()) {
+        return recorded(calc, tracker, from);
+      }
+      double next = from - priceF / calc.CalcPriceDerivative(coupon, years, face, from);
+      if (Double.isNaN(next) || Double.isInfinite(next) || (guess + 1.0) * (next + 1.0) <= 0) {
+        break;
+      }
+      double priceN = calc.CalcPrice(coupon, years, face, next) - price;
+      if (Math.abs(priceN) < ACCURACY) {
+        return recorded(calc, tracker, next);
+      }
+
+      /* Only a price worked out here tells which side of the target a yield is on */
+      if (steps > 0 && priceF * priceN < 0) {
+        double below = priceF < 0 ? from : next;
+        double above = priceF < 0 ? next : from;
+        return recorded(calc, tracker, iterate(calc, coupon, years, face, price, next, priceN, below, above, tracker));
+      }
+      if (!(Math.abs(priceN) < Math.abs(priceF))) {
+        break;
+      }
+      from = next;
+      priceF = priceN;
+    }
+    return recorded(calc, tracker, find(calc, coupon, years, face, price, tracker));
+  }
+
+  /**
+  * Searches only between two yields, starting from where the line through
+  * the known prices at both ends crosses the target. A narrow bracket from
+  * neighbouring prices puts that point next to the root, so it usually
+  * takes a price or two. Falls back to solve if the ends do not price
+  * either side of the target.
+  * @param  calc      calculator used to price the bond at each guess
+  * @param  coupon    coupon rate
+  * @param  years     number of years to maturity
+  * @param  face      face value
+  * @param  price     price of bond
+  * @param  low       one end of the bracket
+  * @param  lowPrice  price of bond at low
+  * @param  high      other end of the bracket
+  * @param  highPrice price of bond at high
+  * @return           yield of bond
+  */
+  public double solveWithin(BondYieldCalculator calc, double coupon, int years, double face, double price,
+                            double low, double lowPrice, double high, double highPrice) {
+    /* Special case year = 0: return 0.0 */
+    if (years == 0) { return 0.0; }
+
+    double priceL = lowPrice - price;
+    double priceH = highPrice - price;
+    if (!(priceL * priceH < 0)) {
+      return solve(calc, coupon, years, face, price);
+    }
+
+    double below = priceL < 0 ? low : high;
+    double above = priceL < 0 ? high : low;
+    double guess = low - priceL * (high - low) / (priceH - priceL);
+    if (!isBetween(guess, below, above)) {
+      guess = (below + above) / 2;
+    }
+    YieldBudget.Tracker tracker = calc.solveTracker(price);
+    return recorded(calc, tracker, iterate(calc, coupon, years, face, price, guess,
+                                           calc.CalcPrice(coupon, years, face, guess) - price, below, above, tracker));
+  }
+
+  /**
+  * Runs the safeguarded Newton iteration inside a bracket.
+  * @param  calc    calculator used to price the bond at each guess
+  * @param  coupon  coupon rate
+  * @param  years   number of years to maturity
+  * @param  face    face value
+  * @param  price   price of bond
+  * @param  guess   starting point, inside the bracket
+  * @param  priceC  price at the starting point minus the price of bond
+  * @param  below   end of the bracket that prices below the target
+  * @param  above   end of the bracket that prices above the target
+  * @param  tracker budget of the solve, null for no budget and a tolerance of ACCURACY
+  * @return         yield of bond, the latest guess if the budget runs out
+  */
+  private double iterate(BondYieldCalculator calc, double coupon, int years, double face, double price,
+                         double guess, double priceC, double below, double above, YieldBudget.Tracker tracker) {
+    double tolerance = tracker == null ? ACCURACY : tracker.tolerance;
+    double step = Math.abs(above - below);
+    double lastStep = step;
+
+    while (Math.abs(priceC) >= tolerance) {
+      if (Double.isNaN(priceC)) {
+        return Double.NaN;
+      }
+      if (tracker != null && !tracker.spend()) {
+        return guess;
+      }
+
+      if (priceC < 0) {
+        below = guess;
+      } else {
+        above = guess;
+      }
+
+      double slope = calc.CalcPriceDerivative(coupon, years, face, guess);
+      double next = guess - priceC / slope;
+
+      /*
+      * Bisect if the Newton step leaves the bracket or if it did not
+      * at least halve the step taken two iterations ago.
+      */
+      if (!isBetween(next, below, above) || Math.abs(2.0 * priceC) > Math.abs(lastStep * slope)) {
+        next = (below + above) / 2;
+      }
+      lastStep = step;
+      step = next - guess;
+
+      /* Bracket has collapsed to neighbouring doubles, cannot get any closer */
+      if (next == guess || next == below || next == above) {
+        return guess;
+      }
+
+      guess = next;
+      priceC = calc.CalcPrice(coupon, years, face, guess) - price;
+    }
+
+    return guess;
+  }
+
+  /**
+  * Hands a finished solve to the calculator's metrics.
+  * @param  calc    calculator that asked for the solve
+  * @param  tracker iterations of the solve, null while the metrics are off
+  * @param  yield   yield found
+  * @return         yield
+  */
+  private double recorded(BondYieldCalculator calc, YieldBudget.Tracker tracker, double yield) {
+    calc.recordSolve(tracker, yield);
+    return yield;
+  }
+
+  /**
+  * Checks if a value lies strictly inside a bracket given in either order.
+  * @param  value value to check
+  * @param  a     one end of the bracket
+  * @param  b     other end of the bracket
+  * @return       true if value is strictly between a and b
+  */
+  private boolean isBetween(double value, double a, double b) {
+    return value > Math.min(a, b) && value < Math.max(a, b);
+  }
+
+  /**
+  * Approximates the yield to maturity to get a starting point close to the root.
+  * (C + (F - P) / N) / ((F + P) / 2)
+  * @param  coupon coupon rate
+  * @param  years  number of years to maturity
+  * @param  face   face value
+  * @param  price  price of bond
+  * @return        approximate yield, may be NaN
+  */
+  private double approximateYield(double coupon, int years, double face, double price) {
+    return (coupon * face + (face - price) / years) / ((face + price) / 2);
+  }
+}
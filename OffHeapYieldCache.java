@@ -0,0 +1,305 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Yield memo held outside the Java heap, for memos of hundreds of millions
+ * of yields. On the heap those would be hundreds of millions of objects or
+ * huge arrays for the collector to scan and copy. Here the heap holds only
+ * a few small arrays, however many entries there are, so GC pauses do not
+ * grow with the memo.
+ *
+ * Entries live in a fixed table of buckets in direct ByteBuffers, split
+ * into chunks because one buffer cannot be larger than 2 GB. A key hashes
+ * to one bucket of WAYS entries, which holds the raw bits of the coupon,
+ * face value and price, the years and the yield inline. The bucket starts
+ * with a tag per entry, 30 bits of the hash plus a used and a referenced
+ * bit, so a lookup reads one cache line of tags before touching any entry.
+ *
+ * A full bucket evicts with the clock algorithm: a hand goes round the
+ * bucket, giving every referenced entry a second chance by clearing its
+ * bit, and replaces the first entry that was not used since the last pass.
+ * Hits set the bit. Entries never expire and there are no ladders of
+ * prices per bond, so neighbours always returns false and misses solve
+ * from the full bracket.
+ *
+ * Buckets are guarded by a power of two number of locks, so the memo can
+ * be shared between threads. The memory is allocated up front, capacity
+ * rounded up to whole buckets, and is only returned once the memo is
+ * garbage. The JVM caps direct memory at the heap size unless
+ * -XX:MaxDirectMemorySize says otherwise.
+ */
+public class OffHeapYieldCache implements YieldMemo {
+  /* Entries per bucket */
+  static final int WAYS = 8;
+
+  /* Tag of each way, then the clock hand, padded to a cache line */
+  private static final int HEADER_BYTES = 64;
+  private static final int HAND = 4 * WAYS;
+
+  /* Entry layout: coupon, face, price, and yield as 8 bytes each, then years */
+  private static final int COUPON = 0;
+  private static final int FACE = 8;
+  private static final int PRICE = 16;
+  private static final int YIELD = 24;
+  private static final int YEARS = 32;
+  private static final int ENTRY_BYTES = 40;
+
+  private static final int BUCKET_BYTES = HEADER_BYTES + WAYS * ENTRY_BYTES;
+
+  /* Tag bits below the hash */
+  private static final int USED = 1;
+  private static final int REFERENCED = 2;
+  private static final int FLAGS = USED | REFERENCED;
+
+  /* Buckets per chunk, 1 << 20 makes 384 MB chunks */
+  private static final int CHUNK_SHIFT = 20;
+  private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+  /* Spacing of each lock's counters, so locks on different cores do not share a cache line */
+  private static final int PADDING = 8;
+
+  private final ByteBuffer[] chunks;
+  private final int bucketMask;
+  private final Object[] locks;
+  private final int lockMask;
+
+  /* Per lock, guarded by it: entries held, hits, misses, and evictions */
+  private final long[] sizes;
+  private final long[] hits;
+  private final long[] misses;
+  private final long[] evictions;
+
+  /**
+  * Creates an empty off-heap memo.
+  * @param  config CachePolicy.CLOCK config, see CacheConfig.offHeap
+  */
+  public OffHeapYieldCache(CacheConfig config) {
+    if (config.policy() != CachePolicy.CLOCK) {
+      throw new IllegalArgumentException("Off-heap memo needs a clock config, see CacheConfig.offHeap");
+    }
+    if (config.expires()) {
+      throw new IllegalArgumentException("Off-heap memo entries do not expire");
+    }
+    long wanted = ((long) config.capacity() + WAYS - 1) / WAYS;
+    int buckets = 1;
+    while (buckets < wanted) {
+      buckets <<= 1;
+    }
+    bucketMask = buckets - 1;
+
+    int chunkCount = (buckets + CHUNK_MASK) >>> CHUNK_SHIFT;
+    chunks = new ByteBuffer[chunkCount];
+    for (int i = 0; i < chunkCount; i++) {
+      int bucketsInChunk = Math.min(buckets - (i << CHUNK_SHIFT), 1 << CHUNK_SHIFT);
+      /* Buckets are whole cache lines, so start them on one to keep the tags in one line */
+      chunks[i] = ByteBuffer.allocateDirect(bucketsInChunk * BUCKET_BYTES + HEADER_BYTES - 1)
+                            .alignedSlice(HEADER_BYTES).order(ByteOrder.nativeOrder());
+    }
+
+    int lockCount = config.isStriped() ? config.stripes() : 1;
+    lockCount = Math.min(lockCount, buckets);
+    locks = new Object[lockCount];
+    for (int i = 0; i < lockCount; i++) {
+      locks[i] = new Object();
+    }
+    lockMask = lockCount - 1;
+    sizes = new long[lockCount * PADDING];
+    hits = new long[lockCount * PADDING];
+    misses = new long[lockCount * PADDING];
+    evictions = new long[lockCount * PADDING];
+  }
+
+  /* Entries the memo can hold, the capacity it was configured with rounded up to whole buckets */
+  public long capacity() {
+    return (long) (bucketMask + 1) * WAYS;
+  }
+
+  /* Bytes of direct memory the table takes */
+  public long offHeapBytes() {
+    return (long) (bucketMask + 1) * BUCKET_BYTES;
+  }
+
+  public double get(double coupon, int years, double face, double price) {
+    long couponBits = Double.doubleToLongBits(coupon);
+    long faceBits = Double.doubleToLongBits(face);
+    long priceBits = Double.doubleToLongBits(price);
+    long hash = YieldCache.hash(couponBits, years, faceBits, priceBits);
+    int bucket = (int) hash & bucketMask;
+    ByteBuffer chunk = chunks[bucket >>> CHUNK_SHIFT];
+    int base = (bucket & CHUNK_MASK) * BUCKET_BYTES;
+    int lock = bucket & lockMask;
+    synchronized (locks[lock]) {
+      int way = find(chunk, base, tagOf(hash), couponBits, years, faceBits, priceBits);
+      if (way < 0) {
+        misses[lock * PADDING]++;
+        return MISS;
+      }
+      hits[lock * PADDING]++;
+      int tag = chunk.getInt(base + 4 * way);
+      if ((tag & REFERENCED) == 0) {
+        chunk.putInt(base + 4 * way, tag | REFERENCED);
+      }
+      return chunk.getDouble(entry(base, way) + YIELD);
+    }
+  }
+
+  public void put(double coupon, int years, double face, double price, double yield) {
+    long couponBits = Double.doubleToLongBits(coupon);
+    long faceBits = Double.doubleToLongBits(face);
+    long priceBits = Double.doubleToLongBits(price);
+    long hash = YieldCache.hash(couponBits, years, faceBits, priceBits);
+    int bucket = (int) hash & bucketMask;
+    ByteBuffer chunk = chunks[bucket >>> CHUNK_SHIFT];
+    int base = (bucket & CHUNK_MASK) * BUCKET_BYTES;
+    int lock = bucket & lockMask;
+    int tag = tagOf(hash);
+    synchronized (locks[lock]) {
+      int way = find(chunk, base, tag, couponBits, years, faceBits, priceBits);
+      if (way < 0) {
+        way = freeWay(chunk, base);
+        if (way < 0) {
+          way = sweep(chunk, base);
+          evictions[lock * PADDING]++;
+        } else {
+          sizes[lock * PADDING]++;
+        }
+        int at = entry(base, way);
+        chunk.putLong(at + COUPON, couponBits);
+        chunk.putLong(at + FACE, faceBits);
+        chunk.putLong(at + PRICE, priceBits);
+        chunk.putInt(at + YEARS, years);
+        chunk.putInt(base + 4 * way, tag | USED);
+      }
+      chunk.putDouble(entry(base, way) + YIELD, yield);
+    }
+  }
+
+  public boolean neighbours(double coupon, int years, double face, double price, double[] out) {
+    return false;
+  }
+
+  public void forEach(Visitor visitor) {
+    for (int lock = 0; lock <= lockMask; lock++) {
+      synchronized (locks[lock]) {
+        for (int bucket = lock; bucket <= bucketMask; bucket += lockMask + 1) {
+          ByteBuffer chunk = chunks[bucket >>> CHUNK_SHIFT];
+          int base = (bucket & CHUNK_MASK) * BUCKET_BYTES;
+          for (int way = 0; way < WAYS; way++) {
+            if ((chunk.getInt(base + 4 * way) & USED) != 0) {
+              int at = entry(base, way);
+              visitor.visit(chunk.getDouble(at + COUPON), chunk.getInt(at + YEARS), chunk.getDouble(at + FACE),
+                            chunk.getDouble(at + PRICE), chunk.getDouble(at + YIELD));
+            }
+          }
+        }
+      }
+    }
+  }
+
+  public int size() {
+    long size = 0;
+    for (int lock = 0; lock <= lockMask; lock++) {
+      synchronized (locks[lock]) {
+        size += sizes[lock * PADDING];
+      }
+    }
+    return (int) Math.min(size, Integer.MAX_VALUE);
+  }
+
+  public void clear() {
+    for (int lock = 0; lock <= lockMask; lock++) {
+      synchronized (locks[lock]) {
+        for (int bucket = lock; bucket <= bucketMask; bucket += lockMask + 1) {
+          ByteBuffer chunk = chunks[bucket >>> CHUNK_SHIFT];
+          int base = (bucket & CHUNK_MASK) * BUCKET_BYTES;
+          for (int way = 0; way < WAYS; way++) {
+            chunk.putInt(base + 4 * way, 0);
+          }
+          chunk.putInt(base + HAND, 0);
+        }
+        sizes[lock * PADDING] = 0;
+      }
+    }
+  }
+
+  /* Hits, misses and evictions since creation; estimatedBytes is the direct memory of the table */
+  public CacheStats stats() {
+    long hitCount = 0;
+    long missCount = 0;
+    long evictionCount = 0;
+    long size = 0;
+    for (int lock = 0; lock <= lockMask; lock++) {
+      synchronized (locks[lock]) {
+        hitCount += hits[lock * PADDING];
+        missCount += misses[lock * PADDING];
+        evictionCount += evictions[lock * PADDING];
+        size += sizes[lock * PADDING];
+      }
+    }
+    return new CacheStats(hitCount, missCount, evictionCount, 0, (int) Math.min(size, Integer.MAX_VALUE), offHeapBytes());
+  }
+
+  /**
+  * Finds the way of a bucket holding a key.
+  * @param  chunk  chunk of the bucket
+  * @param  base   offset of the bucket in the chunk
+  * @param  tag    tag of the key, see tagOf
+  * @param  coupon raw bits of the coupon rate
+  * @param  years  number of years to maturity
+  * @param  face   raw bits of the face value
+  * @param  price  raw bits of the price
+  * @return        way of the key, or -1
+  */
+  private static int find(ByteBuffer chunk, int base, int tag, long coupon, int years, long face, long price) {
+    for (int way = 0; way < WAYS; way++) {
+      if ((chunk.getInt(base + 4 * way) & ~REFERENCED) == (tag | USED)) {
+        int at = entry(base, way);
+        if (chunk.getLong(at + PRICE) == price && chunk.getLong(at + COUPON) == coupon
+            && chunk.getLong(at + FACE) == face && chunk.getInt(at + YEARS) == years) {
+          return way;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /* First unused way of a bucket, or -1 if it is full */
+  private static int freeWay(ByteBuffer chunk, int base) {
+    for (int way = 0; way < WAYS; way++) {
+      if ((chunk.getInt(base + 4 * way) & USED) == 0) {
+        return way;
+      }
+    }
+    return -1;
+  }
+
+  /**
+  * Moves the bucket's clock hand to the first entry not referenced since
+  * the hand last passed it, clearing the referenced bits on the way.
+  * @param  chunk chunk of the bucket
+  * @param  base  offset of the bucket in the chunk
+  * @return       way to replace
+  */
+  private static int sweep(ByteBuffer chunk, int base) {
+    int hand = chunk.getInt(base + HAND);
+    while (true) {
+      int tag = chunk.getInt(base + 4 * hand);
+      if ((tag & REFERENCED) == 0) {
+        chunk.putInt(base + HAND, (hand + 1) % WAYS);
+        return hand;
+      }
+      chunk.putInt(base + 4 * hand, tag & ~REFERENCED);
+      hand = (hand + 1) % WAYS;
+    }
+  }
+
+  /* Tag of a key: hash bits the bucket index does not use, with the flag bits clear */
+  private static int tagOf(long hash) {
+    return (int) (hash >>> 32) & ~FLAGS;
+  }
+
+  /* Offset of a way's entry */
+  private static int entry(int base, int way) {
+    return base + HEADER_BYTES + way * ENTRY_BYTES;
+  }
+}
@@ -0,0 +1,218 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
+
+/**
+ * Solves large batches of yields on a fork/join pool.
+ * Each bond goes through CalcYield exactly as it would sequentially, and
+ * results come back in input order, bit for bit the same as a sequential
+ * run. That holds because no yield is seeded from neighbouring prices,
+ * whose last bits depend on what was memoized first: shared calculators
+ * never seed, and per-worker calculators whose yield memo was made
+ * withNeighbours are rejected.
+ *
+ * Bonds cost very different amounts to solve: long maturities price more
+ * years per guess, and bonds whose yield is below -1 need the flipped
+ * bracket. The batch is therefore split by estimated cost rather than by
+ * count, and split finely enough that idle workers can steal the
+ * expensive pieces.
+ *
+ * Workers can either share one calculator and its memos, which must be safe
+ * to share (see BondYieldCalculator.concurrent), or each keep a calculator
+ * of their own that stays warm between batches.
+ */
+public class ParallelYieldBatch {
+  /* Ranges at or below this many bonds are never split */
+  private static final int MIN_BONDS = 8;
+
+  /* Pieces per worker to aim for, so there is something left to steal */
+  private static final int PIECES_PER_WORKER = 16;
+
+  private final ForkJoinPool pool;
+  private final BondYieldCalculator shared;                 /* null when per worker */
+  private final ThreadLocal<BondYieldCalculator> workers;   /* null when shared */
+
+  private ParallelYieldBatch(ForkJoinPool pool, BondYieldCalculator shared, Supplier<BondYieldCalculator> calculators) {
+    this.pool = pool;
+    this.shared = shared;
+    this.workers = calculators == null ? null : ThreadLocal.withInitial(() -> reproducible(calculators.get()));
+  }
+
+  /**
+  * Creates a batch whose workers share a calculator and its memos,
+  * running on the common pool.
+  * @param  calc calculator that is safe to share between threads
+  * @return      parallel batch
+  */
+  public static ParallelYieldBatch shared(BondYieldCalculator calc) {
+    return shared(calc, ForkJoinPool.commonPool());
+  }
+
+  /**
+  * Creates a batch whose workers share a calculator and its memos.
+  * @param  calc calculator that is safe to share between threads
+  * @param  pool pool to run on
+  * @return      parallel batch
+  */
+  public static ParallelYieldBatch shared(BondYieldCalculator calc, ForkJoinPool pool) {
+    if (!calc.isThreadSafe()) {
+      throw new IllegalArgumentException("Calculator memos are not striped, create it with BondYieldCalculator.concurrent()");
+    }
+    return new ParallelYieldBatch(pool, calc, null);
+  }
+
+  /**
+  * Creates a batch where every worker thread keeps its own calculator,
+  * running on the common pool.
+  * @param  calculators creates a worker's calculator the first time it is needed
+  * @return             parallel batch
+  */
+  public static ParallelYieldBatch perWorker(Supplier<BondYieldCalculator> calculators) {
+    return perWorker(calculators, ForkJoinPool.commonPool());
+  }
+
+  /**
+  * Creates a batch where every worker thread keeps its own calculator.
+  * @param  calculators creates a worker's calculator the first time it is needed,
+  *                     called once up front to check its yield memo keeps no neighbours
+  * @param  pool        pool to run on
+  * @return             parallel batch
+  */
+  public static ParallelYieldBatch perWorker(Supplier<BondYieldCalculator> calculators, ForkJoinPool pool) {
+    reproducible(calculators.get());
+    return new ParallelYieldBatch(pool, null, calculators);
+  }
+
+  /**
+  * Checks that a per-worker calculator gives the yields a sequential run
+  * would, whichever bonds its worker happened to solve before.
+  * @param  calc calculator made for a worker
+  * @return      calc
+  */
+  private static BondYieldCalculator reproducible(BondYieldCalculator calc) {
+    if (calc.seedsFromNeighbours()) {
+      throw new IllegalArgumentException("Per-worker calculators must not seed from neighbouring prices, "
+                                         + "make their yield memo without withNeighbours()");
+    }
+    return calc;
+  }
+
+  /**
+  * Finds the yield of every bond of a batch, in parallel.
+  * @param  coupons coupon rates
+  * @param  years   numbers of years to maturity
+  * @param  faces   face values
+  * @param  prices  prices of the bonds
+  * @param  yields  receives the yield of each bond, in input order
+  */
+  public void yields(double[] coupons, int[] years, double[] faces, double[] prices, double[] yields) {
+    int n = yields.length;
+    if (coupons.length != n || years.length != n || faces.length != n || prices.length != n) {
+      throw new IllegalArgumentException("All columns of a batch must have the same length");
+    }
+
+    /* Running total of estimated cost, so any range can be split at its halfway cost */
+    long[] costs = new long[n + 1];
+    for (int i = 0; i < n; i++) {
+      costs[i + 1] = costs[i] + estimateCost(coupons[i], years[i], faces[i], prices[i]);
+    }
+    long grain = Math.max(1, costs[n] / ((long) pool.getParallelism() * PIECES_PER_WORKER));
+
+    pool.invoke(new YieldTask(coupons, years, faces, prices, yields, costs, grain, 0, n));
+  }
+
+  /**
+  * Rough relative cost of solving a bond's yield. Every guess prices up to
+  * years of coupon payments. If the price is not above the price at the
+  * upper bracket of 5.0, the root is not to the right of -1: odd years give
+  * up straight away, and even years usually pay for walking away from the
+  * asymptote. YieldBracket settles most bonds without pricing them, the
+  * rest pay for the price at 5.0 here and a second bracket in the solver.
+  * @param  coupon coupon rate
+  * @param  years  number of years to maturity
+  * @param  face   face value
+  * @param  price  price of bond
+  * @return        estimated cost in arbitrary units
+  */
+  static long estimateCost(double coupon, int years, double face, double price) {
+    if (years <= 0) {
+      return 1;
+    }
+    long cost = 8 + years;
+    YieldBracket bracket = YieldBracket.classify(coupon, years, face, price);
+    if (bracket == YieldBracket.NO_ROOT || bracket == YieldBracket.ZERO) {
+      return 1;
+    } else if (bracket == YieldBracket.FLIPPED) {
+      return 2 * cost;
+    } else if (bracket == YieldBracket.UNKNOWN
+               && !(price > BondYieldCalculator.calcClosedFormPrice(coupon, years, face, 5.0))) {
+      cost = years % 2 == 0 ? 3 * cost : 2;
+    }
+    return cost;
+  }
+
+  private BondYieldCalculator calculator() {
+    return shared != null ? shared : workers.get();
+  }
+
+  /* Solves a range of the batch, splitting it in two by cost while it is large */
+  private class YieldTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final double[] coupons;
+    private final int[] years;
+    private final double[] faces;
+    private final double[] prices;
+    private final double[] yields;
+    private final long[] costs;
+    private final long grain;
+    private final int from;
+    private final int to;
+
+    YieldTask(double[] coupons, int[] years, double[] faces, double[] prices, double[] yields,
+              long[] costs, long grain, int from, int to) {
+      this.coupons = coupons;
+      this.years = years;
+      this.faces = faces;
+      this.prices = prices;
+      this.yields = yields;
+      this.costs = costs;
+      this.grain = grain;
+      this.from = from;
+      this.to = to;
+    }
+
+    protected void compute() {
+      if (to - from <= MIN_BONDS || costs[to] - costs[from] <= grain) {
+        BondYieldCalculator calc = calculator();
+        for (int i = from; i < to; i++) {
+          yields[i] = calc.CalcYield(coupons[i], years[i], faces[i], prices[i]);
+        }
+        return;
+      }
+      int mid = halfwayCost();
+      invokeAll(new YieldTask(coupons, years, faces, prices, yields, costs, grain, from, mid),
+                new YieldTask(coupons, years, faces, prices, yields, costs, grain, mid, to));
+    }
+
+    /**
+    * Finds where the range splits into two halves of about equal cost,
+    * keeping at least one bond on each side.
+    * @return index of the first bond of the second half
+    */
+    private int halfwayCost() {
+      long half = costs[from] + (costs[to] - costs[from]) / 2;
+      int low = from + 1;
+      int high = to - 1;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (costs[mid] < half) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return low;
+    }
+  }
+}
@@ -0,0 +1,9 @@
+/**
+ * How BondYieldCalculator values the coupon payments of a bond.
+ */
+public enum PricingMode {
+  /* Sum each year's discount factor, memoized per rate, and scale by the coupon payment */
+  MEMOIZED,
+  /* Evaluate the coupon stream with the closed form of the geometric series */
+  CLOSED_FORM
+}
@@ -0,0 +1,317 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Reprices a portfolio under a set of parallel rate shocks.
+ * The result is a bonds x scenarios matrix of prices, row by row:
+ * prices[bond * scenarios + scenario] = CalcPrice(coupon, years, face, rate + shock).
+ *
+ * Bonds are grouped by rate, so each shifted rate's discount and annuity
+ * factors are worked out once per group and scenario and shared by every
+ * bond in the group, without going through the memos. Filling in factors
+ * costs a pow per year, so a group with too few bonds to pay that back
+ * prices each of its bonds in closed form instead. Work is split into
+ * (rate group, block of scenarios) pieces: the factors of a block are laid
+ * out year by year with the block's scenarios side by side, so filling in
+ * a bond's row for the block reads one contiguous run of factors and writes
+ * one contiguous run of prices. Pieces run in parallel on a fork/join pool.
+ *
+ * Apart from the matrix itself, memory is a few ints per bond and, per
+ * worker thread, factors for up to 64 scenarios up to the longest maturity
+ * priced from factors. Each worker keeps its factors between calls and
+ * only grows them for a portfolio with a longer maturity.
+ *
+ * With PricingMode.CLOSED_FORM every price is bit for bit that of CalcPrice
+ * in that mode. With PricingMode.MEMOIZED prices from factors are bit for
+ * bit those of CalcPrice in that mode, and prices in closed form agree to
+ * within rounding.
+ */
+public class ScenarioEngine {
+  /* Most scenarios priced together from one table of factors */
+  private static final int MAX_BLOCK = 64;
+  private static final int MIN_BLOCK = 8;
+
+  /* Pieces per worker to aim for */
+  private static final int PIECES_PER_WORKER = 4;
+
+  /* Groups need at least one bond per this many years of factors to use them */
+  private static final int YEARS_PER_BOND = 4;
+
+  private final PricingMode pricingMode;
+  private final ForkJoinPool pool;
+
+  /* Room for one block's factors, per worker thread */
+  private final ThreadLocal<double[]> factors = ThreadLocal.withInitial(() -> new double[0]);
+
+  /**
+  * Creates an engine that prices the same way as CalcPrice with
+  * PricingMode.MEMOIZED, on the common pool.
+  */
+  public ScenarioEngine() {
+    this(PricingMode.MEMOIZED, ForkJoinPool.commonPool());
+  }
+
+  /**
+  * Creates an engine.
+  * @param  pricingMode MEMOIZED to share discount factors between bonds of the same rate,
+  *                     CLOSED_FORM for one pow per price
+  * @param  pool        pool to run on
+  */
+  public ScenarioEngine(PricingMode pricingMode, ForkJoinPool pool) {
+    this.pricingMode = pricingMode;
+    this.pool = pool;
+  }
+
+  /**
+  * Prices every bond under every shock.
+  * @param  coupons coupon rates
+  * @param  years   numbers of years to maturity
+  * @param  faces   face values
+  * @param  rates   discount rates before the shock
+  * @param  shocks  shifts added to every rate, one per scenario
+  * @return         bonds x scenarios prices, row by row
+  */
+  public double[] prices(double[] coupons, int[] years, double[] faces, double[] rates, double[] shocks) {
+    long cells = (long) rates.length * shocks.length;
+    if (cells > Integer.MAX_VALUE - 8) {
+      throw new IllegalArgumentException("A " + rates.length + " x " + shocks.length + " matrix does not fit in one array");
+    }
+    double[] prices = new double[(int) cells];
+    prices(coupons, years, faces, rates, shocks, prices);
+    return prices;
+  }
+
+  /**
+  * Prices every bond under every shock into an existing matrix.
+  * @param  coupons coupon rates
+  * @param  years   numbers of years to maturity
+  * @param  faces   face values
+  * @param  rates   discount rates before the shock
+  * @param  shocks  shifts added to every rate, one per scenario
+  * @param  prices  receives bonds x scenarios prices, row by row
+  */
+  public void prices(double[] coupons, int[] years, double[] faces, double[] rates, double[] shocks, double[] prices) {
+    int n = rates.length;
+    if (coupons.length != n || years.length != n || faces.length != n) {
+      throw new IllegalArgumentException("All columns of a portfolio must have the same length");
+    }
+    if (prices.length != (long) n * shocks.length) {
+      throw new IllegalArgumentException("Price matrix must hold " + n + " x " + shocks.length + " prices");
+    }
+    for (int year : years) {
+      if (year < 0) {
+        throw new IllegalArgumentException("Years to maturity cannot be negative: " + year);
+      }
+    }
+    if (n == 0 || shocks.length == 0) {
+      return;
+    }
+
+    Groups groups = new Groups(rates, years);
+    int target = pool.getParallelism() * PIECES_PER_WORKER;
+    int blocksWanted = (target + groups.count - 1) / groups.count;
+    int block = Math.max(MIN_BLOCK, Math.min(MAX_BLOCK, (shocks.length + blocksWanted - 1) / blocksWanted));
+    int blocksPerGroup = (shocks.length + block - 1) / block;
+
+    int pieces = groups.count * blocksPerGroup;
+    int piecesPerLeaf = Math.max(1, pieces / target);
+
+    int factorsLength = 0;
+    for (int group = 0; group < groups.count; group++) {
+      if (usesFactors(groups, group)) {
+        factorsLength = Math.max(factorsLength, 2 * (groups.maxYears[group] + 1) * block);
+      }
+    }
+
+    Portfolio portfolio = new Portfolio(coupons, years, faces, shocks, prices, groups, block, blocksPerGroup,
+                                        piecesPerLeaf, factorsLength);
+    pool.invoke(new PieceTask(portfolio, 0, pieces));
+  }
+
+  /**
+  * Prices one group's bonds for one block of scenarios.
+  * @param  p       portfolio being priced
+  * @param  piece   index of the piece, group major
+  * @param  factors scratch room for the block's factors, when the group uses them
+  */
+  private void pricePiece(Portfolio p, int piece, double[] factors) {
+    int group = piece / p.blocksPerGroup;
+    int first = (piece % p.blocksPerGroup) * p.block;
+    int width = Math.min(p.block, p.shocks.length - first);
+    int scenarios = p.shocks.length;
+    double rate = p.groups.rates[group];
+    int maxYears = p.groups.maxYears[group];
+
+    if (!usesFactors(p.groups, group)) {
+      for (int k = p.groups.starts[group]; k < p.groups.starts[group + 1]; k++) {
+        int bond = p.groups.order[k];
+        int row = bond * scenarios + first;
+        for (int j = 0; j < width; j++) {
+          p.prices[row + j] = p.years[bond] == 0
+            ? p.faces[bond]
+            : BondYieldCalculator.calcClosedFormPrice(p.coupons[bond], p.years[bond], p.faces[bond], rate + p.shocks[first + j]);
+        }
+      }
+      return;
+    }
+
+    /*
+    * Factors year by year, the block's scenarios side by side:
+    * annuity of year n for scenario j at 2 * n * width + j, discount after it at (2 * n + 1) * width + j.
+    * Summed the same way as DiscountRow so prices match CalcPrice exactly.
+    */
+    for (int j = 0; j < width; j++) {
+      factors[j] = 0.0;
+      factors[width + j] = 1.0;
+    }
+    for (int year = 1; year <= maxYears; year++) {
+      int at = 2 * year * width;
+      for (int j = 0; j < width; j++) {
+        double discount = 1.0 / Math.pow((1.0 + (rate + p.shocks[first + j])), year);
+        factors[at + j] = factors[at - 2 * width + j] + discount;
+        factors[at + width + j] = discount;
+      }
+    }
+
+    for (int k = p.groups.starts[group]; k < p.groups.starts[group + 1]; k++) {
+      int bond = p.groups.order[k];
+      int row = bond * scenarios + first;
+      double face = p.faces[bond];
+      if (p.years[bond] == 0) {
+        Arrays.fill(p.prices, row, row + width, face);
+        continue;
+      }
+      double cf = p.coupons[bond] * face;
+      int at = 2 * p.years[bond] * width;
+      for (int j = 0; j < width; j++) {
+        p.prices[row + j] = cf * factors[at + j] + face * factors[at + width + j];
+      }
+    }
+  }
+
+  /**
+  * Whether a group is priced from factors, which pays off when enough
+  * bonds share the pow per year of filling them in.
+  * @param  groups bonds grouped by rate
+  * @param  group  index of the group
+  * @return        true to fill in factors, false to price in closed form
+  */
+  private boolean usesFactors(Groups groups, int group) {
+    int size = groups.starts[group + 1] - groups.starts[group];
+    return pricingMode != PricingMode.CLOSED_FORM && (long) size * YEARS_PER_BOND >= groups.maxYears[group];
+  }
+
+  /* Bonds grouped by the bits of their rate, each group's bonds listed together */
+  private static class Groups {
+    int count;
+    double[] rates = new double[16];
+    int[] maxYears = new int[16];
+    int[] starts;
+    final int[] order;
+
+    Groups(double[] bondRates, int[] years) {
+      int n = bondRates.length;
+      int[] groupOf = new int[n];
+      long[] keys = new long[16];
+      SlotIndex index = new SlotIndex();
+      for (int i = 0; i < n; i++) {
+        long bits = Double.doubleToLongBits(bondRates[i]);
+        int hash = (int) DiscountCache.hash(bits);
+        int group = SlotIndex.EMPTY;
+        for (int pos = index.start(hash); index.slotAt(pos) != SlotIndex.EMPTY; pos = index.next(pos)) {
+          if (index.hashAt(pos) == hash && keys[index.slotAt(pos)] == bits) {
+            group = index.slotAt(pos);
+            break;
+          }
+        }
+        if (group == SlotIndex.EMPTY) {
+          if (count == keys.length) {
+            keys = Arrays.copyOf(keys, count * 2);
+            rates = Arrays.copyOf(rates, count * 2);
+            maxYears = Arrays.copyOf(maxYears, count * 2);
+          }
+          group = count++;
+          keys[group] = bits;
+          rates[group] = bondRates[i];
+          index.insert(hash, group);
+        }
+        groupOf[i] = group;
+        maxYears[group] = Math.max(maxYears[group], years[i]);
+      }
+
+      /* Counting sort of the bonds by group */
+      starts = new int[count + 1];
+      for (int i = 0; i < n; i++) {
+        starts[groupOf[i] + 1]++;
+      }
+      for (int g = 0; g < count; g++) {
+        starts[g + 1] += starts[g];
+      }
+      order = new int[n];
+      int[] next = Arrays.copyOf(starts, count);
+      for (int i = 0; i < n; i++) {
+        order[next[groupOf[i]]++] = i;
+      }
+    }
+  }
+
+  /* Everything a piece needs to price its part of the matrix */
+  private static class Portfolio {
+    final double[] coupons;
+    final int[] years;
+    final double[] faces;
+    final double[] shocks;
+    final double[] prices;
+    final Groups groups;
+    final int block;
+    final int blocksPerGroup;
+    final int piecesPerLeaf;
+    final int factorsLength;    /* room for the factors of the longest group priced from them */
+
+    Portfolio(double[] coupons, int[] years, double[] faces, double[] shocks, double[] prices,
+              Groups groups, int block, int blocksPerGroup, int piecesPerLeaf, int factorsLength) {
+      this.coupons = coupons;
+      this.years = years;
+      this.faces = faces;
+      this.shocks = shocks;
+      this.prices = prices;
+      this.groups = groups;
+      this.block = block;
+      this.blocksPerGroup = blocksPerGroup;
+      this.piecesPerLeaf = piecesPerLeaf;
+      this.factorsLength = factorsLength;
+    }
+  }
+
+  /* Prices a range of pieces, splitting it in two while it is large */
+  private class PieceTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Portfolio portfolio;
+    private final int from;
+    private final int to;
+
+    PieceTask(Portfolio portfolio, int from, int to) {
+      this.portfolio = portfolio;
+      this.from = from;
+      this.to = to;
+    }
+
+    protected void compute() {
+      if (to - from <= portfolio.piecesPerLeaf) {
+        double[] room = factors.get();
+        if (room.length < portfolio.factorsLength) {
+          room = new double[portfolio.factorsLength];
+          factors.set(room);
+        }
+        for (int piece = from; piece < to; piece++) {
+          pricePiece(portfolio, piece, room);
+        }
+        return;
+      }
+      int mid = (from + to) >>> 1;
+      invokeAll(new PieceTask(portfolio, from, mid), new PieceTask(portfolio, mid, to));
+    }
+  }
+}
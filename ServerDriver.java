@@ -0,0 +1,206 @@
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Load test for CalcServer against localhost, in the spirit of Driver.
+ * Starts a server in process, checks its answers against a local
+ * calculator, then has several clients send a mix of price and yield
+ * requests drawn from a shared pool of bonds. Each load run is repeated
+ * without pipelining (one request in flight) and with a window of requests
+ * in flight per client, and reports requests per second and the latency
+ * from sending a request to receiving its answer.
+ *
+ * Usage: java ServerDriver [clients] [requests per client] [window] [bonds]
+ */
+public class ServerDriver {
+  public static void main(String[] args) throws Exception {
+    int clients = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+    int requests = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+    int window = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+    int bonds = args.length > 3 ? Integer.parseInt(args[3]) : 20000;
+
+    double[][] pool = bondPool(bonds);
+    CalcServer server = new CalcServer(BondYieldCalculator.concurrent(), clients);
+    try {
+      int port = server.start(0);
+      System.out.println("Chimera - Calculation Server on port " + port + "\n");
+
+      System.out.println("======================== Answers =======================");
+      checkAnswers(port, pool);
+      checkBadRequests(port);
+
+      System.out.println("========================= Load =========================");
+      System.out.printf("%d clients, %d requests each, %d bonds\n", clients, requests, bonds);
+      loadTest(port, pool, clients, requests, 1);
+      loadTest(port, pool, clients, requests, window);
+      System.out.println("Server yield memo: " + server.calculator().yieldCacheStats());
+      System.out.println("");
+    } finally {
+      server.close();
+    }
+  }
+
+  /**
+  * Random bonds, each a row of coupon, years, face, rate, and the price at that rate.
+  * @param  num number of bonds
+  * @return     bonds
+  */
+  private static double[][] bondPool(int num) {
+    Random rand = new Random(18);
+    BondYieldCalculator calc = new BondYieldCalculator();
+    double[][] pool = new double[num][];
+    for (int i = 0; i < num; i++) {
+      double coupon = rand.nextDouble() * 0.2;
+      int years = rand.nextInt(40) + 1;
+      double face = 100 + rand.nextDouble() * 999900;
+      double rate = rand.nextDouble() * 0.3 - 0.05;
+      pool[i] = new double[] {coupon, years, face, rate, calc.CalcPrice(coupon, years, face, rate)};
+    }
+    return pool;
+  }
+
+  /**
+  * Pipelines a price and a yield request for every bond and compares the
+  * answers with a local calculator. Prices must match exactly. Yields may
+  * start from different memo neighbours, so they must agree on whether
+  * there is a yield and be within the solver's accuracy in price.
+  * @param  port port of the server
+  * @param  pool bonds to ask about
+  */
+  private static void checkAnswers(int port, double[][] pool) throws IOException {
+    BondYieldCalculator local = new BondYieldCalculator();
+    int failures = 0;
+    try (CalcClient client = new CalcClient(port)) {
+      for (double[] bond : pool) {
+        client.sendPrice(bond[0], (int) bond[1], bond[2], bond[3]);
+        client.sendYield(bond[0], (int) bond[1], bond[2], bond[4]);
+      }
+      for (double[] bond : pool) {
+        double price = client.receive();
+        double yield = client.receive();
+        double expectedYield = local.CalcYield(bond[0], (int) bond[1], bond[2], bond[4]);
+        boolean yieldOk = Double.isNaN(yield) ? Double.isNaN(expectedYield)
+          : !Double.isNaN(expectedYield)
+            && Math.abs(local.CalcPrice(bond[0], (int) bond[1], bond[2], yield) - bond[4]) < BondYieldCalculator.ACCURACY;
+        if (Double.compare(price, bond[4]) != 0 || !yieldOk) {
+          failures++;
+          System.out.printf("X coupon %f, years %d, face %f: price %s vs %s, yield %s vs %s\n", bond[0], (int) bond[1], bond[2],
+                            price, bond[4], yield, expectedYield);
+        }
+      }
+    }
+    System.out.printf("%d bonds priced and solved over the wire, %d failures\n", pool.length, failures);
+    System.out.println("");
+  }
+
+  /**
+  * Sends requests the calculator cannot take between good ones on one
+  * connection. Each bad one must be answered BAD_REQUEST, and the good
+  * ones after it must still be answered.
+  * @param  port port of the server
+  */
+  private static void checkBadRequests(int port) throws IOException {
+    int[] badYears = {-1, Integer.MIN_VALUE, CalcProtocol.MAX_YEARS + 1, 50_000_000};
+    double expected = new BondYieldCalculator().CalcPrice(0.10, 5, 1000, 0.15);
+    int rejected = 0;
+    int answered = 0;
+    try (CalcClient client = new CalcClient(port)) {
+      for (int years : badYears) {
+        client.sendPrice(0.10, years, 1000, 0.15);
+        client.sendYield(0.10, years, 1000, 900);
+        client.sendPrice(0.10, 5, 1000, 0.15);
+      }
+      for (int i = 0; i < badYears.length; i++) {
+        for (int bad = 0; bad < 2; bad++) {
+          try {
+            client.receive();
+          } catch (IOException e) {
+            rejected++;
+          }
+        }
+        answered += Double.compare(client.receive(), expected) == 0 ? 1 : 0;
+      }
+    }
+    System.out.printf("%d of %d bad requests rejected, %d of %d good requests after them answered\n",
+                      rejected, 2 * badYears.length, answered, badYears.length);
+    System.out.println("");
+  }
+
+  /**
+  * Runs clients on their own threads, each keeping up to window requests
+  * in flight, and prints throughput and latency over all of them.
+  * @param  port     port of the server
+  * @param  pool     bonds to draw requests from
+  * @param  clients  number of clients
+  * @param  requests requests per client
+  * @param  window   requests each client keeps in flight
+  */
+  private static void loadTest(int port, double[][] pool, int clients, int requests, int window) throws Exception {
+    ExecutorService threads = Executors.newFixedThreadPool(clients);
+    try {
+      List<Future<LatencyHistogram>> runs = new ArrayList<>();
+      long start = System.nanoTime();
+      for (int c = 0; c < clients; c++) {
+        long seed = 1000L * window + c;
+        runs.add(threads.submit(() -> runClient(port, pool, requests, window, seed)));
+      }
+      LatencyHistogram latencies = new LatencyHistogram();
+      for (Future<LatencyHistogram> run : runs) {
+        latencies.add(run.get());
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+
+      long total = latencies.count();
+      System.out.printf("window %4d: %9.0f req/s, %6.1f MB/s, p50 %8.1f us, p99 %8.1f us, p99.9 %8.1f us, max %8.1f us\n",
+                        window, total / seconds,
+                        total * (double) (CalcProtocol.REQUEST_BYTES + CalcProtocol.RESPONSE_BYTES) / seconds / 1e6,
+                        latencies.valueAtPercentile(50) / 1000.0, latencies.valueAtPercentile(99) / 1000.0,
+                        latencies.valueAtPercentile(99.9) / 1000.0, latencies.max() / 1000.0);
+    } finally {
+      threads.shutdown();
+    }
+  }
+
+  /**
+  * One client's share of a load run: an even mix of price and yield
+  * requests for random bonds of the pool.
+  * @param  port     port of the server
+  * @param  pool     bonds to draw requests from
+  * @param  requests number of requests
+  * @param  window   requests kept in flight
+  * @param  seed     seed of the client's bond choices
+  * @return          latency of every request
+  */
+  private static LatencyHistogram runClient(int port, double[][] pool, int requests, int window, long seed) throws IOException {
+    Random rand = new Random(seed);
+    LatencyHistogram latencies = new LatencyHistogram();
+    long[] sent = new long[window];
+
+    try (CalcClient client = new CalcClient(port)) {
+      int received = 0;
+      for (int i = 0; i < requests; i++) {
+        if (client.pending() == window) {
+          client.receive();
+          latencies.record(System.nanoTime() - sent[received++ % window]);
+        }
+        double[] bond = pool[rand.nextInt(pool.length)];
+        sent[i % window] = System.nanoTime();
+        if (rand.nextBoolean()) {
+          client.sendPrice(bond[0], (int) bond[1], bond[2], bond[3]);
+        } else {
+          client.sendYield(bond[0], (int) bond[1], bond[2], bond[4]);
+        }
+        /* Let a full window go out in one write, receive sends whatever is left */
+        if (client.pending() == window) {
+          client.flush();
+        }
+      }
+      while (client.pending() > 0) {
+        client.receive();
+        latencies.record(System.nanoTime() - sent[received++ % window]);
+      }
+    }
+    return latencies;
+  }
+}
@@ -0,0 +1,144 @@
+import java.util.Arrays;
+
+/**
+ * Open addressing hash index from key hash to memo slot.
+ * Only hashes and slots are stored here; the memo keeps the keys in its own
+ * primitive arrays and confirms a candidate slot by comparing them, so
+ * looking up a key allocates nothing. Uses linear probing and shifts
+ * entries back on removal, so there are no tombstones to clean up.
+ *
+ * Lookups walk the candidates for a hash like this:
+ *   for (int pos = index.start(hash); index.slotAt(pos) != SlotIndex.EMPTY; pos = index.next(pos)) {
+ *     if (index.hashAt(pos) == hash && keyMatches(index.slotAt(pos))) { ... }
+ *   }
+ */
+class SlotIndex {
+  static final int EMPTY = -1;
+
+  private static final int INITIAL_CAPACITY = 16;
+  private static final float LOAD_FACTOR = 0.75f;
+
+  private int[] slots;
+  private int[] hashes;
+  private int mask;
+  private int count;
+
+  SlotIndex() {
+    allocate(INITIAL_CAPACITY);
+  }
+
+  /**
+  * Mixes the raw bits of a key field into a running hash.
+  * Call with 0 for the first field, then pass the result along.
+  * @param  hash  hash of the fields so far
+  * @param  field bits of the next field
+  * @return       hash including the field
+  */
+  static long mix(long hash, long field) {
+    long h = (hash ^ field) * 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    return h ^ (h >>> 33);
+  }
+
+  /* Position to start looking for a hash at */
+  int start(int hash) {
+    return hash & mask;
+  }
+
+  /* Position after pos, wrapping around */
+  int next(int pos) {
+    return (pos + 1) & mask;
+  }
+
+  /* Slot stored at a position, or EMPTY */
+  int slotAt(int pos) {
+    return slots[pos];
+  }
+
+  /* Hash stored at a position */
+  int hashAt(int pos) {
+    return hashes[pos];
+  }
+
+  /**
+  * Adds a slot under a hash. The caller has checked the key is not present.
+  * @param  hash hash of the slot's key
+  * @param  slot slot to add
+  */
+  void insert(int hash, int slot) {
+    if (count + 1 > LOAD_FACTOR * slots.length) {
+      rehash(slots.length * 2);
+    }
+    int pos = start(hash);
+    while (slots[pos] != EMPTY) {
+      pos = next(pos);
+    }
+    slots[pos] = slot;
+    hashes[pos] = hash;
+    count++;
+  }
+
+  /**
+  * Removes a slot, moving later entries of the probe sequence back
+  * so lookups never stop early at the hole.
+  * @param  hash hash of the slot's key
+  * @param  slot slot to remove
+  */
+  void remove(int hash, int slot) {
+    int pos = start(hash);
+    while (slots[pos] != slot) {
+      if (slots[pos] == EMPTY) {
+        return;
+      }
+      pos = next(pos);
+    }
+
+    int hole = pos;
+    for (pos = next(pos); slots[pos] != EMPTY; pos = next(pos)) {
+      int home = start(hashes[pos]);
+      /* Entry can fill the hole if its home is not between the hole and itself */
+      boolean movable = hole <= pos ? (home <= hole || home > pos) : (home <= hole && home > pos);
+      if (movable) {
+        slots[hole] = slots[pos];
+        hashes[hole] = hashes[pos];
+        hole = pos;
+      }
+    }
+    slots[hole] = EMPTY;
+    count--;
+  }
+
+  void clear() {
+    Arrays.fill(slots, EMPTY);
+    count = 0;
+  }
+
+  /* Bytes used per indexed slot, including the free space kept by the load factor */
+  static int bytesPerEntry() {
+    return (int) Math.ceil(8 / LOAD_FACTOR);
+  }
+
+  private void rehash(int capacity) {
+    int[] oldSlots = slots;
+    int[] oldHashes = hashes;
+    allocate(capacity);
+    for (int pos = 0; pos < oldSlots.length; pos++) {
+      if (oldSlots[pos] != EMPTY) {
+        int target = start(oldHashes[pos]);
+        while (slots[target] != EMPTY) {
+          target = next(target);
+        }
+        slots[target] = oldSlots[pos];
+        hashes[target] = oldHashes[pos];
+      }
+    }
+  }
+
+  private void allocate(int capacity) {
+    slots = new int[capacity];
+    hashes = new int[capacity];
+    Arrays.fill(slots, EMPTY);
+    mask = capacity - 1;
+  }
+}
@@ -0,0 +1,93 @@
+import java.util.Arrays;
+
+/**
+ * A few doubly linked lists of memo slots, stored as int arrays indexed by
+ * slot so that moving an entry around does not allocate. A slot is in at
+ * most one list at a time. Head of a list is the most recently added slot.
+ */
+class SlotLists {
+  private static final int NONE = -1;
+
+  private int[] prev;
+  private int[] next;
+  private byte[] owner;       /* list the slot is in, NONE if in none */
+  private final int[] head;
+  private final int[] tail;
+  private final int[] count;
+
+  SlotLists(int lists) {
+    prev = new int[0];
+    next = new int[0];
+    owner = new byte[0];
+    head = new int[lists];
+    tail = new int[lists];
+    count = new int[lists];
+    clear();
+  }
+
+  void resize(int slots) {
+    int old = owner.length;
+    prev = Arrays.copyOf(prev, slots);
+    next = Arrays.copyOf(next, slots);
+    owner = Arrays.copyOf(owner, slots);
+    Arrays.fill(owner, old, slots, (byte) NONE);
+  }
+
+  void clear() {
+    Arrays.fill(owner, (byte) NONE);
+    Arrays.fill(head, NONE);
+    Arrays.fill(tail, NONE);
+    Arrays.fill(count, 0);
+  }
+
+  void addFirst(int list, int slot) {
+    prev[slot] = NONE;
+    next[slot] = head[list];
+    if (head[list] != NONE) {
+      prev[head[list]] = slot;
+    } else {
+      tail[list] = slot;
+    }
+    head[list] = slot;
+    owner[slot] = (byte) list;
+    count[list]++;
+  }
+
+  void remove(int slot) {
+    int list = owner[slot];
+    if (list == NONE) {
+      return;
+    }
+    if (prev[slot] != NONE) {
+      next[prev[slot]] = next[slot];
+    } else {
+      head[list] = next[slot];
+    }
+    if (next[slot] != NONE) {
+      prev[next[slot]] = prev[slot];
+    } else {
+      tail[list] = prev[slot];
+    }
+    owner[slot] = (byte) NONE;
+    count[list]--;
+  }
+
+  void moveToFirst(int list, int slot) {
+    remove(slot);
+    addFirst(list, slot);
+  }
+
+  /* Least recently added slot of a list, or -1 if empty */
+  int last(int list) {
+    return tail[list];
+  }
+
+  int size(int list) {
+    return count[list];
+  }
+
+  /* List the slot is in, or -1 */
+  int listOf(int slot) {
+    return owner[slot];
+  }
+}
@@ -0,0 +1,73 @@
+/**
+ * Discount memo that can be shared between threads.
+ * Rows are spread over a power of two number of DiscountCache stripes,
+ * each guarded by its own lock that is only held while looking up or
+ * creating a row. Filling in factors only locks the row itself,
+ * see DiscountRow.
+ */
+public class StripedDiscountCache implements DiscountMemo {
+  private final DiscountCache[] stripes;
+  private final int mask;
+
+  public StripedDiscountCache(CacheConfig config) {
+    stripes = new DiscountCache[config.stripes()];
+    for (int i = 0; i < stripes.length; i++) {
+      stripes[i] = new DiscountCache(config.stripe());
+    }
+    mask = stripes.length - 1;
+  }
+
+  public DiscountRow row(double rate) {
+    DiscountCache stripe = stripeFor(rate);
+    synchronized (stripe) {
+      return stripe.row(rate);
+    }
+  }
+
+  public void forEach(Visitor visitor) {
+    for (DiscountCache stripe : stripes) {
+      synchronized (stripe) {
+        stripe.forEach(visitor);
+      }
+    }
+  }
+
+  public int size() {
+    int size = 0;
+    for (DiscountCache stripe : stripes) {
+      synchronized (stripe) {
+        size += stripe.size();
+      }
+    }
+    return size;
+  }
+
+  public void clear() {
+    for (DiscountCache stripe : stripes) {
+      synchronized (stripe) {
+        stripe.clear();
+      }
+    }
+  }
+
+  public CacheStats stats() {
+    CacheStats total = new CacheStats(0, 0, 0, 0, 0, 0);
+    for (DiscountCache stripe : stripes) {
+      synchronized (stripe) {
+        total = total.plus(stripe.stats());
+      }
+    }
+    return total;
+  }
+
+  /**
+  * Picks the stripe of a row from the high bits of its hash,
+  * the stripe's own index uses the low bits.
+  * @param  rate discount rate
+  * @return      stripe the row belongs to
+  */
+  private DiscountCache stripeFor(double rate) {
+    long hash = DiscountCache.hash(Double.doubleToLongBits(rate));
+    return stripes[(int) (hash >>> 40) & mask];
+  }
+}
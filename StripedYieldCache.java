@@ -0,0 +1,90 @@
+/**
+ * Yield memo that can be shared between threads.
+ * Keys are spread over a power of two number of YieldCache stripes,
+ * each guarded by its own lock, so threads only wait on each other
+ * when their keys land in the same stripe. Stripes keep no ladders of
+ * neighbouring prices: a yield seeded from them depends on which prices
+ * other threads happened to memoize first, and a shared memo must give
+ * every thread the yield a sequential run would.
+ */
+public class StripedYieldCache implements YieldMemo {
+  private final YieldCache[] stripes;
+  private final int mask;
+
+  public StripedYieldCache(CacheConfig config) {
+    stripes = new YieldCache[config.stripes()];
+    for (int i = 0; i < stripes.length; i++) {
+      stripes[i] = new YieldCache(config.stripe());
+    }
+    mask = stripes.length - 1;
+  }
+
+  public double get(double coupon, int years, double face, double price) {
+    YieldCache stripe = stripeFor(coupon, years, face, price);
+    synchronized (stripe) {
+      return stripe.get(coupon, years, face, price);
+    }
+  }
+
+  public void put(double coupon, int years, double face, double price, double yield) {
+    YieldCache stripe = stripeFor(coupon, years, face, price);
+    synchronized (stripe) {
+      stripe.put(coupon, years, face, price, yield);
+    }
+  }
+
+  public boolean neighbours(double coupon, int years, double face, double price, double[] out) {
+    return false;
+  }
+
+  public void forEach(Visitor visitor) {
+    for (YieldCache stripe : stripes) {
+      synchronized (stripe) {
+        stripe.forEach(visitor);
+      }
+    }
+  }
+
+  public int size() {
+    int size = 0;
+    for (YieldCache stripe : stripes) {
+      synchronized (stripe) {
+        size += stripe.size();
+      }
+    }
+    return size;
+  }
+
+  public void clear() {
+    for (YieldCache stripe : stripes) {
+      synchronized (stripe) {
+        stripe.clear();
+      }
+    }
+  }
+
+  public CacheStats stats() {
+    CacheStats total = new CacheStats(0, 0, 0, 0, 0, 0);
+    for (YieldCache stripe : stripes) {
+      synchronized (stripe) {
+        total = total.plus(stripe.stats());
+      }
+    }
+    return total;
+  }
+
+  /**
+  * Picks the stripe of a key from the high bits of its hash,
+  * the stripe's own index uses the low bits.
+  * @param  coupon coupon rate
+  * @param  years  number of years to maturity
+  * @param  face   face value
+  * @param  price  price of bond
+  * @return        stripe the key belongs to
+  */
+  private YieldCache stripeFor(double coupon, int years, double face, double price) {
+    long hash = YieldCache.hash(Double.doubleToLongBits(coupon), years,
+                                Double.doubleToLongBits(face), Double.doubleToLongBits(price));
+    return stripes[(int) (hash >>> 40) & mask];
+  }
+}
@@ -0,0 +1,151 @@
+import java.util.Arrays;
+
+/**
+ * Window TinyLFU eviction.
+ * New slots enter a small LRU window. Slots pushed out of the window
+ * have to compete with the least recently used slot of the main area,
+ * and whichever key has been requested less often (according to a
+ * count-min sketch of recent key hashes) is evicted. The main area is a
+ * segmented LRU: slots hit while on probation are promoted to the
+ * protected segment, which keeps frequently used slots away from eviction.
+ */
+class TinyLfuPolicy implements EvictionPolicy {
+  private static final int WINDOW = 0;
+  private static final int PROBATION = 1;
+  private static final int PROTECTED = 2;
+
+  /* Sketch has 4 rows of 4-bit counters, counters saturate at 15 */
+  private static final int ROWS = 4;
+  private static final int MAX_FREQUENCY = 15;
+  private static final long[] SEEDS = {
+    0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+  };
+
+  private final int maxWindow;
+  private final int maxProtected;
+  private final int capacity;
+  private final SlotLists lists = new SlotLists(3);
+  private int[] hashes = new int[0];
+
+  /* Count-min sketch, each long holds 16 counters */
+  private final long[] sketch;
+  private final int rowMask;
+  private final int sampleSize;
+  private int additions;
+
+  TinyLfuPolicy(int capacity) {
+    this.capacity = capacity;
+    this.maxWindow = Math.max(1, capacity / 100);
+    this.maxProtected = (int) ((capacity - maxWindow) * 0.8);
+
+    int counters = Integer.highestOneBit(Math.max(16, Math.min(capacity, 1 << 24)) - 1) << 1;
+    this.sketch = new long[ROWS * counters / 16];
+    this.rowMask = counters - 1;
+    this.sampleSize = 10 * Math.min(capacity, 1 << 24);
+  }
+
+  public int onInsert(int slot, int hash) {
+    hashes[slot] = hash;
+    increment(hash);
+    lists.addFirst(WINDOW, slot);
+    if (lists.size(WINDOW) <= maxWindow) {
+      return -1;
+    }
+
+    /* Window is full, its oldest slot becomes a candidate for the main area */
+    int candidate = lists.last(WINDOW);
+    lists.moveToFirst(PROBATION, candidate);
+    if (lists.size(WINDOW) + lists.size(PROBATION) + lists.size(PROTECTED) <= capacity) {
+      return -1;
+    }
+
+    int victim = lists.last(PROBATION);
+    if (victim == candidate && lists.size(PROTECTED) > 0) {
+      /* Nothing on probation to compete with, compete with the protected segment */
+      victim = lists.last(PROTECTED);
+    }
+    int evicted = frequency(hashes[candidate]) > frequency(hashes[victim]) ? victim : candidate;
+    lists.remove(evicted);
+    return evicted;
+  }
+
+  public void onAccess(int slot, int hash) {
+    increment(hash);
+    int list = lists.listOf(slot);
+    if (list == WINDOW) {
+      lists.moveToFirst(WINDOW, slot);
+    } else if (list == PROBATION || list == PROTECTED) {
+      lists.moveToFirst(PROTECTED, slot);
+      if (lists.size(PROTECTED) > maxProtected) {
+        lists.moveToFirst(PROBATION, lists.last(PROTECTED));
+      }
+    }
+  }
+
+  public void onRemove(int slot) {
+    lists.remove(slot);
+  }
+
+  public void resize(int slots) {
+    lists.resize(slots);
+    hashes = Arrays.copyOf(hashes, slots);
+  }
+
+  public void clear() {
+    lists.clear();
+    Arrays.fill(sketch, 0L);
+    additions = 0;
+  }
+
+  /**
+  * Estimated number of recent requests for a key.
+  * @param  hash hash of the key
+  * @return      smallest of the key's counters
+  */
+  private int frequency(int hash) {
+    int min = MAX_FREQUENCY;
+    for (int row = 0; row < ROWS; row++) {
+      int index = counterIndex(hash, row);
+      int count = (int) ((sketch[index >>> 4] >>> ((index & 15) << 2)) & 0xf);
+      min = Math.min(min, count);
+    }
+    return min;
+  }
+
+  /**
+  * Counts a request for a key. Once enough requests were counted every
+  * counter is halved so that keys that stopped being used fade out.
+  * @param  hash hash of the key
+  */
+  private void increment(int hash) {
+    boolean added = false;
+    for (int row = 0; row < ROWS; row++) {
+      int index = counterIndex(hash, row);
+      int shift = (index & 15) << 2;
+      long word = sketch[index >>> 4];
+      if (((word >>> shift) & 0xf) < MAX_FREQUENCY) {
+        sketch[index >>> 4] = word + (1L << shift);
+        added = true;
+      }
+    }
+    if (added && ++additions == sampleSize) {
+      for (int i = 0; i < sketch.length; i++) {
+        sketch[i] = (sketch[i] >>> 1) & 0x7777777777777777L;
+      }
+      additions /= 2;
+    }
+  }
+
+  /**
+  * Position of a key's counter in a row of the sketch. Rows are laid out
+  * one after the other, each with its own seed.
+  * @param  hash hash of the key
+  * @param  row  row of the sketch
+  * @return      index of the counter across the whole sketch
+  */
+  private int counterIndex(int hash, int row) {
+    long mixed = (hash + SEEDS[row]) * SEEDS[row];
+    mixed ^= mixed >>> 32;
+    return row * (rowMask + 1) + ((int) mixed & rowMask);
+  }
+}
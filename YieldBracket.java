@@ -0,0 +1,82 @@
+/**
+ * Where a yield can be before any pricing, shared by the solvers.
+ * With v = 1 / (1 + r), the price is the polynomial
+ * P(v) = C * v + C * v^2 + ... + (C + F) * v^N.
+ * When the coupon payment and face value are positive, P(v) - price has one
+ * sign change, so by Descartes' rule of signs there is exactly one root with
+ * v > 0, i.e. r > -1, if the price is positive and none otherwise. Along
+ * r > -1 the price falls from infinity to 0, and it equals the undiscounted
+ * cash C * N + F at r = 0. So a price above the undiscounted cash has its
+ * yield in (-1, 0) and a price below it in (0, 5), as long as it is above
+ * the price at r = 5, which lies between C / 6 and C / 5 + F / 6.
+ *
+ * classify only commits to a bracket where these bounds settle it with room
+ * to spare for rounding and for the ACCURACY allowed at the ends of the
+ * brackets. Anything else is UNKNOWN and is bracketed by trial pricing as
+ * before, so the solvers find a yield in exactly the same cases.
+ */
+public enum YieldBracket {
+  /* Odd years whose price is out of reach right of -1: no yield */
+  NO_ROOT(Double.NaN, Double.NaN, 0),
+  /* Price is exactly the undiscounted cash: the yield is 0 */
+  ZERO(0.0, 0.0, 0),
+  /* Price above the undiscounted cash: yield between -1 and 0 */
+  NEGATIVE(0.0, -1.0 + BondYieldCalculator.ACCURACY, 1),
+  /* Price below the undiscounted cash: yield between 0 and 5 */
+  POSITIVE(5.0, 0.0, 1),
+  /* Even years whose price is out of reach right of -1: only the bracket left of -1 is left */
+  FLIPPED(-5.0, -1.0 - BondYieldCalculator.ACCURACY, -1),
+  /* Not settled up front: try the bracket right of -1, then left of it for even years */
+  UNKNOWN(5.0, -1.0 + BondYieldCalculator.ACCURACY, 1);
+
+  private static final double ACCURACY = BondYieldCalculator.ACCURACY;
+
+  /* Relative room left for rounding in the computed prices the bounds stand in for */
+  private static final double ROUNDING = 1e-9;
+
+  /* Price at r = -1 + ACCURACY is at least (C + F) / ACCURACY, this is well below it */
+  private static final double NEAR_ASYMPTOTE = 1e6;
+
+  /* Far end of the bracket, and the end next to -1 that backs away from it when it overflows */
+  public final double guessA;
+  public final double guessB;
+
+  /* Which way guessB backs away from -1 */
+  public final int direction;
+
+  YieldBracket(double guessA, double guessB, int direction) {
+    this.guessA = guessA;
+    this.guessB = guessB;
+    this.direction = direction;
+  }
+
+  /**
+  * Classifies a bond's yield in O(1), without pricing the bond.
+  * @param  coupon coupon rate
+  * @param  years  number of years to maturity
+  * @param  face   face value
+  * @param  price  price of bond
+  * @return        bracket to start from
+  */
+  public static YieldBracket classify(double coupon, int years, double face, double price) {
+    double cf = coupon * face;
+    if (years <= 0 || !(cf > 0) || !(face > 0) || !Double.isFinite(cf) || !Double.isFinite(face) || !Double.isFinite(price)) {
+      return UNKNOWN;
+    }
+
+    /* Below the lowest the price at r = 5 can be: the yield is past 5 or there is none */
+    if (price <= cf / 6 * (1 - ROUNDING) - 2 * ACCURACY) {
+      return years % 2 == 0 ? FLIPPED : NO_ROOT;
+    }
+
+    /* Between the price at r = 5 and the asymptote at -1, for sure */
+    if (price >= (cf / 5 + face / 6) * (1 + ROUNDING) + 2 * ACCURACY && price <= (cf + face) * NEAR_ASYMPTOTE) {
+      double undiscounted = cf * years + face;
+      if (price == undiscounted) {
+        return ZERO;
+      }
+      return price > undiscounted ? NEGATIVE : POSITIVE;
+    }
+    return UNKNOWN;
+  }
+}
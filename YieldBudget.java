@@ -0,0 +1,156 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits on a budgeted CalcYield: how many iterations it may take, how long
+ * it may run, and how close the price at the yield has to be to count as
+ * converged. An absolute tolerance of ACCURACY cannot be met once prices are
+ * so large that neighbouring doubles are further apart than that, so a
+ * relative tolerance loosens it to a fraction of the price. Immutable, the
+ * with-style methods return a new budget.
+ */
+public class YieldBudget {
+  private final int maxIterations;
+  private final long timeLimitNanos;        /* 0 for no time limit */
+  private final double relativeTolerance;
+
+  private YieldBudget(int maxIterations, long timeLimitNanos, double relativeTolerance) {
+    this.maxIterations = maxIterations;
+    this.timeLimitNanos = timeLimitNanos;
+    this.relativeTolerance = relativeTolerance;
+  }
+
+  /**
+  * Budget with no limits, which behaves like CalcYield.
+  * @return unlimited budget
+  */
+  public static YieldBudget unlimited() {
+    return new YieldBudget(Integer.MAX_VALUE, 0, 0.0);
+  }
+
+  /**
+  * Budget of a number of iterations, each of which prices the bond once or twice.
+  * @param  maxIterations most iterations to take, at least 1
+  * @return               budget of iterations
+  */
+  public static YieldBudget iterations(int maxIterations) {
+    if (maxIterations < 1) {
+      throw new IllegalArgumentException("Iteration budget must be at least 1");
+    }
+    return new YieldBudget(maxIterations, 0, 0.0);
+  }
+
+  /**
+  * Copy of this budget that also stops once a time has passed. The clock is
+  * read once per iteration, so a solve can overrun by one iteration.
+  * @param  duration time the solve may take, must be positive
+  * @param  unit     unit of the duration
+  * @return          budget with a time limit
+  */
+  public YieldBudget withTimeLimit(long duration, TimeUnit unit) {
+    if (duration <= 0) {
+      throw new IllegalArgumentException("Time limit must be positive");
+    }
+    return new YieldBudget(maxIterations, unit.toNanos(duration), relativeTolerance);
+  }
+
+  /**
+  * Copy of this budget that also counts a yield as converged once the price
+  * at the yield is within a fraction of the price.
+  * @param  tolerance fraction of the price, e.g. 1e-12
+  * @return           budget with a relative tolerance
+  */
+  public YieldBudget withRelativeTolerance(double tolerance) {
+    if (!(tolerance >= 0.0)) {
+      throw new IllegalArgumentException("Relative tolerance cannot be negative");
+    }
+    return new YieldBudget(maxIterations, timeLimitNanos, tolerance);
+  }
+
+  public int maxIterations() {
+    return maxIterations;
+  }
+
+  public long timeLimitNanos() {
+    return timeLimitNanos;
+  }
+
+  public double relativeTolerance() {
+    return relativeTolerance;
+  }
+
+  /**
+  * Largest difference between the price at a yield and the price that
+  * still counts as converged.
+  * @param  price price of bond
+  * @return       tolerance for the price
+  */
+  public double tolerance(double price) {
+    return Math.max(BondYieldCalculator.ACCURACY, relativeTolerance * Math.abs(price));
+  }
+
+  /**
+  * Starts spending this budget on one solve.
+  * @param  price price of bond
+  * @return       tracker of the solve
+  */
+  Tracker start(double price) {
+    return new Tracker(this, price);
+  }
+
+  @Override
+  public String toString() {
+    return "maxIterations=" + maxIterations + (timeLimitNanos > 0 ? ", timeLimit=" + timeLimitNanos + "ns" : "")
+      + (relativeTolerance > 0 ? ", relativeTolerance=" + relativeTolerance : "");
+  }
+
+  /* Counts one solve's iterations against a budget and records how it ended */
+  static class Tracker {
+    final double tolerance;
+    private final int maxIterations;
+    private final long deadline;
+    private final boolean timed;
+    int iterations = 0;
+    YieldStatus status = YieldStatus.CONVERGED;
+
+    /* Set by the solver when it had to try the bracket left of -1, for CalcMetrics */
+    boolean flipped;
+
+    Tracker(YieldBudget budget, double price) {
+      tolerance = budget.tolerance(price);
+      maxIterations = budget.maxIterations;
+      timed = budget.timeLimitNanos > 0;
+      deadline = timed ? System.nanoTime() + budget.timeLimitNanos : 0;
+    }
+
+    /**
+    * Wraps up the solve, working out how well the yield prices the bond.
+    * A NaN yield means no root was found.
+    * @param  calc   calculator used to price the bond
+    * @param  coupon coupon rate
+    * @param  years  number of years to maturity
+    * @param  face   face value
+    * @param  price  price of bond
+    * @param  yield  yield the solver ended on
+    * @return        result of the solve
+    */
+    YieldResult finish(BondYieldCalculator calc, double coupon, int years, double face, double price, double yield) {
+      if (Double.isNaN(yield)) {
+        return new YieldResult(yield, Double.NaN, iterations, YieldStatus.NO_ROOT);
+      }
+      return new YieldResult(yield, calc.CalcPrice(coupon, years, face, yield) - price, iterations, status);
+    }
+
+    /**
+    * Takes one iteration out of the budget.
+    * @return false, marking the solve as out of budget, if there was none left
+    */
+    boolean spend() {
+      if (iterations >= maxIterations || (timed && System.nanoTime() - deadline > 0)) {
+        status = YieldStatus.BUDGET_EXHAUSTED;
+        return false;
+      }
+      iterations++;
+      return true;
+    }
+  }
+}
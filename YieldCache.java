@@ -0,0 +1,362 @@
+import java.util.Arrays;
+
+/**
+ * Single-threaded yield memo.
+ * Keys are stored as the raw bits of coupon, years, face, and price in one
+ * long array (4 longs per slot) and yields in a double array, indexed by
+ * slot. Looking up a yield hashes those bits directly, so it allocates
+ * nothing and probes the index once.
+ *
+ * Each bond, i.e. coupon, years, and face, also keeps a ladder of its slots
+ * in order of price, so that a price that misses can find the stored prices
+ * either side of it. The ladder holds up to MAX_RUNGS prices; once full, the
+ * price furthest from a new one leaves the ladder (but not the memo), which
+ * keeps the ladder around the prices the bond currently trades at.
+ * A bond seen at only one price keeps that slot in place of a ladder,
+ * since one price has no neighbours; its ladder is made on the second.
+ * Only a config made withNeighbours keeps ladders.
+ */
+public class YieldCache extends MemoCache implements YieldMemo {
+  private static final int KEY_WIDTH = 4;
+
+  private static final int BOND_WIDTH = 3;
+  private static final int MAX_RUNGS = 64;
+  private static final int INITIAL_RUNGS = 4;
+
+  /* 4 key longs 32 + yield 8 + used 1 + bond 4 */
+  private static final int BYTES_PER_ENTRY = 45;
+
+  /* 3 key longs 24 + ladder ref 4 + ladder size 4 + sole slot 4, ladders are counted as they are made */
+  private static final int BYTES_PER_BOND = 36;
+
+  private static final int ARRAY_HEADER_BYTES = 16;
+
+  private final SlotIndex index = new SlotIndex();
+  private long[] keys = new long[0];
+  private double[] yields = new double[0];
+  private boolean[] used = new boolean[0];
+
+  /* Bond of each slot, SlotIndex.EMPTY if the slot is on no ladder */
+  private int[] slotBonds = new int[0];
+
+  /* Bonds by id: key bits, and slots in order of price */
+  private final SlotIndex bondIndex = new SlotIndex();
+  private long[] bondKeys = new long[0];
+  private int[][] ladders = new int[0][];
+  private int[] ladderSizes = new int[0];
+
+  /* Only slot of a bond seen at one price, which has no ladder yet */
+  private int[] soleSlots = new int[0];
+
+  /* Heap held by the ladder arrays */
+  private long ladderBytes = 0;
+  private int[] freeBonds = new int[0];
+  private int freeBondCount = 0;
+  private int bondCount = 0;
+
+  public YieldCache(CacheConfig config) {
+    super(config);
+  }
+
+  /**
+  * Hashes a yield memo key from all the bits of its fields.
+  * @param  coupon raw bits of the coupon rate
+  * @param  years  number of years to maturity
+  * @param  face   raw bits of the face value
+  * @param  price  raw bits of the price
+  * @return        well mixed 64 bit hash
+  */
+  static long hash(long coupon, long years, long face, long price) {
+    return SlotIndex.mix(bondHash(coupon, years, face), price);
+  }
+
+  /**
+  * Hashes a bond, i.e. a yield memo key without its price.
+  * @param  coupon raw bits of the coupon rate
+  * @param  years  number of years to maturity
+  * @param  face   raw bits of the face value
+  * @return        well mixed 64 bit hash
+  */
+  static long bondHash(long coupon, long years, long face) {
+    long hash = SlotIndex.mix(0, coupon);
+    hash = SlotIndex.mix(hash, years);
+    return SlotIndex.mix(hash, face);
+  }
+
+  public double get(double coupon, int years, double face, double price) {
+    long couponBits = Double.doubleToLongBits(coupon);
+    long faceBits = Double.doubleToLongBits(face);
+    long priceBits = Double.doubleToLongBits(price);
+    int hash = (int) hash(couponBits, years, faceBits, priceBits);
+    int slot = find(hash, couponBits, years, faceBits, priceBits);
+    if (slot == SlotIndex.EMPTY) {
+      recordMiss();
+      return MISS;
+    }
+    if (!recordHit(slot, hash)) {
+      return MISS;
+    }
+    return yields[slot];
+  }
+
+  public void put(double coupon, int years, double face, double price, double yield) {
+    long couponBits = Double.doubleToLongBits(coupon);
+    long faceBits = Double.doubleToLongBits(face);
+    long priceBits = Double.doubleToLongBits(price);
+    int hash = (int) hash(couponBits, years, faceBits, priceBits);
+    int existing = find(hash, couponBits, years, faceBits, priceBits);
+    if (existing != SlotIndex.EMPTY) {
+      yields[existing] = yield;
+      return;
+    }
+    int slot = newSlot();
+    int base = slot * KEY_WIDTH;
+    keys[base] = couponBits;
+    keys[base + 1] = years;
+    keys[base + 2] = faceBits;
+    keys[base + 3] = priceBits;
+    yields[slot] = yield;
+    used[slot] = true;
+    slotBonds[slot] = SlotIndex.EMPTY;
+    index.insert(hash, slot);
+    if (config.keepsNeighbours() && !Double.isNaN(price) && !Double.isInfinite(price)) {
+      climb(slot, couponBits, years, faceBits, price);
+    }
+    admit(slot, hash);
+  }
+
+  public boolean neighbours(double coupon, int years, double face, double price, double[] out) {
+    long couponBits = Double.doubleToLongBits(coupon);
+    long faceBits = Double.doubleToLongBits(face);
+    int bond = findBond((int) bondHash(couponBits, years, faceBits), couponBits, years, faceBits);
+    if (bond == SlotIndex.EMPTY || ladderSizes[bond] < 2 || Double.isNaN(price)) {
+      return false;
+    }
+    int[] ladder = ladders[bond];
+    int above = rungAbove(ladder, ladderSizes[bond], price);
+    if (above == 0 || above == ladderSizes[bond]) {
+      return false;
+    }
+    int low = ladder[above - 1];
+    int high = ladder[above];
+    if (!isLive(low) || !isLive(high)) {
+      return false;
+    }
+    out[0] = priceAt(low);
+    out[1] = yields[low];
+    out[2] = priceAt(high);
+    out[3] = yields[high];
+    return true;
+  }
+
+  public void forEach(Visitor visitor) {
+    for (int slot = 0; slot < used.length; slot++) {
+      if (used[slot] && isLive(slot)) {
+        int base = slot * KEY_WIDTH;
+        visitor.visit(Double.longBitsToDouble(keys[base]), (int) keys[base + 1],
+                      Double.longBitsToDouble(keys[base + 2]), Double.longBitsToDouble(keys[base + 3]), yields[slot]);
+      }
+    }
+  }
+
+  /**
+  * Finds the slot holding a key.
+  * @param  hash   hash of the key
+  * @param  coupon raw bits of the coupon rate
+  * @param  years  number of years to maturity
+  * @param  face   raw bits of the face value
+  * @param  price  raw bits of the price
+  * @return        slot of the key, or SlotIndex.EMPTY
+  */
+  private int find(int hash, long coupon, int years, long face, long price) {
+    for (int pos = index.start(hash); index.slotAt(pos) != SlotIndex.EMPTY; pos = index.next(pos)) {
+      if (index.hashAt(pos) == hash) {
+        int slot = index.slotAt(pos);
+        int base = slot * KEY_WIDTH;
+        if (keys[base] == coupon && keys[base + 1] == years && keys[base + 2] == face && keys[base + 3] == price) {
+          return slot;
+        }
+      }
+    }
+    return SlotIndex.EMPTY;
+  }
+
+  /**
+  * Puts a freshly written slot on its bond's ladder, adding the bond if it
+  * has none yet, and making the ladder once the bond has a second price.
+  * A full ladder first drops whichever end is further from the new price.
+  * @param  slot   slot of the entry
+  * @param  coupon raw bits of the coupon rate
+  * @param  years  number of years to maturity
+  * @param  face   raw bits of the face value
+  * @param  price  price of the entry
+  */
+  private void climb(int slot, long coupon, int years, long face, double price) {
+    int hash = (int) bondHash(coupon, years, face);
+    int bond = findBond(hash, coupon, years, face);
+    if (bond == SlotIndex.EMPTY) {
+      bond = newBond(hash, coupon, years, face);
+    }
+
+    int[] ladder = ladders[bond];
+    int size = ladderSizes[bond];
+    if (size == 0) {
+      soleSlots[bond] = slot;
+      ladderSizes[bond] = 1;
+      slotBonds[slot] = bond;
+      return;
+    } else if (ladder == null) {
+      ladder = new int[INITIAL_RUNGS];
+      ladder[0] = soleSlots[bond];
+      ladders[bond] = ladder;
+      ladderBytes += ARRAY_HEADER_BYTES + 4 * INITIAL_RUNGS;
+    }
+    int at = rungAbove(ladder, size, price);
+    if (size == MAX_RUNGS) {
+      if (price - priceAt(ladder[0]) > priceAt(ladder[size - 1]) - price) {
+        slotBonds[ladder[0]] = SlotIndex.EMPTY;
+        System.arraycopy(ladder, 1, ladder, 0, at - 1);
+        at--;
+      } else {
+        slotBonds[ladder[size - 1]] = SlotIndex.EMPTY;
+        System.arraycopy(ladder, at, ladder, at + 1, size - 1 - at);
+      }
+    } else {
+      if (size == ladder.length) {
+        ladder = Arrays.copyOf(ladder, Math.min(MAX_RUNGS, size * 2));
+        ladders[bond] = ladder;
+        ladderBytes += 4 * (ladder.length - size);
+      }
+      System.arraycopy(ladder, at, ladder, at + 1, size - at);
+      ladderSizes[bond] = size + 1;
+    }
+    ladder[at] = slot;
+    slotBonds[slot] = bond;
+  }
+
+  /**
+  * Takes a slot off its bond's ladder, dropping the bond once its ladder is empty.
+  * @param  slot slot of the entry
+  */
+  private void fall(int slot) {
+    int bond = slotBonds[slot];
+    int[] ladder = ladders[bond];
+    int size = ladderSizes[bond];
+    if (ladder != null) {
+      int at = rungAbove(ladder, size, priceAt(slot)) - 1;
+      while (ladder[at] != slot) {
+        at--;
+      }
+      System.arraycopy(ladder, at + 1, ladder, at, size - 1 - at);
+    }
+    ladderSizes[bond] = --size;
+    slotBonds[slot] = SlotIndex.EMPTY;
+
+    if (size == 0) {
+      int base = bond * BOND_WIDTH;
+      bondIndex.remove((int) bondHash(bondKeys[base], bondKeys[base + 1], bondKeys[base + 2]), bond);
+      if (ladder != null) {
+        ladderBytes -= ARRAY_HEADER_BYTES + 4 * ladder.length;
+        ladders[bond] = null;
+      }
+      if (freeBondCount == freeBonds.length) {
+        freeBonds = Arrays.copyOf(freeBonds, Math.max(INITIAL_RUNGS, freeBondCount * 2));
+      }
+      freeBonds[freeBondCount++] = bond;
+    }
+  }
+
+  /**
+  * Finds the first rung of a ladder priced above a price.
+  * @param  ladder slots in order of price
+  * @param  size   number of rungs in use
+  * @param  price  price to place
+  * @return        index of the first rung above the price, size if there is none
+  */
+  private int rungAbove(int[] ladder, int size, double price) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (priceAt(ladder[mid]) <= price) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private double priceAt(int slot) {
+    return Double.longBitsToDouble(keys[slot * KEY_WIDTH + 3]);
+  }
+
+  /**
+  * Finds the id of a bond.
+  * @param  hash   hash of the bond
+  * @param  coupon raw bits of the coupon rate
+  * @param  years  number of years to maturity
+  * @param  face   raw bits of the face value
+  * @return        id of the bond, or SlotIndex.EMPTY
+  */
+  private int findBond(int hash, long coupon, int years, long face) {
+    for (int pos = bondIndex.start(hash); bondIndex.slotAt(pos) != SlotIndex.EMPTY; pos = bondIndex.next(pos)) {
+      if (bondIndex.hashAt(pos) == hash) {
+        int bond = bondIndex.slotAt(pos);
+        int base = bond * BOND_WIDTH;
+        if (bondKeys[base] == coupon && bondKeys[base + 1] == years && bondKeys[base + 2] == face) {
+          return bond;
+        }
+      }
+    }
+    return SlotIndex.EMPTY;
+  }
+
+  private int newBond(int hash, long coupon, int years, long face) {
+    int bond;
+    if (freeBondCount > 0) {
+      bond = freeBonds[--freeBondCount];
+    } else {
+      if (bondCount == ladderSizes.length) {
+        int capacity = Math.max(INITIAL_RUNGS, bondCount * 2);
+        bondKeys = Arrays.copyOf(bondKeys, capacity * BOND_WIDTH);
+        ladders = Arrays.copyOf(ladders, capacity);
+        ladderSizes = Arrays.copyOf(ladderSizes, capacity);
+        soleSlots = Arrays.copyOf(soleSlots, capacity);
+      }
+      bond = bondCount++;
+    }
+    int base = bond * BOND_WIDTH;
+    bondKeys[base] = coupon;
+    bondKeys[base + 1] = years;
+    bondKeys[base + 2] = face;
+    ladderSizes[bond] = 0;
+    bondIndex.insert(hash, bond);
+    return bond;
+  }
+
+  protected void resizeSlots(int slots) {
+    keys = Arrays.copyOf(keys, slots * KEY_WIDTH);
+    yields = Arrays.copyOf(yields, slots);
+    used = Arrays.copyOf(used, slots);
+    slotBonds = Arrays.copyOf(slotBonds, slots);
+  }
+
+  protected void removeSlot(int slot) {
+    if (used[slot]) {
+      int base = slot * KEY_WIDTH;
+      int hash = (int) hash(keys[base], keys[base + 1], keys[base + 2], keys[base + 3]);
+      index.remove(hash, slot);
+      if (slotBonds[slot] != SlotIndex.EMPTY) {
+        fall(slot);
+      }
+      used[slot] = false;
+    }
+  }
+
+  protected long estimatedBytes() {
+    int bonds = bondCount - freeBondCount;
+    return (long) size() * (BYTES_PER_ENTRY + SlotIndex.bytesPerEntry() + overheadBytesPerEntry())
+      + (long) bonds * (BYTES_PER_BOND + SlotIndex.bytesPerEntry()) + ladderBytes;
+  }
+}
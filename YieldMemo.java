@@ -0,0 +1,57 @@
+/**
+ * Memo to keep track of yields based on coupon, years,
+ * face value, and price.
+ */
+public interface YieldMemo {
+  /* Returned by get when there is no entry. Solvers never produce an infinite yield */
+  double MISS = Double.NEGATIVE_INFINITY;
+
+  /**
+  * Looks up a previously stored yield.
+  * @param  coupon coupon rate
+  * @param  years  number of years to maturity
+  * @param  face   face value
+  * @param  price  price of bond
+  * @return        stored yield, or MISS if there is none
+  */
+  double get(double coupon, int years, double face, double price);
+
+  /**
+  * Stores a yield, possibly evicting another entry.
+  * @param  coupon coupon rate
+  * @param  years  number of years to maturity
+  * @param  face   face value
+  * @param  price  price of bond
+  * @param  yield  yield of bond
+  */
+  void put(double coupon, int years, double face, double price, double yield);
+
+  /**
+  * Finds the stored yields of the same bond at the nearest prices below
+  * and above a price that is not stored itself.
+  * @param  coupon coupon rate
+  * @param  years  number of years to maturity
+  * @param  face   face value
+  * @param  price  price of bond
+  * @param  out    receives the lower price and its yield, then the higher price and its yield
+  * @return        true if there are stored prices on both sides
+  */
+  boolean neighbours(double coupon, int years, double face, double price, double[] out);
+
+  /**
+  * Calls the visitor with every entry currently held, in no particular order.
+  * @param  visitor receives each entry
+  */
+  void forEach(Visitor visitor);
+
+  int size();
+
+  void clear();
+
+  CacheStats stats();
+
+  /* Receives the entries of a yield memo */
+  interface Visitor {
+    void visit(double coupon, int years, double face, double price, double yield);
+  }
+}
@@ -0,0 +1,22 @@
+/**
+ * Outcome of a budgeted CalcYield: the yield together with how well it
+ * prices the bond, how many iterations it took, and why the solver stopped.
+ */
+public class YieldResult {
+  public final double yield;
+  public final double residual;       /* price at the yield minus the price, NaN if there is no yield */
+  public final int iterations;
+  public final YieldStatus status;
+
+  public YieldResult(double yield, double residual, int iterations, YieldStatus status) {
+    this.yield = yield;
+    this.residual = residual;
+    this.iterations = iterations;
+    this.status = status;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("yield=%s residual=%s iterations=%d status=%s", yield, residual, iterations, status);
+  }
+}
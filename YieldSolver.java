@@ -0,0 +1,75 @@
+/**
+ * Strategy used by BondYieldCalculator to find the yield of a bond.
+ * The yield is the root r of CalcPrice(coupon, years, face, r) - price.
+ * Implementations must not keep per-call state so that one solver can be
+ * shared by every calculator.
+ */
+public interface YieldSolver {
+  /**
+  * Finds the yield of a bond given its coupon rate, years to maturity,
+  * face value, and price.
+  * @param  calc   calculator used to price the bond at each guess
+  * @param  coupon coupon rate
+  * @param  years  number of years to maturity
+  * @param  face   face value
+  * @param  price  price of bond
+  * @return        yield of bond, or NaN if no yield could be bracketed
+  */
+  double solve(BondYieldCalculator calc, double coupon, int years, double face, double price);
+
+  /**
+  * Finds the yield of a bond within a budget of iterations and time,
+  * stopping with the best guess so far when the budget runs out.
+  * @param  calc   calculator used to price the bond at each guess
+  * @param  coupon coupon rate
+  * @param  years  number of years to maturity
+  * @param  face   face value
+  * @param  price  price of bond
+  * @param  budget limits on iterations, time, and tolerance
+  * @return        yield of bond and how the solve went
+  */
+  YieldResult solve(BondYieldCalculator calc, double coupon, int years, double face, double price, YieldBudget budget);
+
+  /**
+  * Finds the yield of a bond starting from a nearby guess whose price is
+  * already known, such as the yield and price of the bond's previous tick.
+  * Solvers that can make use of the guess step from it without pricing it
+  * again; by default the guess is ignored.
+  * @param  calc       calculator used to price the bond at each guess
+  * @param  coupon     coupon rate
+  * @param  years      number of years to maturity
+  * @param  face       face value
+  * @param  price      price of bond
+  * @param  guess      yield to start from
+  * @param  guessPrice price the guess was solved for, which sets the first step only
+  * @return            yield of bond, or NaN if no yield could be bracketed
+  */
+  default double solveNear(BondYieldCalculator calc, double coupon, int years, double face, double price,
+                           double guess, double guessPrice) {
+    return solve(calc, coupon, years, face, price);
+  }
+
+  /**
+  * Finds the yield of a bond known to lie between two yields whose prices
+  * are known, such as the stored yields of the nearest prices either side.
+  * The known prices must be within ACCURACY of pricing the bond at those
+  * yields and further than ACCURACY from the price, so that they tell
+  * which side of the price each end is on without pricing it again.
+  * Solvers that can make use of the bracket search only inside it; by
+  * default it is ignored.
+  * @param  calc      calculator used to price the bond at each guess
+  * @param  coupon    coupon rate
+  * @param  years     number of years to maturity
+  * @param  face      face value
+  * @param  price     price of bond
+  * @param  low       one end of the bracket
+  * @param  lowPrice  price of bond at low
+  * @param  high      other end of the bracket
+  * @param  highPrice price of bond at high
+  * @return           yield of bond, or NaN if no yield could be bracketed
+  */
+  default double solveWithin(BondYieldCalculator calc, double coupon, int years, double face, double price,
+                             double low, double lowPrice, double high, double highPrice) {
+    return solve(calc, coupon, years, face, price);
+  }
+}
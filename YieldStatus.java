@@ -0,0 +1,11 @@
+/**
+ * How a budgeted CalcYield ended, see YieldResult.
+ */
+public enum YieldStatus {
+  /* The yield prices within tolerance of the price, or is as close as doubles allow */
+  CONVERGED,
+  /* The iteration or time budget ran out first, the yield is the best guess so far */
+  BUDGET_EXHAUSTED,
+  /* The price is not reached anywhere in the brackets, the yield is NaN */
+  NO_ROOT
+}
@@ -0,0 +1,148 @@
+import java.util.Arrays;
+
+/**
+ * Keeps the yields of live bonds up to date as their prices tick.
+ * A bond is registered once and then fed prices. Each price is solved
+ * starting from the bond's previous yield, whose price the stream already
+ * holds (see YieldSolver.solveNear), so a small move costs one or two
+ * prices rather than a solve from the full bracket. The first price of a
+ * bond, and any price after one that had no yield, goes through CalcYield
+ * as usual.
+ *
+ * Bonds are kept in parallel primitive columns indexed by the handle
+ * returned by register, about 36 bytes per bond, and handles of removed
+ * bonds are reused. Not safe to share between threads; give each feed
+ * thread its own stream.
+ */
+public class YieldStream {
+  private static final int INITIAL_BONDS = 1024;
+
+  private final BondYieldCalculator calc;
+
+  /* Columns per handle, years is -1 for a removed bond */
+  private double[] coupons = new double[INITIAL_BONDS];
+  private int[] years = new int[INITIAL_BONDS];
+  private double[] faces = new double[INITIAL_BONDS];
+  private double[] prices = new double[INITIAL_BONDS];
+  private double[] yields = new double[INITIAL_BONDS];
+
+  /* Handles of removed bonds, ready to be reused */
+  private int[] free = new int[16];
+  private int freeCount = 0;
+
+  /* One past the highest handle ever handed out */
+  private int end = 0;
+  private int size = 0;
+
+  public YieldStream(BondYieldCalculator calc) {
+    this.calc = calc;
+  }
+
+  /**
+  * Adds a bond to the stream.
+  * @param  coupon coupon rate
+  * @param  years  number of years to maturity
+  * @param  face   face value
+  * @return        handle to feed the bond's prices with
+  */
+  public int register(double coupon, int years, double face) {
+    if (years < 0) {
+      throw new IllegalArgumentException("Years to maturity cannot be negative: " + years);
+    }
+    int bond;
+    if (freeCount > 0) {
+      bond = free[--freeCount];
+    } else {
+      if (end == coupons.length) {
+        grow();
+      }
+      bond = end++;
+    }
+    this.coupons[bond] = coupon;
+    this.years[bond] = years;
+    this.faces[bond] = face;
+    this.prices[bond] = Double.NaN;
+    this.yields[bond] = Double.NaN;
+    size++;
+    return bond;
+  }
+
+  /**
+  * Removes a bond from the stream, its handle may be handed out again.
+  * @param  bond handle of the bond
+  */
+  public void remove(int bond) {
+    check(bond);
+    years[bond] = -1;
+    if (freeCount == free.length) {
+      free = Arrays.copyOf(free, freeCount * 2);
+    }
+    free[freeCount++] = bond;
+    size--;
+  }
+
+  /**
+  * Feeds a new price of a bond.
+  * @param  bond  handle of the bond
+  * @param  price new price of bond
+  * @return       yield of bond at the new price
+  */
+  public double update(int bond, double price) {
+    check(bond);
+    if (price == prices[bond]) {
+      return yields[bond];
+    }
+    double last = yields[bond];
+    double yield = Double.isNaN(last)
+      ? calc.CalcYield(coupons[bond], years[bond], faces[bond], price)
+      : calc.CalcYieldNear(coupons[bond], years[bond], faces[bond], price, last, prices[bond]);
+    prices[bond] = price;
+    yields[bond] = yield;
+    return yield;
+  }
+
+  /**
+  * Feeds new prices of several bonds.
+  * @param  bonds  handles of the bonds
+  * @param  prices new price of each bond
+  * @param  out    receives the yield of each bond at its new price
+  */
+  public void update(int[] bonds, double[] prices, double[] out) {
+    if (bonds.length != prices.length || bonds.length != out.length) {
+      throw new IllegalArgumentException("All columns of an update must have the same length");
+    }
+    for (int i = 0; i < bonds.length; i++) {
+      out[i] = update(bonds[i], prices[i]);
+    }
+  }
+
+  /**
+  * Yield of a bond at the last price it was fed.
+  * @param  bond handle of the bond
+  * @return      last yield, NaN if no price has been fed yet
+  */
+  public double yield(int bond) {
+    check(bond);
+    return yields[bond];
+  }
+
+  /* Number of bonds registered and not removed */
+  public int size() {
+    return size;
+  }
+
+  private void check(int bond) {
+    if (bond < 0 || bond >= end || years[bond] < 0) {
+      throw new IllegalArgumentException("No bond registered with handle " + bond);
+    }
+  }
+
+  private void grow() {
+    int capacity = coupons.length * 2;
+    coupons = Arrays.copyOf(coupons, capacity);
+    years = Arrays.copyOf(years, capacity);
+    faces = Arrays.copyOf(faces, capacity);
+    prices = Arrays.copyOf(prices, capacity);
+    yields = Arrays.copyOf(yields, capacity);
+  }
+}